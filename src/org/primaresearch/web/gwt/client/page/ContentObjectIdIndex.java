@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.client.page;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.primaresearch.web.gwt.shared.page.ContentObjectC;
+
+/**
+ * Lookup maps (ID to object and ID to list position) for a list of page content objects.<br>
+ * <br>
+ * After a removal, the positions of the subsequent objects are updated lazily (on the next
+ * position lookup behind the removed object).<br>
+ * <br>
+ * If several objects share an ID, the first one in the list is returned (as with a linear search).
+ * The number of objects per ID is tracked so that removing or renaming one of them does not affect
+ * the others. 
+ *
+ * @author Christian Clausner
+ *
+ */
+public class ContentObjectIdIndex {
+
+	private List<ContentObjectC> source;
+	/** Expected size of the source list (to detect external modifications) */
+	private int sourceSize;
+	private Map<String, ContentObjectC> objects;
+	private Map<String, Integer> positions;
+	/** Number of objects per ID (only IDs used by more than one object) */
+	private Map<String, Integer> duplicates;
+	/** Positions from this index on are outdated */
+	private int firstOutdatedPosition;
+
+	/**
+	 * Constructor. Builds the maps for the given objects.
+	 * @param objects Content object list (the list itself is not modified)
+	 */
+	public ContentObjectIdIndex(List<ContentObjectC> objects) {
+		this.source = objects;
+		this.sourceSize = objects.size();
+		this.objects = new HashMap<String, ContentObjectC>(objects.size() * 2);
+		this.positions = new HashMap<String, Integer>(objects.size() * 2);
+		this.duplicates = new HashMap<String, Integer>();
+		for (int i=0; i<objects.size(); i++) {
+			ContentObjectC obj = objects.get(i);
+			if (obj.getId() == null)
+				continue;
+			if (!this.objects.containsKey(obj.getId())) { //First object wins (as with a linear search)
+				this.objects.put(obj.getId(), obj);
+				this.positions.put(obj.getId(), i);
+			}
+			else
+				addDuplicate(obj.getId());
+		}
+		firstOutdatedPosition = objects.size();
+	}
+
+	/**
+	 * Checks if the index has been built for the given list and if the list has only been
+	 * modified in conjunction with {@link #add(ContentObjectC)} and {@link #remove(ContentObjectC, int)}.
+	 */
+	public boolean isUpToDate(List<ContentObjectC> objects) {
+		return objects == source && objects.size() == sourceSize;
+	}
+
+	/**
+	 * Returns the object with the given ID.
+	 * @return A content object or <code>null</code>
+	 */
+	public ContentObjectC get(String id) {
+		return objects.get(id);
+	}
+
+	/**
+	 * Returns the position of the given object within the source list.
+	 * @return Position or -1 if not found (also for objects that share their ID with a preceding object)
+	 */
+	public int indexOf(ContentObjectC object) {
+		if (object == null || object.getId() == null)
+			return -1;
+		Integer pos = positions.get(object.getId());
+		if (pos == null)
+			return -1;
+		if (pos.intValue() >= firstOutdatedPosition) {
+			updatePositions();
+			pos = positions.get(object.getId());
+		}
+		if (pos != null && pos.intValue() < source.size() && source.get(pos.intValue()) == object)
+			return pos.intValue();
+		return -1;
+	}
+
+	/**
+	 * Registers the given object (to be called after the object has been appended to the source list).
+	 */
+	public void add(ContentObjectC object) {
+		sourceSize++;
+		if (object.getId() == null)
+			return;
+		if (firstOutdatedPosition >= sourceSize - 1)
+			firstOutdatedPosition = sourceSize;
+		if (!objects.containsKey(object.getId())) {
+			objects.put(object.getId(), object);
+			positions.put(object.getId(), sourceSize - 1);
+		}
+		else
+			addDuplicate(object.getId());
+	}
+
+	/**
+	 * Unregisters the given object (to be called after the object has been removed from the source list).
+	 * @param position Former position of the object in the source list
+	 */
+	public void remove(ContentObjectC object, int position) {
+		sourceSize--;
+		firstOutdatedPosition = Math.min(firstOutdatedPosition, position);
+		if (object.getId() != null)
+			unregister(object, object.getId());
+	}
+
+	/**
+	 * Updates the maps after the ID of the given object has been changed.
+	 */
+	public void idChanged(ContentObjectC object, String oldId) {
+		Integer pos = null;
+		if (oldId != null) {
+			if (objects.get(oldId) == object)
+				pos = positions.get(oldId);
+			unregister(object, oldId);
+		}
+		String id = object.getId();
+		if (id == null)
+			return;
+		if (!objects.containsKey(id)) {
+			objects.put(id, object);
+			if (pos != null)
+				positions.put(id, pos);
+			else {
+				positions.put(id, 0);
+				firstOutdatedPosition = 0; //Unknown position
+			}
+		}
+		else {
+			addDuplicate(id);
+			//The object might precede the one that has the ID so far
+			register(id);
+		}
+	}
+
+	/**
+	 * Removes the given object from the maps (the object is not in the source list under the given ID anymore).
+	 * If other objects still have the ID, the first of them takes its place.
+	 */
+	private void unregister(ContentObjectC object, String id) {
+		Integer count = duplicates.get(id);
+		if (count == null) {
+			if (objects.get(id) == object) {
+				objects.remove(id);
+				positions.remove(id);
+			}
+			return;
+		}
+		if (count.intValue() > 2)
+			duplicates.put(id, count.intValue() - 1);
+		else
+			duplicates.remove(id);
+		if (objects.get(id) == object)
+			register(id);
+	}
+
+	/**
+	 * Maps the given ID to the first object in the source list that has it (linear search; only used for duplicate IDs).
+	 */
+	private void register(String id) {
+		for (int i=0; i<source.size(); i++) {
+			ContentObjectC obj = source.get(i);
+			if (id.equals(obj.getId())) {
+				objects.put(id, obj);
+				positions.put(id, i);
+				return;
+			}
+		}
+		objects.remove(id);
+		positions.remove(id);
+	}
+
+	/**
+	 * Counts an additional object for the given ID.
+	 */
+	private void addDuplicate(String id) {
+		Integer count = duplicates.get(id);
+		duplicates.put(id, count != null ? count.intValue() + 1 : 2);
+	}
+
+	/**
+	 * Recalculates the outdated positions.
+	 */
+	private void updatePositions() {
+		for (int i=firstOutdatedPosition; i<source.size(); i++) {
+			ContentObjectC obj = source.get(i);
+			if (obj.getId() != null && objects.get(obj.getId()) == obj)
+				positions.put(obj.getId(), i);
+		}
+		firstOutdatedPosition = source.size();
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.client.page;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.maths.geometry.Rect;
+import org.primaresearch.web.gwt.shared.page.ContentObjectC;
+
+/**
+ * Uniform grid for fast hit testing of page content objects (all of one content type).<br>
+ * <br>
+ * Each object is registered in all grid cells its bounding box overlaps. A point query only
+ * checks the objects of one cell (bounding box prefilter, then exact polygon test).
+ * Coordinates outside the grid extent are mapped to the border cells, so objects can
+ * be added anywhere after the index has been built.<br>
+ * Within a cell the objects are kept in the order of the source list, so the hit test
+ * returns the same object as a linear search.
+ *
+ * @author Christian Clausner
+ *
+ */
+public class ContentObjectSpatialIndex {
+
+	private static final int TARGET_OBJECTS_PER_CELL = 4;
+	private static final int MAX_CELLS_PER_DIMENSION = 256;
+
+	private List<ContentObjectC> source;
+	/** Expected size of the source list (to detect external modifications) */
+	private int sourceSize;
+	private int left = 0;
+	private int top = 0;
+	private int cellWidth = 1;
+	private int cellHeight = 1;
+	private int cols = 1;
+	private int rows = 1;
+	private List<List<ContentObjectC>> cells;
+	/** Bounding boxes the objects were registered with (required for removal after outline changes) */
+	private Map<ContentObjectC, Rect> registeredBoxes;
+	/** Sequence numbers for keeping the list order within the cells (hit test priority) */
+	private Map<ContentObjectC, Integer> order;
+	private int nextOrder = 0;
+
+	/**
+	 * Constructor. Builds the index for the given objects.
+	 * @param objects Content object list (the list itself is not modified)
+	 */
+	public ContentObjectSpatialIndex(List<ContentObjectC> objects) {
+		this.source = objects;
+		this.sourceSize = objects.size();
+		registeredBoxes = new HashMap<ContentObjectC, Rect>(objects.size() * 2);
+		order = new HashMap<ContentObjectC, Integer>(objects.size() * 2);
+
+		//Extent of all objects
+		int right = 0, bottom = 0;
+		boolean first = true;
+		for (int i=0; i<objects.size(); i++) {
+			Rect box = getBoundingBox(objects.get(i));
+			if (box == null)
+				continue;
+			if (first) {
+				left = box.left; top = box.top; right = box.right; bottom = box.bottom;
+				first = false;
+			} else {
+				left = Math.min(left, box.left);
+				top = Math.min(top, box.top);
+				right = Math.max(right, box.right);
+				bottom = Math.max(bottom, box.bottom);
+			}
+		}
+		int width = Math.max(1, right - left + 1);
+		int height = Math.max(1, bottom - top + 1);
+
+		//Grid dimensions (roughly square cells)
+		int cellCount = Math.max(1, objects.size() / TARGET_OBJECTS_PER_CELL);
+		cols = (int)Math.round(Math.sqrt((double)cellCount * width / height));
+		cols = Math.max(1, Math.min(MAX_CELLS_PER_DIMENSION, cols));
+		rows = Math.max(1, Math.min(MAX_CELLS_PER_DIMENSION, cellCount / cols));
+		cellWidth = (width + cols - 1) / cols;
+		cellHeight = (height + rows - 1) / rows;
+
+		cells = new ArrayList<List<ContentObjectC>>(cols * rows);
+		for (int i=0; i<cols*rows; i++)
+			cells.add(null);
+
+		for (int i=0; i<objects.size(); i++) {
+			order.put(objects.get(i), nextOrder++);
+			register(objects.get(i));
+		}
+	}
+
+	/**
+	 * Checks if the index has been built for the given list and if the list has only been
+	 * modified in conjunction with {@link #add(ContentObjectC)} and {@link #remove(ContentObjectC)}. 
+	 */
+	public boolean isUpToDate(List<ContentObjectC> objects) {
+		return objects == source && objects.size() == sourceSize;
+	}
+
+	/**
+	 * Returns the number of indexed objects.
+	 */
+	public int size() {
+		return registeredBoxes.size();
+	}
+
+	/**
+	 * Adds the given object to the index (to be called when the object has been added to the source list).
+	 */
+	public void add(ContentObjectC object) {
+		order.put(object, nextOrder++);
+		register(object);
+		sourceSize++;
+	}
+
+	/**
+	 * Removes the given object from the index (to be called when the object has been removed from the source list).
+	 */
+	public void remove(ContentObjectC object) {
+		unregister(object);
+		order.remove(object);
+		sourceSize--;
+	}
+
+	/**
+	 * Re-registers the given object (to be called after the outline of the object has been changed).
+	 * The object keeps its position in the hit test order.
+	 */
+	public void update(ContentObjectC object) {
+		if (!order.containsKey(object)) //Not in the source list
+			return;
+		unregister(object);
+		register(object);
+	}
+
+	/**
+	 * Registers the given object in all cells its bounding box overlaps (objects without outline are ignored).
+	 */
+	private void register(ContentObjectC object) {
+		Rect box = getBoundingBox(object);
+		if (box == null)
+			return;
+		box = new Rect(box.left, box.top, box.right, box.bottom); //Copy (the polygon may be changed in place)
+		registeredBoxes.put(object, box);
+
+		int lastCol = getCol(box.right);
+		int lastRow = getRow(box.bottom);
+		for (int row=getRow(box.top); row<=lastRow; row++) {
+			for (int col=getCol(box.left); col<=lastCol; col++) {
+				int index = row * cols + col;
+				List<ContentObjectC> cell = cells.get(index);
+				if (cell == null) {
+					cell = new ArrayList<ContentObjectC>(TARGET_OBJECTS_PER_CELL);
+					cells.set(index, cell);
+				}
+				insertSorted(cell, object);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given object from all cells it is registered in.
+	 */
+	private void unregister(ContentObjectC object) {
+		Rect box = registeredBoxes.remove(object);
+		if (box == null)
+			return;
+
+		int lastCol = getCol(box.right);
+		int lastRow = getRow(box.bottom);
+		for (int row=getRow(box.top); row<=lastRow; row++) {
+			for (int col=getCol(box.left); col<=lastCol; col++) {
+				List<ContentObjectC> cell = cells.get(row * cols + col);
+				if (cell != null)
+					cell.remove(object);
+			}
+		}
+	}
+
+	/**
+	 * Inserts the given object into the cell list, keeping the list order of the source
+	 */
+	private void insertSorted(List<ContentObjectC> list, ContentObjectC object) {
+		int seq = order.get(object);
+		int pos = list.size();
+		while (pos > 0 && order.get(list.get(pos-1)) > seq)
+			pos--;
+		list.add(pos, object);
+	}
+
+	/**
+	 * Returns the first object that contains the given point.
+	 * @return A content object or <code>null</code>
+	 */
+	public ContentObjectC getObjectAt(int x, int y) {
+		List<ContentObjectC> cell = cells.get(getRow(y) * cols + getCol(x));
+		if (cell == null)
+			return null;
+		for (int i=0; i<cell.size(); i++) {
+			ContentObjectC obj = cell.get(i);
+			Polygon coords = obj.getCoords();
+			if (coords == null)
+				continue;
+			Rect box = coords.getBoundingBox();
+			if (x < box.left || x > box.right || y < box.top || y > box.bottom)
+				continue;
+			if (coords.isPointInside(x, y))
+				return obj;
+		}
+		return null;
+	}
+
+	private int getCol(int x) {
+		int col = (x - left) / cellWidth;
+		return col < 0 ? 0 : (col >= cols ? cols - 1 : col);
+	}
+
+	private int getRow(int y) {
+		int row = (y - top) / cellHeight;
+		return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+	}
+
+	private static Rect getBoundingBox(ContentObjectC object) {
+		if (object == null || object.getCoords() == null || object.getCoords().getSize() == 0)
+			return null;
+		return object.getCoords().getBoundingBox();
+	}
+}
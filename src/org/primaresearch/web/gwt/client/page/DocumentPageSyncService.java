@@ -16,6 +16,8 @@
 package org.primaresearch.web.gwt.client.page;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import org.primaresearch.dla.page.layout.physical.shared.ContentType;
 import org.primaresearch.dla.page.layout.physical.shared.RegionType;
@@ -24,8 +26,11 @@ import org.primaresearch.maths.geometry.Polygon;
 import org.primaresearch.shared.Pair;
 import org.primaresearch.shared.variable.Variable;
 import org.primaresearch.web.gwt.shared.RemoteException;
+import org.primaresearch.web.gwt.shared.page.CompactContentObjects;
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 import org.primaresearch.web.gwt.shared.page.ContentObjectSync;
+import org.primaresearch.web.gwt.shared.page.EditOperation;
+import org.primaresearch.web.gwt.shared.page.ExportProgress;
 import org.primaresearch.web.gwt.shared.page.GroupC;
 
 import com.google.gwt.user.client.rpc.RemoteService;
@@ -49,6 +54,40 @@ public interface DocumentPageSyncService extends RemoteService {
 	 */
 	public ArrayList<ContentObjectC> loadContentObjects(String url, String contentType) throws RemoteException;
 	
+	/**
+	 * Requests page content objects of multiple types (e.g. regions and text lines) from the server in one go.
+	 * The page content hierarchy is only traversed once on server side.
+	 * @param url Source of PAGE XML file (optional)
+	 * @param contentTypes Types of requested page content objects  (supported: 'Region', 'TextLine', 'Word', 'Glyph', 'Border', 'PrintSpace')
+	 * @return Map with content type as key and list of content objects as value
+	 * @throws RemoteException
+	 */
+	public HashMap<String, ArrayList<ContentObjectC>> loadAllContentObjects(String url, HashSet<String> contentTypes) throws RemoteException;
+	
+	/**
+	 * Requests page content objects a specified type (e.g. text lines) from the server using a compact transfer format
+	 * (smaller payload and faster deserialisation for pages with many objects).
+	 * @param url Source of PAGE XML file (optional)
+	 * @param contentType Type of requested page content objects  (supported: 'Region', 'TextLine', 'Word', 'Glyph')
+	 * @return Encoded content objects (see {@link PageLayoutC#decodeCompact(CompactContentObjects)})
+	 * @throws RemoteException
+	 */
+	public CompactContentObjects loadContentObjectsCompact(String url, String contentType) throws RemoteException;
+	
+	/**
+	 * Requests the page content objects of a specified type (e.g. glyphs) that intersect the given rectangle
+	 * (bounding box test). Allows loading only the content of the currently visible page area.
+	 * @param url Source of PAGE XML file (optional)
+	 * @param contentType Type of requested page content objects  (supported: 'Region', 'TextLine', 'Word', 'Glyph', 'Border', 'PrintSpace')
+	 * @param left Left side of the rectangle (page coordinates)
+	 * @param top Top side of the rectangle (page coordinates)
+	 * @param right Right side of the rectangle (page coordinates)
+	 * @param bottom Bottom side of the rectangle (page coordinates)
+	 * @return List of content objects
+	 * @throws RemoteException
+	 */
+	public ArrayList<ContentObjectC> loadContentObjectsInRect(String url, String contentType, int left, int top, int right, int bottom) throws RemoteException;
+	
 	/**
 	 * Requests the page reading order from the server.
 	 * @param url Source of PAGE XML file (optional)
@@ -118,6 +157,18 @@ public interface DocumentPageSyncService extends RemoteService {
 	 */
 	public ArrayList<ArrayList<ContentObjectC>> loadMultiPageContentObjects(String metsFileUrl, String contentType) throws RemoteException;
 
+	/**
+	 * Prototype: Loads page content objects from a range of the PAGE XML files referenced by a METS file
+	 * (allows displaying the first pages while the remaining pages are still loading). 
+	 * @param metsFileUrl Source of METS file that contains links to the PAGE files.
+	 * @param contentType Type of requested page content objects  (supported: 'Region', 'TextLine', 'Word', 'Glyph')
+	 * @param from Index of the first page (0 based)
+	 * @param count Maximum number of pages
+	 * @return List of lists with page objects (fewer than 'count' lists if the end of the document has been reached).
+	 * @throws RemoteException
+	 */
+	public ArrayList<ArrayList<ContentObjectC>> loadMultiPageContentObjects(String metsFileUrl, String contentType, int from, int count) throws RemoteException;
+
 	/**
 	 * Prototype: Requests Ground Truth and Storage IDs (GtsIDs) for multiple PAGE XML files. 
 	 * @param metsFileUrl Source of METS file that contains links to the PAGE files.
@@ -156,6 +207,17 @@ public interface DocumentPageSyncService extends RemoteService {
 	 */
 	public Boolean deleteContentObject(String url, ContentType type, String contentObjectId) throws RemoteException;
 	
+	/**
+	 * Applies a batch of page content modifications (text content, attribute values, outlines, deletions) in the given order.
+	 * Each operation is applied completely or not at all. Operations whose target object doesn't exist (or has been
+	 * deleted by a preceding operation of the batch) are skipped. The batch is not interleaved with other modifications of the same page.
+	 * @param url Source of PAGE XML file (optional)
+	 * @param operations Modifications to apply
+	 * @return One result per operation (true if successful)
+	 * @throws RemoteException
+	 */
+	public ArrayList<Boolean> applyEdits(String url, ArrayList<EditOperation> operations) throws RemoteException;
+	
 	/**
 	 * Saves a PAGE file permanently.
 	 * @param url Source of PAGE XML file (optional)
@@ -170,6 +232,19 @@ public interface DocumentPageSyncService extends RemoteService {
 	 */
 	public Boolean savetMultiplePagesLocally(String metsFileUrl, String folderName) throws RemoteException;
 	
+	/**
+	 * Starts an asynchronous export of all PAGE XML files specified in the METS file
+	 * (sub-folder of the given name in the export directory of the server).
+	 * @return Job ID for querying the progress
+	 */
+	public String startMultiPageExport(String metsFileUrl, String folderName) throws RemoteException;
+	
+	/**
+	 * Returns the progress of an export job started by {@link #startMultiPageExport(String, String)}.
+	 * @return Progress or <code>null</code> if the job is unknown
+	 */
+	public ExportProgress getExportProgress(String jobId) throws RemoteException;
+	
 	/**
 	 * Gets the document page size (width and height) from the server.
 	 * @param url Source of PAGE XML file (optional)
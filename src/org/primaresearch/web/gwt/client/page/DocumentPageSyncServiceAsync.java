@@ -16,6 +16,8 @@
 package org.primaresearch.web.gwt.client.page;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import org.primaresearch.dla.page.layout.physical.shared.ContentType;
 import org.primaresearch.dla.page.layout.physical.shared.RegionType;
@@ -23,8 +25,11 @@ import org.primaresearch.maths.geometry.Dimension;
 import org.primaresearch.maths.geometry.Polygon;
 import org.primaresearch.shared.Pair;
 import org.primaresearch.shared.variable.Variable;
+import org.primaresearch.web.gwt.shared.page.CompactContentObjects;
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 import org.primaresearch.web.gwt.shared.page.ContentObjectSync;
+import org.primaresearch.web.gwt.shared.page.EditOperation;
+import org.primaresearch.web.gwt.shared.page.ExportProgress;
 import org.primaresearch.web.gwt.shared.page.GroupC;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
@@ -38,6 +43,12 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
 public interface DocumentPageSyncServiceAsync {
 
 	void loadContentObjects(String url, String contentType, AsyncCallback<ArrayList<ContentObjectC>> callback);
+
+	void loadAllContentObjects(String url, HashSet<String> contentTypes, AsyncCallback<HashMap<String, ArrayList<ContentObjectC>>> callback);
+
+	void loadContentObjectsCompact(String url, String contentType, AsyncCallback<CompactContentObjects> callback);
+
+	void loadContentObjectsInRect(String url, String contentType, int left, int top, int right, int bottom, AsyncCallback<ArrayList<ContentObjectC>> callback);
 	
 	void loadReadingOrder(String url, AsyncCallback<GroupC> callback);
 	
@@ -53,6 +64,8 @@ public interface DocumentPageSyncServiceAsync {
 	
 	void loadMultiPageContentObjects(String url, String contentType, AsyncCallback<ArrayList<ArrayList<ContentObjectC>>> callback);
 
+	void loadMultiPageContentObjects(String url, String contentType, int from, int count, AsyncCallback<ArrayList<ArrayList<ContentObjectC>>> callback);
+
 	void getMultiplePageIds(String url, AsyncCallback<ArrayList<String>> pcgtsIds);
 
 	void addContentObject(String url, ContentObjectC object, AsyncCallback<ContentObjectSync> callback);
@@ -61,9 +74,15 @@ public interface DocumentPageSyncServiceAsync {
 	
 	void deleteContentObject(String url, ContentType type, String contentObjectId, AsyncCallback<Boolean> callback);
 
+	void applyEdits(String url, ArrayList<EditOperation> operations, AsyncCallback<ArrayList<Boolean>> callback);
+
 	void save(String url, AsyncCallback<Boolean> callback);
 	
 	void savetMultiplePagesLocally(String metsFileUrl, String folderName, AsyncCallback<Boolean> callback);
+
+	void startMultiPageExport(String metsFileUrl, String folderName, AsyncCallback<String> callback);
+
+	void getExportProgress(String jobId, AsyncCallback<ExportProgress> callback);
 	
 	void revertChanges(String url, AsyncCallback<Boolean> callback);
 
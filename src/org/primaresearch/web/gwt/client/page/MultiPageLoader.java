@@ -23,9 +23,11 @@ import java.util.List;
 import java.util.Set;
 
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
+import org.primaresearch.web.gwt.shared.page.ExportProgress;
 
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.i18n.client.DateTimeFormat;
+import com.google.gwt.user.client.Timer;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
@@ -41,6 +43,9 @@ public class MultiPageLoader {
 	private Set<MultiPageLoadListener> listeners = new HashSet<MultiPageLoadListener>(2);
 	private DocumentPageSyncServiceAsync syncService = GWT.create(DocumentPageSyncService.class);
 	private static final DateTimeFormat DATE_FORMATTER = DateTimeFormat.getFormat("yyyy-MM-dd_HH-mm-ss");
+	/** Milliseconds between export progress requests */
+	private static final int EXPORT_POLL_INTERVAL = 1000;
+	private ExportProgress exportProgress = null;
 
 	public MultiPageLoader(String metsFileUrl, List<PageLayoutC> pageLayoutList) {
 		this.metsFileUrl = metsFileUrl;
@@ -67,6 +72,56 @@ public class MultiPageLoader {
 	    syncService.loadMultiPageContentObjects(metsFileUrl, contentType, callback);
 	}
 	
+	/**
+	 * Loads the content objects of all pages in batches of the given size (one request after the other).
+	 * Listeners are notified after each batch (pagesLoaded) and when all pages have been loaded (contentLoaded),
+	 * so the first pages can be displayed while the rest is still loading.
+	 * @param batchSize Number of pages per request
+	 */
+	public void loadContentObjectsInBatchesAsync(final String contentType, int batchSize) {
+		loadContentObjectsAsync(contentType, 0, Math.max(1, batchSize), true);
+	}
+	
+	/**
+	 * Loads the content objects of a range of pages. Listeners are notified via pagesLoaded (see {@link PagedMultiPageLoadListener}).
+	 * @param from Index of first page (0 based)
+	 * @param count Number of pages
+	 */
+	public void loadContentObjectsAsync(final String contentType, final int from, final int count) {
+		loadContentObjectsAsync(contentType, from, count, false);
+	}
+	
+	private void loadContentObjectsAsync(final String contentType, final int from, final int count, final boolean continueWithNextBatch) {
+	    AsyncCallback<ArrayList<ArrayList<ContentObjectC>>> callback = new AsyncCallback<ArrayList<ArrayList<ContentObjectC>>>() {
+	    	public void onFailure(Throwable caught) {
+	    		notifyListenersError(caught);
+	    	}
+
+	    	public void onSuccess(ArrayList<ArrayList<ContentObjectC>> contentObjects) {
+	    		if (contentObjects == null) {
+	    			notifyListenersError(new Exception("Could not load pages"));
+	    			return;
+	    		}
+	    		for (int i=0; i<contentObjects.size(); i++) {
+	    			while (from + i >= pageLayoutList.size())
+	    				pageLayoutList.add(new PageLayoutC());
+	    			pageLayoutList.get(from + i).setContent(contentType, contentObjects.get(i));
+	    		}
+	    		
+	    		if (!contentObjects.isEmpty())
+	    			notifyListenersPagesLoaded(contentType, from, contentObjects.size());
+	    		
+	    		if (continueWithNextBatch) {
+	    			if (contentObjects.size() < count) //End of document
+	    				notifyListeners(contentType);
+	    			else
+	    				loadContentObjectsAsync(contentType, from + count, count, true);
+	    		}
+	    	}
+	    };
+	    syncService.loadMultiPageContentObjects(metsFileUrl, contentType, from, count, callback);
+	}
+	
 	public void loadPageIdsAsync() {
 	    // Set up the callback object for loading multiple document layout XML
 	    AsyncCallback<ArrayList<String>> callback = new AsyncCallback<ArrayList<String>>() {
@@ -106,14 +161,19 @@ public class MultiPageLoader {
 		return urlBase + pageId + ".xml"; 
 	}
 	
+	/**
+	 * Starts an export job on the server and polls its progress until it has finished.
+	 * Listeners are notified when all files have been saved (see also {@link #getExportProgress()}).
+	 */
 	public void savePageXmlFiles() {
-	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
+	    AsyncCallback<String> callback = new AsyncCallback<String>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersError(caught);
 	    	}
 
-	    	public void onSuccess(Boolean success) {
-	    		notifyListenersPageFilesSaved();
+	    	public void onSuccess(String jobId) {
+	    		exportProgress = new ExportProgress(jobId);
+	    		pollExportProgress(jobId);
 	    	}
 	    };
 	    
@@ -121,7 +181,47 @@ public class MultiPageLoader {
 	    String folderName = "CrowdPrototype_"+DATE_FORMATTER.format(new Date());
 	    
 	    //Save
-	    syncService.savetMultiplePagesLocally(metsFileUrl, folderName, callback);
+	    exportProgress = null;
+	    syncService.startMultiPageExport(metsFileUrl, folderName, callback);
+	}
+	
+	/**
+	 * Requests the progress of the given export job after the poll interval
+	 */
+	private void pollExportProgress(final String jobId) {
+		final AsyncCallback<ExportProgress> callback = new AsyncCallback<ExportProgress>() {
+	    	public void onFailure(Throwable caught) {
+	    		notifyListenersError(caught);
+	    	}
+
+	    	public void onSuccess(ExportProgress progress) {
+	    		if (progress == null) {
+	    			notifyListenersError(new Exception("Unknown export job"));
+	    			return;
+	    		}
+	    		exportProgress = progress;
+	    		if (!progress.finished)
+	    			pollExportProgress(jobId);
+	    		else if (progress.errorMessage != null)
+	    			notifyListenersError(new Exception(progress.errorMessage));
+	    		else
+	    			notifyListenersPageFilesSaved();
+	    	}
+	    };
+		new Timer() {
+			@Override
+			public void run() {
+				syncService.getExportProgress(jobId, callback);
+			}
+		}.schedule(EXPORT_POLL_INTERVAL);
+	}
+	
+	/**
+	 * Returns the last known progress of the export started by {@link #savePageXmlFiles()}
+	 * @return Progress or <code>null</code>
+	 */
+	public ExportProgress getExportProgress() {
+		return exportProgress;
 	}
 
 	public void addListener(MultiPageLoadListener listener) {
@@ -138,6 +238,14 @@ public class MultiPageLoader {
 		}
 	}
 	
+	private void notifyListenersPagesLoaded(String contentType, int from, int count) {
+		for (Iterator<MultiPageLoadListener> it = listeners.iterator(); it.hasNext(); ) {
+			MultiPageLoadListener listener = it.next();
+			if (listener instanceof PagedMultiPageLoadListener)
+				((PagedMultiPageLoadListener)listener).pagesLoaded(contentType, from, count);
+		}
+	}
+	
 	private void notifyListenersError(Throwable caught) {
 		for (Iterator<MultiPageLoadListener> it = listeners.iterator(); it.hasNext(); ) {
 			it.next().onPageSyncError(caught);
@@ -166,5 +274,17 @@ public class MultiPageLoader {
 
 		public void onPageSyncError(Throwable caught);
 	}
+	
+	/**
+	 * Listener that is also notified after each range of pages (paged loading).
+	 */
+	public static interface PagedMultiPageLoadListener extends MultiPageLoadListener {
+		/**
+		 * Content objects of a range of pages have been loaded (see loadContentObjectsAsync(String, int, int))
+		 * @param from Index of first page
+		 * @param count Number of loaded pages
+		 */
+		public void pagesLoaded(String contentType, int from, int count);
+	}
 
 }
@@ -15,11 +15,19 @@
  */
 package org.primaresearch.web.gwt.client.page;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.primaresearch.dla.page.layout.physical.shared.ContentType;
 import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
 import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.shared.variable.Variable;
+import org.primaresearch.shared.variable.VariableMap;
+import org.primaresearch.web.gwt.shared.page.CompactContentObjects;
+import org.primaresearch.web.gwt.shared.page.CompactContentObjects.IntReader;
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 import org.primaresearch.web.gwt.shared.page.GroupC;
 
@@ -53,6 +61,11 @@ public class PageLayoutC {
 	
 	private GroupC readingOrder;
 	
+	/** Spatial indexes for hit testing (key: content type; built on demand) */
+	private Map<String, ContentObjectSpatialIndex> spatialIndexes = new HashMap<String, ContentObjectSpatialIndex>();
+	/** ID lookup maps (key: content type; built on demand) */
+	private Map<String, ContentObjectIdIndex> idIndexes = new HashMap<String, ContentObjectIdIndex>();
+	
 	//private MetaData metaData = null;
 	
 	/**
@@ -78,6 +91,8 @@ public class PageLayoutC {
 		glyphs = null;
 		border = null;
 		printSpace = null;
+		spatialIndexes.clear();
+		idIndexes.clear();
 		if (!contentObjectsOnly) {
 			id = null;
 			width = 1000;
@@ -182,6 +197,83 @@ public class PageLayoutC {
 			setPrintSpace(contentObjects);
 	}
 
+	/**
+	 * Sets the content object list for the specified content type using the compact transfer format.
+	 * @throws IllegalArgumentException The compact data is malformed
+	 */
+	public void setContent(String contentType, CompactContentObjects compactContentObjects) {
+		setContent(contentType, decodeCompact(compactContentObjects));
+	}
+	
+	/**
+	 * Converts content objects in compact transfer format to a list of content objects.
+	 * @return A list of content objects or <code>null</code>
+	 * @throws IllegalArgumentException The compact data is malformed
+	 */
+	public static List<ContentObjectC> decodeCompact(CompactContentObjects compact) {
+		if (compact == null)
+			return null;
+		try {
+			return decodeCompactData(compact);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid index in compact data: " + e.getMessage());
+		}
+	}
+	
+	private static List<ContentObjectC> decodeCompactData(CompactContentObjects compact) {
+		List<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(compact.count);
+		IntReader reader = new IntReader(compact.data);
+		int overrideIndex = 0;
+		int lastX = 0;
+		int lastY = 0;
+		for (int i=0; i<compact.count; i++) {
+			ContentObjectC obj = new ContentObjectC(null, compact.ids[i]);
+			obj.setText(compact.texts[i]);
+			
+			//Type
+			obj.setType(compact.types.get(reader.next()));
+			
+			//Attributes (copy of template + overrides)
+			int templateIndex = reader.next() - 1;
+			int overrideCount = reader.next();
+			if (templateIndex >= 0) {
+				VariableMap attrs = compact.attributeTemplates.get(templateIndex).clone();
+				for (int v=0; v<overrideCount; v++) {
+					Variable attr = attrs.get(reader.next());
+					if (attr == null)
+						throw new IllegalArgumentException("Invalid attribute index in compact data");
+					try {
+						attr.setValue(compact.attributeOverrides.get(overrideIndex++));
+					} catch (Exception e) {
+						throw new IllegalArgumentException("Invalid value for attribute " + attr.getName() + ": " + e.getMessage());
+					}
+				}
+				obj.setAttributes(attrs);
+			}
+			
+			//Outline
+			int pointCount = reader.next();
+			if (pointCount >= 0) {
+				Polygon polygon = new Polygon();
+				int x = lastX;
+				int y = lastY;
+				for (int p=0; p<pointCount; p++) {
+					x += reader.next();
+					y += reader.next();
+					polygon.addPoint(x, y);
+					if (p == 0) {
+						lastX = x;
+						lastY = y;
+					}
+				}
+				obj.setCoords(polygon);
+			}
+			
+			contentObjects.add(obj);
+		}
+		return contentObjects;
+	}
+
 	/**
 	 * Returns the content object list for the specified content type.
 	 * @return A list of content objects or <code>null</code>.
@@ -207,19 +299,7 @@ public class PageLayoutC {
 	 * @return A list of content objects or <code>null</code>.
 	 */
 	public List<ContentObjectC> getContent(ContentType contentType) {
-		if (contentType instanceof RegionType)
-			return regions;
-		else if (LowLevelTextType.TextLine.equals(contentType))
-			return lines;
-		else if (LowLevelTextType.Word.equals(contentType))
-			return words;
-		else if (LowLevelTextType.Glyph.equals(contentType))
-			return glyphs;
-		else if (ContentType.Border.equals(contentType))
-			return border;
-		else if (ContentType.PrintSpace.equals(contentType))
-			return printSpace;
-		return null;
+		return getContent(getContentTypeName(contentType));
 	}
 	
 	/**
@@ -228,13 +308,70 @@ public class PageLayoutC {
 	 * @return A content object or <code>null</code>
 	 */
 	public ContentObjectC getObjectAt(int x, int y, String contentType) {
+		ContentObjectSpatialIndex index = getSpatialIndex(contentType);
+		if (index != null)
+			return index.getObjectAt(x, y);
+		return null;
+	}
+	
+	/**
+	 * Returns the spatial index for the given content type. The index is (re)built if the content object list
+	 * has been replaced or modified externally.
+	 * @return The index or <code>null</code> if there is no content for the type
+	 */
+	private ContentObjectSpatialIndex getSpatialIndex(String contentType) {
 		List<ContentObjectC> objects = getContent(contentType);
-		if (objects != null) {
-			for (int i=0; i<objects.size(); i++) {
-				if (objects.get(i).getCoords().isPointInside(x, y))
-					return objects.get(i);
-			}
+		if (objects == null)
+			return null;
+		ContentObjectSpatialIndex index = spatialIndexes.get(contentType);
+		if (index == null || !index.isUpToDate(objects)) {
+			index = new ContentObjectSpatialIndex(objects);
+			spatialIndexes.put(contentType, index);
 		}
+		return index;
+	}
+	
+	/**
+	 * Returns the existing spatial index for the type of the given object (without building it).
+	 */
+	private ContentObjectSpatialIndex getExistingSpatialIndex(ContentObjectC object) {
+		String contentType = getContentTypeName(object.getType());
+		if (contentType == null)
+			return null;
+		ContentObjectSpatialIndex index = spatialIndexes.get(contentType);
+		if (index != null && index.isUpToDate(getContent(contentType)))
+			return index;
+		return null;
+	}
+	
+	/**
+	 * Updates the spatial index for the given object. Has to be called after the outline of the object has been changed.
+	 */
+	public void updateSpatialIndex(ContentObjectC object) {
+		if (object == null)
+			return;
+		ContentObjectSpatialIndex index = getExistingSpatialIndex(object);
+		if (index != null)
+			index.update(object);
+	}
+	
+	/**
+	 * Returns the content type name (see TYPE_... constants) for the given content type.
+	 * @return Type name or <code>null</code>
+	 */
+	private static String getContentTypeName(ContentType contentType) {
+		if (contentType instanceof RegionType)
+			return TYPE_Regions;
+		else if (LowLevelTextType.TextLine.equals(contentType))
+			return TYPE_TextLines;
+		else if (LowLevelTextType.Word.equals(contentType))
+			return TYPE_Words;
+		else if (LowLevelTextType.Glyph.equals(contentType))
+			return TYPE_Glyphs;
+		else if (ContentType.Border.equals(contentType))
+			return TYPE_Border;
+		else if (ContentType.PrintSpace.equals(contentType))
+			return TYPE_Printspace;
 		return null;
 	}
 
@@ -281,13 +418,78 @@ public class PageLayoutC {
 	 * @return A content object or <code>null</code>
 	 */
 	private ContentObjectC findContentObject(String id, String contentType) {
+		ContentObjectIdIndex index = getIdIndex(contentType);
+		if (index != null)
+			return index.get(id);
+		return null;
+	}
+	
+	/**
+	 * Returns the ID lookup maps for the given content type. The maps are (re)built if the content object list
+	 * has been replaced or modified externally.
+	 * @return The index or <code>null</code> if there is no content for the type
+	 */
+	private ContentObjectIdIndex getIdIndex(String contentType) {
+		List<ContentObjectC> objects = getContent(contentType);
+		if (objects == null)
+			return null;
+		ContentObjectIdIndex index = idIndexes.get(contentType);
+		if (index == null || !index.isUpToDate(objects)) {
+			index = new ContentObjectIdIndex(objects);
+			idIndexes.put(contentType, index);
+		}
+		return index;
+	}
+	
+	/**
+	 * Returns the position of the given object within the given list (using the ID lookup maps).
+	 * @return Position or -1
+	 */
+	private int indexOf(ContentObjectC object, List<ContentObjectC> objects) {
+		ContentObjectIdIndex index = getIdIndex(getContentTypeName(object.getType()));
+		int pos = index != null ? index.indexOf(object) : -1;
+		if (pos < 0) //Fallback (e.g. object with duplicate ID)
+			pos = objects.indexOf(object);
+		return pos;
+	}
+	
+	/**
+	 * Updates the ID lookup maps. Has to be called after the ID of a content object has been changed.
+	 * @param object Content object with new ID
+	 * @param oldId Previous ID of the object
+	 */
+	public void contentObjectIdChanged(ContentObjectC object, String oldId) {
+		String contentType = getContentTypeName(object.getType());
+		if (contentType == null)
+			return;
+		ContentObjectIdIndex index = idIndexes.get(contentType);
+		if (index != null && index.isUpToDate(getContent(contentType)))
+			index.idChanged(object, oldId);
+	}
+	
+	/**
+	 * Adds the given content object to this page layout (to the list of its content type).
+	 */
+	public void add(ContentObjectC object) {
+		if (object == null)
+			return;
+		String contentType = getContentTypeName(object.getType());
+		if (contentType == null)
+			return;
+		ContentObjectSpatialIndex index = getExistingSpatialIndex(object);
 		List<ContentObjectC> content = getContent(contentType);
-		if (content != null) {
-			for (int i=0; i<content.size(); i++)
-				if (content.get(i).getId().equals(id))
-					return content.get(i);
+		if (content == null) {
+			content = new ArrayList<ContentObjectC>();
+			setContent(contentType, content);
 		}
-		return null;
+		ContentObjectIdIndex idIndex = idIndexes.get(contentType);
+		if (idIndex != null && !idIndex.isUpToDate(content))
+			idIndex = null;
+		content.add(object);
+		if (index != null)
+			index.add(object);
+		if (idIndex != null)
+			idIndex.add(object);
 	}
 	
 	/**
@@ -298,7 +500,16 @@ public class PageLayoutC {
 			return;
 		List<ContentObjectC> content = getContent(object.getType());
 		if (content != null) {
-			content.remove(object);
+			int pos = indexOf(object, content);
+			if (pos >= 0) {
+				ContentObjectSpatialIndex index = getExistingSpatialIndex(object);
+				ContentObjectIdIndex idIndex = idIndexes.get(getContentTypeName(object.getType()));
+				content.remove(pos);
+				if (index != null)
+					index.remove(object);
+				if (idIndex != null)
+					idIndex.remove(object, pos);
+			}
 			//Update reading order
 			if (readingOrder != null && object.getType() instanceof RegionType)
 				readingOrder.removeRegionRef(object.getId());
@@ -314,7 +525,9 @@ public class PageLayoutC {
 		if (object == null)
 			return null;
 		List<ContentObjectC> objects = getContent(object.getType());
-		int index = objects.indexOf(object);
+		if (objects == null)
+			return null;
+		int index = indexOf(object, objects);
 		if (index < 0)
 			return null;
 		if (index > 0)
@@ -331,7 +544,9 @@ public class PageLayoutC {
 		if (object == null)
 			return null;
 		List<ContentObjectC> objects = getContent(object.getType());
-		int index = objects.indexOf(object);
+		if (objects == null)
+			return null;
+		int index = indexOf(object, objects);
 		if (index < 0)
 			return null;
 		if (index < objects.size()-1)
@@ -16,8 +16,11 @@
 package org.primaresearch.web.gwt.client.page;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
@@ -25,11 +28,15 @@ import org.primaresearch.dla.page.layout.physical.shared.RegionType;
 import org.primaresearch.maths.geometry.Dimension;
 import org.primaresearch.shared.Pair;
 import org.primaresearch.shared.variable.Variable;
+import org.primaresearch.web.gwt.shared.page.CompactContentObjects;
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 import org.primaresearch.web.gwt.shared.page.ContentObjectSync;
+import org.primaresearch.web.gwt.shared.page.EditOperation;
 import org.primaresearch.web.gwt.shared.page.GroupC;
 
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.user.client.Timer;
 import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
@@ -45,6 +52,30 @@ public class PageSyncManager {
 	private DocumentPageSyncServiceAsync syncService = GWT.create(DocumentPageSyncService.class);
 	private Set<PageSyncListener> listeners = new HashSet<PageSyncListener>(2);
 	private PageLayoutC pageLayout;
+	private boolean useCompactTransferFormat = false;
+	
+	//Viewport based loading (tile cache)
+	private int tileSize = 512;
+	private Map<String, Set<String>> requestedTiles = new HashMap<String, Set<String>>();
+	private Map<String, Set<String>> loadedObjectIds = new HashMap<String, Set<String>>();
+	
+	//Batched edits (ordered operation log)
+	private int editBatchingWindow = 0;
+	private List<PendingEdit> pendingEdits = new ArrayList<PendingEdit>();
+	private Timer editFlushTimer = null;
+	private boolean editFlushScheduled = false;
+	private boolean editBatchInFlight = false;
+	/** Number of added objects waiting for their final ID from the server (pending edits are held back) */
+	private int addsInFlight = 0;
+	private List<ScheduledCommand> afterEditFlushCommands = new ArrayList<ScheduledCommand>();
+	
+	//Debounced text content synchronisation
+	private int textSyncDelay = 0;
+	private Map<ContentObjectC, TextSyncState> textSyncStates = new HashMap<ContentObjectC, TextSyncState>();
+	private Timer textSyncTimer = null;
+	private int textChangeCount = 0;
+	private int textSendCount = 0;
+	private int textCoalescedCount = 0;
 
 	/**
 	 * Constructor
@@ -62,6 +93,10 @@ public class PageSyncManager {
 	 * @param contentType Content type (Region, TextLine, ...)
 	 */
 	public void loadContentObjectsAsync(final String contentType) {
+		if (useCompactTransferFormat) {
+			loadContentObjectsCompactAsync(contentType);
+			return;
+		}
 	    AsyncCallback<ArrayList<ContentObjectC>> callback = new AsyncCallback<ArrayList<ContentObjectC>>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersContentLoadingFailed(contentType, caught);
@@ -75,6 +110,186 @@ public class PageSyncManager {
 	    syncService.loadContentObjects(url, contentType, callback);
 	}
 	
+	/**
+	 * Loads all page content objects of the specified type using the compact transfer format.  
+	 * @param contentType Content type (Region, TextLine, ...)
+	 */
+	private void loadContentObjectsCompactAsync(final String contentType) {
+	    AsyncCallback<CompactContentObjects> callback = new AsyncCallback<CompactContentObjects>() {
+	    	public void onFailure(Throwable caught) {
+	    		notifyListenersContentLoadingFailed(contentType, caught);
+	    	}
+
+	    	public void onSuccess(CompactContentObjects contentObjects) {
+	    		List<ContentObjectC> decoded;
+	    		try {
+	    			decoded = PageLayoutC.decodeCompact(contentObjects);
+	    		} catch (IllegalArgumentException e) {
+	    			notifyListenersContentLoadingFailed(contentType, e);
+	    			return;
+	    		}
+	    		pageLayout.setContent(contentType, decoded);
+	    		notifyListenersContentLoaded(contentType);
+	    	}
+	    };
+	    syncService.loadContentObjectsCompact(url, contentType, callback);
+	}
+	
+	/**
+	 * Enables or disables the compact transfer format for loading page content objects
+	 * (recommended for pages with many objects, e.g. on glyph level).
+	 */
+	public void setUseCompactTransferFormat(boolean useCompactTransferFormat) {
+		this.useCompactTransferFormat = useCompactTransferFormat;
+	}
+	
+	public boolean isUseCompactTransferFormat() {
+		return useCompactTransferFormat;
+	}
+	
+	/**
+	 * Loads the page content objects of the specified type that are within the given area (viewport based loading).<br>
+	 * The page is divided into square tiles. Only tiles that have not been requested before are loaded
+	 * (with one request for the bounding box of all missing tiles). The received objects are
+	 * added to the page layout (objects that intersect several tiles are only added once).<br>
+	 * The tile cache is reset by {@link #clear()}, {@link #setUrl(String)} and {@link #resetViewportCache()}.
+	 * @param contentType Content type (Region, TextLine, ...)
+	 * @param left Left side of the area (page coordinates)
+	 * @param top Top side of the area (page coordinates)
+	 * @param right Right side of the area (page coordinates)
+	 * @param bottom Bottom side of the area (page coordinates)
+	 */
+	public void loadContentObjectsInViewportAsync(final String contentType, int left, int top, int right, int bottom) {
+		Set<String> tiles = requestedTiles.get(contentType);
+		if (tiles == null) {
+			tiles = new HashSet<String>();
+			requestedTiles.put(contentType, tiles);
+		}
+		
+		//Find tiles that have not been requested yet
+		int firstCol = Math.max(0, left / tileSize);
+		int firstRow = Math.max(0, top / tileSize);
+		int lastCol = Math.max(0, right / tileSize);
+		int lastRow = Math.max(0, bottom / tileSize);
+		int minCol = Integer.MAX_VALUE, minRow = Integer.MAX_VALUE, maxCol = -1, maxRow = -1;
+		for (int row=firstRow; row<=lastRow; row++) {
+			for (int col=firstCol; col<=lastCol; col++) {
+				String key = col+","+row;
+				if (tiles.contains(key))
+					continue;
+				minCol = Math.min(minCol, col);
+				minRow = Math.min(minRow, row);
+				maxCol = Math.max(maxCol, col);
+				maxRow = Math.max(maxRow, row);
+			}
+		}
+		if (maxCol < 0) //All tiles requested already
+			return;
+		
+		//Mark as requested (the bounding box of the missing tiles is loaded)
+		final Set<String> newTiles = new HashSet<String>();
+		for (int row=minRow; row<=maxRow; row++)
+			for (int col=minCol; col<=maxCol; col++)
+				newTiles.add(col+","+row);
+		tiles.addAll(newTiles);
+		
+		final String requestUrl = url;
+	    AsyncCallback<ArrayList<ContentObjectC>> callback = new AsyncCallback<ArrayList<ContentObjectC>>() {
+	    	public void onFailure(Throwable caught) {
+	    		//Allow retry
+	    		Set<String> tiles = requestedTiles.get(contentType);
+	    		if (tiles != null)
+	    			tiles.removeAll(newTiles);
+	    		notifyListenersContentLoadingFailed(contentType, caught);
+	    	}
+
+	    	public void onSuccess(ArrayList<ContentObjectC> contentObjects) {
+	    		if (requestUrl == null ? url != null : !requestUrl.equals(url)) //Outdated
+	    			return;
+	    		addViewportContent(contentType, contentObjects);
+	    		notifyListenersContentLoaded(contentType);
+	    	}
+	    };
+	    syncService.loadContentObjectsInRect(url, contentType, minCol*tileSize, minRow*tileSize, 
+	    										(maxCol+1)*tileSize-1, (maxRow+1)*tileSize-1, callback);
+	}
+	
+	/**
+	 * Adds content objects that have been loaded for a part of the page to the page layout (skipping known objects).
+	 */
+	private void addViewportContent(String contentType, List<ContentObjectC> contentObjects) {
+		List<ContentObjectC> content = pageLayout.getContent(contentType);
+		if (content == null) {
+			content = new ArrayList<ContentObjectC>();
+			pageLayout.setContent(contentType, content);
+		}
+		Set<String> ids = loadedObjectIds.get(contentType);
+		if (ids == null) {
+			ids = new HashSet<String>();
+			for (int i=0; i<content.size(); i++)
+				ids.add(content.get(i).getId());
+			loadedObjectIds.put(contentType, ids);
+		}
+		if (contentObjects == null)
+			return;
+		for (int i=0; i<contentObjects.size(); i++) {
+			ContentObjectC obj = contentObjects.get(i);
+			if (ids.add(obj.getId()))
+				content.add(obj);
+		}
+	}
+	
+	/**
+	 * Forgets which parts of the page have been loaded via {@link #loadContentObjectsInViewportAsync(String, int, int, int, int)}.
+	 */
+	public void resetViewportCache() {
+		requestedTiles.clear();
+		loadedObjectIds.clear();
+	}
+	
+	/**
+	 * Sets the edge length of the square tiles used for viewport based loading (in page coordinates; default 512).
+	 * Resets the tile cache.
+	 */
+	public void setViewportTileSize(int tileSize) {
+		if (tileSize > 0 && tileSize != this.tileSize) {
+			this.tileSize = tileSize;
+			resetViewportCache();
+		}
+	}
+	
+	public int getViewportTileSize() {
+		return tileSize;
+	}
+	
+	/**
+	 * Loads the page content objects of all specified types with a single request.  
+	 * Listeners are notified for each content type.
+	 * @param contentTypes Content types (Region, TextLine, ...)
+	 */
+	public void loadAllContentObjectsAsync(final Set<String> contentTypes) {
+	    AsyncCallback<HashMap<String, ArrayList<ContentObjectC>>> callback = new AsyncCallback<HashMap<String, ArrayList<ContentObjectC>>>() {
+	    	public void onFailure(Throwable caught) {
+	    		for (Iterator<String> it = contentTypes.iterator(); it.hasNext(); )
+	    			notifyListenersContentLoadingFailed(it.next(), caught);
+	    	}
+
+	    	public void onSuccess(HashMap<String, ArrayList<ContentObjectC>> contentObjects) {
+	    		if (contentObjects == null) {
+	    			onFailure(new Exception("No page content received"));
+	    			return;
+	    		}
+	    		for (Iterator<Map.Entry<String, ArrayList<ContentObjectC>>> it = contentObjects.entrySet().iterator(); it.hasNext(); ) {
+	    			Map.Entry<String, ArrayList<ContentObjectC>> entry = it.next();
+	    			pageLayout.setContent(entry.getKey(), entry.getValue());
+	    		}
+	    		for (Iterator<String> it = contentObjects.keySet().iterator(); it.hasNext(); )
+	    			notifyListenersContentLoaded(it.next());
+	    	}
+	    };
+	    syncService.loadAllContentObjects(url, new HashSet<String>(contentTypes), callback);
+	}
+	
 	/**
 	 * Triggers loading the reading order from the server.
 	 */
@@ -113,6 +328,14 @@ public class PageSyncManager {
 	 * @param object Text container content object
 	 */
 	public void syncTextContent(final ContentObjectC object) {
+		if (textSyncDelay > 0) {
+			addTextChange(object);
+			return;
+		}
+		if (editBatchingWindow > 0) {
+			addEdit(EditOperation.createTextContentOperation(object.getType(), object.getId(), object.getText()), object);
+			return;
+		}
 	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersTextContentSyncFailed(object, caught);
@@ -130,6 +353,10 @@ public class PageSyncManager {
 	 * @param object Text container content object
 	 */
 	public void syncAttribute(final ContentObjectC object, final Variable attr) {
+		if (editBatchingWindow > 0) {
+			addEdit(EditOperation.createAttributeOperation(object.getType(), object.getId(), attr), object);
+			return;
+		}
 	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersAttributeSyncFailed(object, caught);
@@ -355,8 +582,11 @@ public class PageSyncManager {
 	 * Resets this manager.
 	 */
 	public void clear() {
+		detachTextContentSync();
+		flushEdits();
 		url = null;
 		pageLayout.clear();
+		resetViewportCache();
 	}
 	
 	/**
@@ -364,7 +594,10 @@ public class PageSyncManager {
 	 * @param url URL of PAGE file.
 	 */
 	public void setUrl(String url) {
+		detachTextContentSync();
+		flushEdits();
 		this.url = url;
+		resetViewportCache();
 	}
 	
 	public String getUrl() {
@@ -376,48 +609,96 @@ public class PageSyncManager {
 	 * to the page layout on the server. Returns the same object enriched with
 	 * new ID and attributes.<br>
 	 * If the server returns <code>null</code> as object, the object could not
-	 * be added to the page layout on server side and will be removed from the client page layout.
+	 * be added to the page layout on server side and will be removed from the client page layout.<br>
+	 * Batched edits are held back until the server has returned the final ID (edits of the new object
+	 * are then sent with that ID).
 	 */
 	public void addContentObject(final ContentObjectC object) {
+		addsInFlight++;
 	    AsyncCallback<ContentObjectSync> callback = new AsyncCallback<ContentObjectSync>() {
 	    	public void onFailure(Throwable caught) {
+	    		addsInFlight--;
+	    		discardPendingEdits(object);
 	    		notifyListenersContentObjectAddingFailed(object, caught);
+	    		flushEdits();
 	    	}
 
 	    	public void onSuccess(ContentObjectSync res) {
-	    		if (res != null) {
-		    		ContentObjectC obj = pageLayout.findContentObject(res.id);
-		    		if (obj != null) {
-		    			if (res.object != null) {
-		    				//Copy content
-		    				obj.setId(res.object.getId());
-		    				obj.setAttributes(res.object.getAttributes());
-		    				notifyListenersContentObjectAdded(res, obj);
-		    			} 
-		    			else { //No object returned from server -> delete object on client
-		    				pageLayout.remove(obj);
-		    				String text = null;
-		    				if (LowLevelTextType.TextLine.equals(obj.getType()))
-		    					text = "The text line has not been created because there is no text region at this position.";
-		    				else if (LowLevelTextType.Word.equals(obj.getType()))
-		    					text = "The word has not been created because there is no text line at this position.";
-		    				else if (LowLevelTextType.Glyph.equals(obj.getType()))
-		    					text = "The glyph has not been created because there is no word at this position.";
-		    				if (text != null)
-		    					Window.alert(text);
-		    			}
-		    		}
-	    		}
+	    		addsInFlight--;
+	    		//Pending edits of the object have to be sent with the final ID
+	    		if (res != null && res.object != null)
+	    			updatePendingEditIds(object, res.object.getId());
+	    		else
+	    			discardPendingEdits(object);
+	    		onContentObjectAdded(res);
+	    		flushEdits();
 	    	}
 	    };
 	    syncService.addContentObject(url, object, callback);
 	}
+	
+	/**
+	 * Applies the result of adding an object on the server to the client page layout.
+	 */
+	private void onContentObjectAdded(ContentObjectSync res) {
+		if (res == null)
+			return;
+		ContentObjectC obj = pageLayout.findContentObject(res.id);
+		if (obj == null)
+			return;
+		if (res.object != null) {
+			//Copy content
+			String oldId = obj.getId();
+			obj.setId(res.object.getId());
+			pageLayout.contentObjectIdChanged(obj, oldId);
+			obj.setAttributes(res.object.getAttributes());
+			notifyListenersContentObjectAdded(res, obj);
+		} 
+		else { //No object returned from server -> delete object on client
+			pageLayout.remove(obj);
+			String text = null;
+			if (LowLevelTextType.TextLine.equals(obj.getType()))
+				text = "The text line has not been created because there is no text region at this position.";
+			else if (LowLevelTextType.Word.equals(obj.getType()))
+				text = "The word has not been created because there is no text line at this position.";
+			else if (LowLevelTextType.Glyph.equals(obj.getType()))
+				text = "The glyph has not been created because there is no word at this position.";
+			if (text != null)
+				Window.alert(text);
+		}
+	}
+	
+	/**
+	 * Replaces the (temporary) ID of the given object in all pending edits.
+	 */
+	private void updatePendingEditIds(ContentObjectC object, String newId) {
+		for (int i=0; i<pendingEdits.size(); i++) {
+			PendingEdit edit = pendingEdits.get(i);
+			if (edit.object == object)
+				edit.operation.contentObjectId = newId;
+		}
+	}
+	
+	/**
+	 * Removes all pending edits of the given object (e.g. if the object could not be added on the server).
+	 */
+	private void discardPendingEdits(ContentObjectC object) {
+		for (int i=pendingEdits.size()-1; i>=0; i--) {
+			if (pendingEdits.get(i).object == object)
+				pendingEdits.remove(i);
+		}
+	}
 
 	/**
 	 * Sends an updated object polygon to the server.
 	 * @param object Page object with polygon.
 	 */
 	public void syncObjectOutline(final ContentObjectC object) {
+		pageLayout.updateSpatialIndex(object);
+		if (editBatchingWindow > 0) {
+			addEdit(EditOperation.createOutlineOperation(object.getType(), object.getId(), object.getCoords()), object);
+			return;
+		}
 	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersObjectOutlineSyncFailed(object, caught);
@@ -435,6 +716,10 @@ public class PageSyncManager {
 	 * @param object
 	 */
 	public void deleteContentObject(final ContentObjectC object) {
+		if (editBatchingWindow > 0) {
+			addEdit(EditOperation.createDeleteOperation(object.getType(), object.getId()), object);
+			return;
+		}
 	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersContentObjectDeletionFailed(object, caught);
@@ -451,6 +736,25 @@ public class PageSyncManager {
 	 * Sends a request to save the current PAGE file permanently.
 	 */
 	public void save() {
+		save(url);
+	}
+	
+	/**
+	 * Sends a request to save the given PAGE file permanently (after the pending edits have been applied).
+	 */
+	private void save(final String url) {
+		//Pending edits have to be applied first
+		if (isEditSyncBusy()) {
+			afterEditFlushCommands.add(new ScheduledCommand() {
+				@Override
+				public void execute() {
+					save(url);
+				}
+			});
+			flushTextContent();
+			flushEdits();
+			return;
+		}
 	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersPageFileSaveFailed(caught);
@@ -467,6 +771,28 @@ public class PageSyncManager {
 	 * Sends a request to discard all changes since the initial load or the last save.
 	 */
 	public void revertChanges() {
+		revertChanges(url);
+	}
+	
+	/**
+	 * Sends a request to discard all changes of the given PAGE file (after the edits that are being applied have finished).
+	 */
+	private void revertChanges(final String url) {
+		//Discard pending edits and wait for the edits that are being applied
+		for (int i=pendingEdits.size()-1; i>=0; i--) {
+			if (isSameUrl(url, pendingEdits.get(i).url))
+				pendingEdits.remove(i);
+		}
+		discardPendingTextContent();
+		if (isEditSyncBusy()) {
+			afterEditFlushCommands.add(new ScheduledCommand() {
+				@Override
+				public void execute() {
+					revertChanges(url);
+				}
+			});
+			return;
+		}
 	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
 	    	public void onFailure(Throwable caught) {
 	    		notifyListenersRevertChangesFailed(caught);
@@ -480,6 +806,333 @@ public class PageSyncManager {
 	}
 	
 
+	/**
+	 * Enables batching of edits (text content, attributes, outlines, deletions): Edits are collected for the given
+	 * time window and are then sent to the server with one request. Repeated edits of the same kind for the
+	 * same object within the window are coalesced (only the latest is sent).
+	 * @param milliseconds Batching window (0 to send each edit immediately; default)
+	 */
+	public void setEditBatchingWindow(int milliseconds) {
+		this.editBatchingWindow = Math.max(0, milliseconds);
+		if (editBatchingWindow == 0)
+			flushEdits();
+	}
+	
+	public int getEditBatchingWindow() {
+		return editBatchingWindow;
+	}
+	
+	/**
+	 * Adds the given edit to the queue (coalescing it with a pending edit of the same kind for the same object).
+	 */
+	private void addEdit(EditOperation op, ContentObjectC object) {
+		if (op.operation == EditOperation.TYPE_Delete) {
+			//Other pending edits of the object are obsolete
+			for (int i=pendingEdits.size()-1; i>=0; i--) {
+				PendingEdit pending = pendingEdits.get(i);
+				if (isSameUrl(url, pending.url) && op.contentObjectId.equals(pending.operation.contentObjectId))
+					pendingEdits.remove(i);
+			}
+			pendingEdits.add(new PendingEdit(url, op, object));
+		}
+		else {
+			boolean coalesced = false;
+			for (int i=0; i<pendingEdits.size() && !coalesced; i++) {
+				EditOperation pending = pendingEdits.get(i).operation;
+				if (isSameUrl(url, pendingEdits.get(i).url)
+						&& pending.operation == op.operation && op.contentObjectId.equals(pending.contentObjectId)
+						&& (op.operation != EditOperation.TYPE_Attribute 
+							|| op.attribute.getName().equals(pending.attribute.getName()))) {
+					pendingEdits.set(i, new PendingEdit(url, op, object));
+					coalesced = true;
+				}
+			}
+			if (!coalesced)
+				pendingEdits.add(new PendingEdit(url, op, object));
+		}
+		
+		//Schedule flush (not postponed by subsequent edits)
+		if (!editFlushScheduled) {
+			if (editFlushTimer == null) {
+				editFlushTimer = new Timer() {
+					@Override
+					public void run() {
+						editFlushScheduled = false;
+						flushEdits();
+					}
+				};
+			}
+			editFlushScheduled = true;
+			editFlushTimer.schedule(Math.max(1, editBatchingWindow));
+		}
+	}
+	
+	/**
+	 * Sends all pending edits to the server. Only one batch is sent at a time (if a batch is being
+	 * applied, the pending edits are sent when it has finished). Each batch contains edits of one page only,
+	 * in the order they were made.
+	 */
+	public void flushEdits() {
+		if (editBatchInFlight || addsInFlight > 0)
+			return;
+		if (editFlushScheduled) {
+			editFlushTimer.cancel();
+			editFlushScheduled = false;
+		}
+		if (pendingEdits.isEmpty()) {
+			runAfterEditFlushCommands();
+			return;
+		}
+		
+		//Leading edits of the same page
+		final String batchUrl = pendingEdits.get(0).url;
+		int count = 1;
+		while (count < pendingEdits.size() && isSameUrl(batchUrl, pendingEdits.get(count).url))
+			count++;
+		final List<PendingEdit> batch = new ArrayList<PendingEdit>(pendingEdits.subList(0, count));
+		pendingEdits.subList(0, count).clear();
+		ArrayList<EditOperation> operations = new ArrayList<EditOperation>(batch.size());
+		for (int i=0; i<batch.size(); i++)
+			operations.add(batch.get(i).operation);
+		
+		editBatchInFlight = true;
+	    AsyncCallback<ArrayList<Boolean>> callback = new AsyncCallback<ArrayList<Boolean>>() {
+	    	public void onFailure(Throwable caught) {
+	    		editBatchInFlight = false;
+	    		for (int i=0; i<batch.size(); i++)
+	    			notifyListenersEditFailed(batch.get(i), caught);
+	    		flushEdits();
+	    	}
+
+	    	public void onSuccess(ArrayList<Boolean> results) {
+	    		editBatchInFlight = false;
+	    		for (int i=0; i<batch.size(); i++) {
+	    			if (results != null && i < results.size() && Boolean.TRUE.equals(results.get(i)))
+	    				notifyListenersEditApplied(batch.get(i));
+	    			else
+	    				notifyListenersEditFailed(batch.get(i), new Exception("The modification could not be applied."));
+	    		}
+	    		flushEdits();
+	    	}
+	    };
+	    syncService.applyEdits(batchUrl, operations, callback);
+	}
+	
+	private static boolean isSameUrl(String url1, String url2) {
+		return url1 == null ? url2 == null : url1.equals(url2);
+	}
+	
+	/**
+	 * Returns <code>true</code> if there are edits that have not been confirmed by the server yet.
+	 */
+	private boolean isEditSyncBusy() {
+		return editBatchInFlight || addsInFlight > 0 || !pendingEdits.isEmpty() || !textSyncStates.isEmpty();
+	}
+	
+	/**
+	 * Runs the commands that are waiting for the pending edits (if there are no more pending edits).
+	 */
+	private void runAfterEditFlushCommands() {
+		if (isEditSyncBusy())
+			return;
+		List<ScheduledCommand> commands = new ArrayList<ScheduledCommand>(afterEditFlushCommands);
+		afterEditFlushCommands.clear();
+		for (int i=0; i<commands.size(); i++)
+			commands.get(i).execute();
+	}
+	
+	private void notifyListenersEditApplied(PendingEdit edit) {
+		switch (edit.operation.operation) {
+			case EditOperation.TYPE_TextContent:	notifyListenersTextContentSynced(edit.object); break;
+			case EditOperation.TYPE_Attribute:		notifyListenersAttributeSynced(edit.object); break;
+			case EditOperation.TYPE_Outline:		notifyListenersObjectOutlineSynced(edit.object); break;
+			case EditOperation.TYPE_Delete:			notifyListenersContentObjectDeleted(edit.object); break;
+		}
+	}
+	
+	private void notifyListenersEditFailed(PendingEdit edit, Throwable caught) {
+		switch (edit.operation.operation) {
+			case EditOperation.TYPE_TextContent:	notifyListenersTextContentSyncFailed(edit.object, caught); break;
+			case EditOperation.TYPE_Attribute:		notifyListenersAttributeSyncFailed(edit.object, caught); break;
+			case EditOperation.TYPE_Outline:		notifyListenersObjectOutlineSyncFailed(edit.object, caught); break;
+			case EditOperation.TYPE_Delete:			notifyListenersContentObjectDeletionFailed(edit.object, caught); break;
+		}
+	}
+	
+	/**
+	 * Enables debounced synchronisation of text content: {@link #syncTextContent(ContentObjectC)} only records
+	 * the latest text of the object. The text is sent when there was no change for the given delay
+	 * (or on {@link #flushTextContent()}, e.g. on blur or selection change).<br>
+	 * There is never more than one request per object in flight. Changes made while a request is in flight
+	 * are sent after it has returned, so older text can never overwrite newer text.
+	 * @param milliseconds Idle delay (0 to send each change immediately; default)
+	 */
+	public void setTextSyncDelay(int milliseconds) {
+		this.textSyncDelay = Math.max(0, milliseconds);
+		if (textSyncDelay == 0)
+			flushTextContent();
+	}
+	
+	public int getTextSyncDelay() {
+		return textSyncDelay;
+	}
+	
+	/**
+	 * Records a text change (debounced synchronisation)
+	 */
+	private void addTextChange(ContentObjectC object) {
+		textChangeCount++;
+		TextSyncState state = textSyncStates.get(object);
+		if (state == null) {
+			state = new TextSyncState();
+			state.url = url;
+			textSyncStates.put(object, state);
+		}
+		if (state.hasPendingText)
+			textCoalescedCount++;
+		state.pendingText = object.getText();
+		state.hasPendingText = true;
+		
+		//(Re)start idle timer
+		if (textSyncTimer == null) {
+			textSyncTimer = new Timer() {
+				@Override
+				public void run() {
+					flushTextContent();
+				}
+			};
+		}
+		textSyncTimer.schedule(textSyncDelay);
+	}
+	
+	/**
+	 * Sends the latest text of all objects with unsynchronised text changes
+	 * (objects with a request in flight are sent when the request has returned).
+	 */
+	public void flushTextContent() {
+		if (textSyncTimer != null)
+			textSyncTimer.cancel();
+		List<ContentObjectC> objects = new ArrayList<ContentObjectC>(textSyncStates.keySet());
+		for (int i=0; i<objects.size(); i++) {
+			TextSyncState state = textSyncStates.get(objects.get(i));
+			if (state.hasPendingText && !state.inFlight)
+				sendTextContent(objects.get(i), state);
+		}
+	}
+	
+	/**
+	 * Sends the pending text of the given object.
+	 */
+	private void sendTextContent(final ContentObjectC object, final TextSyncState state) {
+		String text = state.pendingText;
+		state.hasPendingText = false;
+		state.pendingText = null;
+		state.inFlight = true;
+		textSendCount++;
+		
+	    AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>() {
+	    	public void onFailure(Throwable caught) {
+	    		onTextContentSent(object, state);
+	    		notifyListenersTextContentSyncFailed(object, caught);
+	    		runAfterEditFlushCommands();
+	    	}
+
+	    	public void onSuccess(Boolean success) {
+	    		boolean newerText = onTextContentSent(object, state);
+	    		if (!newerText) //Only report the latest text
+	    			notifyListenersTextContentSynced(object);
+	    		runAfterEditFlushCommands();
+	    	}
+	    };
+	    syncService.putTextContent(state.url, object.getType(), object.getId(), text, callback);
+	}
+	
+	/**
+	 * Sends all pending text changes for the current page and stops tracking them
+	 * (requests in flight still send newer text to the page the text belongs to).
+	 */
+	private void detachTextContentSync() {
+		flushTextContent();
+		textSyncStates.clear();
+	}
+	
+	/**
+	 * Updates the synchronisation state after a request has returned and sends newer text if available.
+	 * @return <code>true</code> if there has been a newer text change in the meantime
+	 */
+	private boolean onTextContentSent(ContentObjectC object, TextSyncState state) {
+		state.inFlight = false;
+		if (state.hasPendingText) {
+			sendTextContent(object, state);
+			return true;
+		}
+		if (textSyncStates.get(object) == state)
+			textSyncStates.remove(object);
+		return false;
+	}
+	
+	/**
+	 * Discards all text changes that have not been sent yet.
+	 */
+	private void discardPendingTextContent() {
+		if (textSyncTimer != null)
+			textSyncTimer.cancel();
+		List<ContentObjectC> objects = new ArrayList<ContentObjectC>(textSyncStates.keySet());
+		for (int i=0; i<objects.size(); i++) {
+			TextSyncState state = textSyncStates.get(objects.get(i));
+			state.hasPendingText = false;
+			state.pendingText = null;
+			if (!state.inFlight)
+				textSyncStates.remove(objects.get(i));
+		}
+	}
+	
+	/**
+	 * Returns the number of text changes that have been recorded (debounced synchronisation)
+	 */
+	public int getTextChangeCount() {
+		return textChangeCount;
+	}
+	
+	/**
+	 * Returns the number of text synchronisation requests that have been sent (debounced synchronisation)
+	 */
+	public int getTextSendCount() {
+		return textSendCount;
+	}
+	
+	/**
+	 * Returns the number of text changes that have been replaced by a newer change before being sent (debounced synchronisation)
+	 */
+	public int getTextCoalescedCount() {
+		return textCoalescedCount;
+	}
+	
+	/**
+	 * Synchronisation state of the text content of an object (debounced synchronisation)
+	 */
+	private static class TextSyncState {
+		String url;
+		String pendingText;
+		boolean hasPendingText = false;
+		boolean inFlight = false;
+	}
+	
+	/**
+	 * Edit operation in the queue together with the page URL and the local content object (for listener notification)
+	 */
+	private static class PendingEdit {
+		final String url;
+		final EditOperation operation;
+		final ContentObjectC object;
+		
+		PendingEdit(String url, EditOperation operation, ContentObjectC object) {
+			this.url = url;
+			this.operation = operation;
+			this.object = object;
+		}
+	}
+
 	/**
 	 * Listener interface for page content synchronisation between client and server.
 	 * 
@@ -25,17 +25,24 @@ import org.primaresearch.web.gwt.client.image.ImageLoader;
 import org.primaresearch.web.gwt.client.image.ImageLoader.ImageLoadListener;
 
 import com.google.gwt.event.dom.client.ErrorEvent;
+import com.google.gwt.http.client.URL;
 import com.google.gwt.user.client.ui.Image;
 
 /**
- * Helper class to load document images from the server. This loader supports multiple images per document with different zoom levels.
+ * Helper class to load document images from the server. This loader supports multiple images per document with different zoom levels.<br>
+ * Listeners implementing {@link DocumentImageErrorListener} are notified if the full resolution image could not be loaded.
  * 
  * @author Christian Clausner
  *
  */
 public class DocumentImageLoader implements DocumentImageSource {
 
+	/** Default scale factors of the preview images for progressive loading */
+	private static final double[] DEFAULT_PREVIEW_SCALES = new double[] { 0.125 };
+	
 	private Map<Double, Image> images = new HashMap<Double, Image>();
+	/** Image that is currently being loaded (to ignore outdated responses) */
+	private String currentUrl = null;
 	private Set<DocumentImageListener> listeners = new HashSet<DocumentImageListener>();
 	
 	public DocumentImageLoader() {
@@ -47,21 +54,70 @@ public class DocumentImageLoader implements DocumentImageSource {
 	
 	public void clear() {
 		images.clear();
+		currentUrl = null;
 	}
 		
 	public void loadImage(String url) {
-		final double zoomFactor = 1.0;
-		ImageLoader.loadImage(url, new ImageLoadListener() {
+		currentUrl = url;
+		loadImage(url, url, 1.0);
+	}
+	
+	/**
+	 * Loads low resolution previews of the image first and then the full resolution image.
+	 * Listeners are notified for each image that arrives (a preview arriving after a higher resolution is ignored).<br>
+	 * The previews are requested from the DocumentImageTileServlet (downscaled and cached on server side).
+	 * The original image size is estimated from the preview until the full resolution image is available.
+	 * @param url Image URL
+	 * @param previewServletUrl URL of the servlet providing the previews (e.g. GWT.getModuleBaseURL() + "imageTiles")
+	 */
+	public void loadImageProgressively(String url, String previewServletUrl) {
+		loadImageProgressively(url, previewServletUrl, DEFAULT_PREVIEW_SCALES);
+	}
+	
+	/**
+	 * Loads low resolution previews of the image first and then the full resolution image.
+	 * @param url Image URL
+	 * @param previewServletUrl URL of the servlet providing the previews (e.g. GWT.getModuleBaseURL() + "imageTiles")
+	 * @param previewScales Scale factors of the previews (between 0 and 1, e.g. 0.125 for 1/8 of width and height)
+	 */
+	public void loadImageProgressively(String url, String previewServletUrl, double[] previewScales) {
+		clear();
+		currentUrl = url;
+		for (int i=0; i<previewScales.length; i++) {
+			if (previewScales[i] <= 0.0 || previewScales[i] >= 1.0)
+				continue;
+			String previewUrl = previewServletUrl + (previewServletUrl.contains("?") ? "&" : "?") 
+								+ "image=" + URL.encodeQueryString(url) + "&scale=" + previewScales[i];
+			loadImage(url, previewUrl, previewScales[i]);
+		}
+		loadImage(url, url, 1.0);
+	}
+	
+	/**
+	 * Loads an image and registers it for the given zoom factor
+	 * @param sourceUrl URL of the original image
+	 * @param requestUrl URL to load the image from (original image or preview)
+	 * @param zoomFactor Scale factor of the loaded image
+	 */
+	private void loadImage(final String sourceUrl, String requestUrl, final double zoomFactor) {
+		ImageLoader.loadImage(requestUrl, new ImageLoadListener() {
 			@Override
 			public void imageLoaded(Image image) {
+				if (currentUrl != null && !currentUrl.equals(sourceUrl)) //Outdated
+					return;
+				Double best = findLargestZoomFactor();
+				if (best != null && best.doubleValue() > zoomFactor) //Higher resolution already there
+					return;
 				images.put(zoomFactor, image);
 				notifyListeners();
 			}
 
 			@Override
 			public void onImageLoadError(String url, ErrorEvent event) {
-				// TODO Auto-generated method stub
-				
+				if (currentUrl != null && !currentUrl.equals(sourceUrl)) //Outdated
+					return;
+				if (zoomFactor == 1.0) //Failed previews are replaced by the full resolution image
+					notifyListenersError(sourceUrl);
 			}
 		});
 //		ImagePreloader.load(url, new ImageLoadHandler() {
@@ -96,13 +152,43 @@ public class DocumentImageLoader implements DocumentImageSource {
 	}
 	
 
+	/**
+	 * Returns the image with the lowest resolution that is sufficient for the given zoom factor
+	 * or the image with the highest resolution if none is sufficient.
+	 */
 	@Override
 	public Image getImage(double zoomFactor) {
 		
-		Double closestKey = findClosestZoomFactor(zoomFactor);
-		if (closestKey == null)
+		Double key = findBestZoomFactor(zoomFactor);
+		if (key == null)
 			return null;
-		return images.get(closestKey);
+		return images.get(key);
+	}
+	
+	/**
+	 * Returns the smallest image zoom factor that is greater or equal to the given one
+	 * or the largest image zoom factor if there is none.
+	 */
+	private Double findBestZoomFactor(double factor) {
+		Double bestKey = null;
+		for (Iterator<Double> it = images.keySet().iterator(); it.hasNext(); ) {
+			Double zoomFactOfImage = it.next();
+			if (zoomFactOfImage.doubleValue() >= factor && (bestKey == null || zoomFactOfImage < bestKey))
+				bestKey = zoomFactOfImage;
+		}
+		if (bestKey == null)
+			bestKey = findLargestZoomFactor();
+		return bestKey;
+	}
+	
+	private Double findLargestZoomFactor() {
+		Double largest = null;
+		for (Iterator<Double> it = images.keySet().iterator(); it.hasNext(); ) {
+			Double zoomFactOfImage = it.next();
+			if (largest == null || zoomFactOfImage > largest)
+				largest = zoomFactOfImage;
+		}
+		return largest;
 	}
 	
 	private Double findClosestZoomFactor(double factor) {
@@ -132,6 +218,17 @@ public class DocumentImageLoader implements DocumentImageSource {
 		for (Iterator<DocumentImageListener> it = listeners.iterator(); it.hasNext(); )
 			it.next().imageLoaded();
 	}
+	
+	/**
+	 * Notifies the listeners that implement {@link DocumentImageErrorListener}
+	 */
+	private void notifyListenersError(String url) {
+		for (Iterator<DocumentImageListener> it = new HashSet<DocumentImageListener>(listeners).iterator(); it.hasNext(); ) {
+			DocumentImageListener listener = it.next();
+			if (listener instanceof DocumentImageErrorListener)
+				((DocumentImageErrorListener)listener).imageLoadFailed(url);
+		}
+	}
 
 	@Override
 	public int getOriginalImageWidth() {
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.client.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.primaresearch.maths.geometry.Rect;
+import org.primaresearch.web.gwt.client.image.ImageLoader;
+import org.primaresearch.web.gwt.client.image.ImageLoader.ImageLoadListener;
+
+import com.google.gwt.event.dom.client.ErrorEvent;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.http.client.URL;
+import com.google.gwt.user.client.ui.Image;
+
+/**
+ * Document image source for tiled multi-resolution images (image pyramid).<br>
+ * <br>
+ * The tiles are provided by the DocumentImageTileServlet on server side. Only the tiles of the requested
+ * page area are loaded, at the pyramid level that fits best to the current zoom factor.
+ * The coarsest level (a single tile) is always loaded and used as preview where finer tiles are missing.
+ * Tiles that have not been used recently are discarded if the maximum number of tiles is exceeded.<br>
+ * <br>
+ * Listeners are notified once the image dimensions are known. Use a {@link TileListener} to get notified
+ * about arriving tiles.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class TiledDocumentImageSource implements DocumentImageSource {
+
+	private static final int DEFAULT_MAX_TILES = 256;
+
+	private String servletUrl;
+	private String imageUrl = null;
+	private int width = 0;
+	private int height = 0;
+	private int tileSize = 0;
+	private int levelCount = 0;
+	private int[] levelWidths;
+	private int[] levelHeights;
+	private int maxTiles = DEFAULT_MAX_TILES;
+	
+	private Map<String, Tile> tiles = new HashMap<String, Tile>();
+	private Set<String> pendingTiles = new HashSet<String>();
+	/** Counter for least-recently-used eviction */
+	private int frame = 0;
+	
+	private Set<DocumentImageListener> listeners = new HashSet<DocumentImageListener>();
+	private Set<TileListener> tileListeners = new HashSet<TileListener>();
+	
+	/**
+	 * Constructor
+	 * @param servletUrl URL of the tile servlet (e.g. GWT.getModuleBaseURL() + "imageTiles")
+	 */
+	public TiledDocumentImageSource(String servletUrl) {
+		this.servletUrl = servletUrl;
+	}
+	
+	/**
+	 * Constructor
+	 * @param servletUrl URL of the tile servlet (e.g. GWT.getModuleBaseURL() + "imageTiles")
+	 * @param imageUrl URL of the document image
+	 */
+	public TiledDocumentImageSource(String servletUrl, String imageUrl) {
+		this(servletUrl);
+		loadImage(imageUrl);
+	}
+	
+	/**
+	 * Discards all tiles and the image info
+	 */
+	public void clear() {
+		imageUrl = null;
+		width = height = tileSize = levelCount = 0;
+		tiles.clear();
+		pendingTiles.clear();
+	}
+	
+	/**
+	 * Requests the image info (size and pyramid levels) and the coarsest tile of the given image.
+	 */
+	public void loadImage(final String url) {
+		clear();
+		imageUrl = url;
+		
+		RequestBuilder builder = new RequestBuilder(RequestBuilder.GET, getBaseRequestUrl(url) + "&info");
+		try {
+			builder.sendRequest(null, new RequestCallback() {
+				@Override
+				public void onResponseReceived(Request request, Response response) {
+					if (!url.equals(imageUrl)) //Outdated
+						return;
+					if (response.getStatusCode() != Response.SC_OK || !parseInfo(response.getText()))
+						return;
+					loadTile(levelCount-1, 0, 0); //Preview
+					notifyListeners();
+				}
+				
+				@Override
+				public void onError(Request request, Throwable exception) {
+				}
+			});
+		} catch (RequestException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Sets the maximum number of tiles to keep in memory (default: 256).
+	 */
+	public void setMaxTiles(int maxTiles) {
+		this.maxTiles = Math.max(1, maxTiles);
+	}
+	
+	/**
+	 * Parses the image info ("width height tileSize levelCount")
+	 */
+	private boolean parseInfo(String info) {
+		try {
+			String[] parts = info.trim().split(" ");
+			width = Integer.parseInt(parts[0]);
+			height = Integer.parseInt(parts[1]);
+			tileSize = Integer.parseInt(parts[2]);
+			levelCount = Integer.parseInt(parts[3]);
+		} catch (Exception exc) {
+			levelCount = 0;
+			return false;
+		}
+		
+		//Size of the levels (as calculated by the server)
+		levelWidths = new int[levelCount];
+		levelHeights = new int[levelCount];
+		for (int i=0; i<levelCount; i++) {
+			levelWidths[i] = i == 0 ? width : Math.max(1, (levelWidths[i-1] + 1) / 2);
+			levelHeights[i] = i == 0 ? height : Math.max(1, (levelHeights[i-1] + 1) / 2);
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns <code>null</code>. The image is only available in tiles (see {@link #getTiles(double, Rect)}).
+	 */
+	@Override
+	public Image getImage(double zoomFactor) {
+		return null;
+	}
+	
+	/**
+	 * Returns the pyramid level that fits best to the given zoom factor
+	 * (the coarsest level with at least the resolution required for the zoom).
+	 */
+	public int getLevel(double zoomFactor) {
+		if (levelCount == 0)
+			return -1;
+		int level = 0;
+		double scale = 1.0;
+		while (level < levelCount-1 && scale / 2.0 >= zoomFactor) {
+			scale /= 2.0;
+			level++;
+		}
+		return level;
+	}
+	
+	/**
+	 * Returns the available tiles for drawing the given page area at the given zoom
+	 * (coarsest level first, so finer tiles are drawn on top). Missing tiles are requested.
+	 * @param zoomFactor Current zoom
+	 * @param area Page area in document coordinates (<code>null</code> if the visible area is not known;
+	 * only the preview tile is returned and no tiles are requested)
+	 */
+	public List<Tile> getTiles(double zoomFactor, Rect area) {
+		List<Tile> result = new ArrayList<Tile>();
+		if (levelCount == 0)
+			return result;
+		frame++;
+		
+		//Preview (coarsest level)
+		int previewLevel = levelCount - 1;
+		Tile preview = tiles.get(getTileKey(previewLevel, 0, 0));
+		if (preview != null) {
+			preview.lastUsed = frame;
+			result.add(preview);
+		}
+		
+		int level = getLevel(zoomFactor);
+		if (level != previewLevel && area != null) {
+			double scaleX = (double)width / levelWidths[level];
+			double scaleY = (double)height / levelHeights[level];
+			int cols = (levelWidths[level] + tileSize - 1) / tileSize;
+			int rows = (levelHeights[level] + tileSize - 1) / tileSize;
+			int firstCol = Math.max(0, (int)(area.left / scaleX) / tileSize);
+			int lastCol = Math.min(cols - 1, (int)(area.right / scaleX) / tileSize);
+			int firstRow = Math.max(0, (int)(area.top / scaleY) / tileSize);
+			int lastRow = Math.min(rows - 1, (int)(area.bottom / scaleY) / tileSize);
+			for (int y=firstRow; y<=lastRow; y++) {
+				for (int x=firstCol; x<=lastCol; x++) {
+					Tile tile = tiles.get(getTileKey(level, x, y));
+					if (tile != null) {
+						tile.lastUsed = frame;
+						result.add(tile);
+					}
+					else
+						loadTile(level, x, y);
+				}
+			}
+		}
+		
+		evictTiles();
+		return result;
+	}
+	
+	/**
+	 * Requests the given tile (if not already requested)
+	 */
+	private void loadTile(final int level, final int x, final int y) {
+		final String key = getTileKey(level, x, y);
+		if (tiles.containsKey(key) || pendingTiles.contains(key))
+			return;
+		pendingTiles.add(key);
+		final String url = imageUrl;
+		ImageLoader.loadImage(getBaseRequestUrl(url) + "&level=" + level + "&x=" + x + "&y=" + y, 
+			new ImageLoadListener() {
+				@Override
+				public void imageLoaded(Image image) {
+					if (!url.equals(imageUrl)) //Outdated
+						return;
+					pendingTiles.remove(key);
+					
+					double scaleX = (double)width / levelWidths[level];
+					double scaleY = (double)height / levelHeights[level];
+					Tile tile = new Tile();
+					tile.image = image;
+					tile.level = level;
+					tile.left = x * tileSize * scaleX;
+					tile.top = y * tileSize * scaleY;
+					tile.width = image.getWidth() * scaleX;
+					tile.height = image.getHeight() * scaleY;
+					tile.lastUsed = frame;
+					tiles.put(key, tile);
+					notifyTileListeners();
+				}
+
+				@Override
+				public void onImageLoadError(String tileUrl, ErrorEvent event) {
+					pendingTiles.remove(key);
+				}
+			});
+	}
+	
+	/**
+	 * Discards the least recently used tiles if there are more than allowed (the preview tile is kept)
+	 */
+	private void evictTiles() {
+		if (tiles.size() <= maxTiles)
+			return;
+		List<Map.Entry<String, Tile>> entries = new ArrayList<Map.Entry<String, Tile>>(tiles.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Tile>>() {
+			@Override
+			public int compare(Map.Entry<String, Tile> e1, Map.Entry<String, Tile> e2) {
+				return e1.getValue().lastUsed - e2.getValue().lastUsed;
+			}
+		});
+		int toRemove = tiles.size() - maxTiles;
+		for (int i=0; i<entries.size() && toRemove > 0; i++) {
+			Tile tile = entries.get(i).getValue();
+			if (tile.lastUsed == frame || tile.level == levelCount-1) //In use or preview
+				continue;
+			tiles.remove(entries.get(i).getKey());
+			toRemove--;
+		}
+	}
+	
+	private String getBaseRequestUrl(String imageUrl) {
+		return servletUrl + (servletUrl.contains("?") ? "&" : "?") + "image=" + URL.encodeQueryString(imageUrl);
+	}
+	
+	private static String getTileKey(int level, int x, int y) {
+		return level + "/" + x + "/" + y;
+	}
+	
+	@Override
+	public int getOriginalImageWidth() {
+		return width;
+	}
+
+	@Override
+	public int getOriginalImageHeight() {
+		return height;
+	}
+
+	@Override
+	public void addListener(DocumentImageListener listener) {
+		this.listeners.add(listener);
+	}
+	
+	@Override
+	public void removeListener(DocumentImageListener listener) {
+		this.listeners.remove(listener);
+	}
+	
+	private void notifyListeners() {
+		for (Iterator<DocumentImageListener> it = listeners.iterator(); it.hasNext(); )
+			it.next().imageLoaded();
+	}
+	
+	/**
+	 * Adds a listener that is notified when a tile has been loaded.
+	 */
+	public void addTileListener(TileListener listener) {
+		this.tileListeners.add(listener);
+	}
+	
+	public void removeTileListener(TileListener listener) {
+		this.tileListeners.remove(listener);
+	}
+	
+	private void notifyTileListeners() {
+		for (Iterator<TileListener> it = tileListeners.iterator(); it.hasNext(); )
+			it.next().tileLoaded();
+	}
+	
+	/**
+	 * Image tile with position and size in document coordinates.
+	 * 
+	 * @author Christian Clausner
+	 *
+	 */
+	public static class Tile {
+		public Image image;
+		public int level;
+		public double left;
+		public double top;
+		public double width;
+		public double height;
+		int lastUsed;
+	}
+	
+	/**
+	 * Listener for loaded image tiles.
+	 * 
+	 * @author Christian Clausner
+	 *
+	 */
+	public static interface TileListener {
+		/** Called when a tile has been loaded */
+		public void tileLoaded();
+	}
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.client.ui.page;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.primaresearch.web.gwt.client.page.DocumentPageSyncService;
+import org.primaresearch.web.gwt.client.page.DocumentPageSyncServiceAsync;
+import org.primaresearch.web.gwt.client.page.PageLayoutC;
+import org.primaresearch.web.gwt.client.ui.DocumentImageErrorListener;
+import org.primaresearch.web.gwt.client.ui.DocumentImageLoader;
+import org.primaresearch.web.gwt.shared.page.ContentObjectC;
+
+import com.google.gwt.canvas.client.Canvas;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.ImageElement;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+import com.google.gwt.user.client.ui.Image;
+
+/**
+ * Loads the pages of a multi-page document (e.g. defined by a METS file) on demand and speculatively
+ * prepares the neighbouring pages of the current page, so that turning a page doesn't require waiting for the server.<br>
+ * <br>
+ * A prepared page holds the page layout (content objects of the requested types), the decoded document image
+ * and a canvas with the image drawn in original size (see {@link PageRenderer#setPreparedImageBuffer(Canvas, Image)}).
+ * The neighbours are requested once the current page is ready, so they don't compete with it.<br>
+ * <br>
+ * The prepared pages are kept in a small least-recently-used cache that is limited by the number of pages and
+ * by the estimated memory of the decoded images. Pages that are still loading and are not within the prefetch
+ * distance of a new current page (jump to a distant page) are cancelled (their results are discarded).
+ *
+ * @author Christian Clausner
+ *
+ */
+public class PagePrefetcher {
+
+	private static final int DEFAULT_PREFETCH_DISTANCE = 1;
+	private static final int DEFAULT_MAX_PAGES = 5;
+	/** Estimated memory of the decoded images and image buffers in bytes */
+	private static final long DEFAULT_MAX_MEMORY = 256L * 1024L * 1024L;
+	/** Memory per pixel (RGBA image plus RGBA buffer canvas) */
+	private static final int BYTES_PER_PIXEL = 8;
+
+	private PageLocator locator;
+	private Set<String> contentTypes;
+	private int prefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+	private int maxPages = DEFAULT_MAX_PAGES;
+	private long maxMemory = DEFAULT_MAX_MEMORY;
+	private boolean bufferImages = true;
+
+	private Map<Integer, PreparedPage> pages = new HashMap<Integer, PreparedPage>();
+	private int currentPage = -1;
+	/** Counter for least-recently-used eviction */
+	private int frame = 0;
+
+	private Set<PagePrefetchListener> listeners = new HashSet<PagePrefetchListener>(2);
+	private DocumentPageSyncServiceAsync syncService = GWT.create(DocumentPageSyncService.class);
+
+	/**
+	 * Constructor
+	 * @param locator Provides the page and image URLs of the document
+	 * @param contentTypes Types of content objects to load for each page (e.g. "RegionType", "TextLine")
+	 */
+	public PagePrefetcher(PageLocator locator, Set<String> contentTypes) {
+		this.locator = locator;
+		this.contentTypes = new HashSet<String>(contentTypes);
+	}
+
+	/**
+	 * Makes the given page the current page. The page is loaded if it isn't in the cache yet and the
+	 * pages within the prefetch distance are loaded speculatively once the current page is ready.
+	 * Listeners are notified when the page is ready (not if it is ready already).
+	 * @param index Page index (0 based)
+	 * @return The prepared page (check {@link PreparedPage#isReady()}) or <code>null</code> if the index is out of range
+	 */
+	public PreparedPage setCurrentPage(int index) {
+		if (index < 0 || index >= locator.getPageCount())
+			return null;
+		currentPage = index;
+
+		cancelDistantPages();
+
+		PreparedPage page = getOrLoad(index);
+		if (page.isReady())
+			prefetchNeighbours();
+		//Otherwise the neighbours are prefetched when the current page is ready
+		return page;
+	}
+
+	/**
+	 * Returns the index of the current page or -1
+	 */
+	public int getCurrentPage() {
+		return currentPage;
+	}
+
+	/**
+	 * Returns the cached page (ready or still loading) without loading it or changing the current page.
+	 * @return The page or <code>null</code> if not in cache
+	 */
+	public PreparedPage getCachedPage(int index) {
+		return pages.get(index);
+	}
+
+	/**
+	 * Removes the given page from the cache (e.g. after its content has been changed on the server).
+	 */
+	public void invalidate(int index) {
+		PreparedPage page = pages.remove(index);
+		if (page != null)
+			page.discard();
+	}
+
+	/**
+	 * Cancels all loading pages and empties the cache.
+	 */
+	public void clear() {
+		for (Iterator<PreparedPage> it = pages.values().iterator(); it.hasNext(); )
+			it.next().discard();
+		pages.clear();
+		currentPage = -1;
+	}
+
+	/**
+	 * Number of pages before and after the current page that are loaded in advance (default 1)
+	 */
+	public void setPrefetchDistance(int prefetchDistance) {
+		this.prefetchDistance = Math.max(0, prefetchDistance);
+	}
+
+	public int getPrefetchDistance() {
+		return prefetchDistance;
+	}
+
+	/**
+	 * Maximum number of pages in the cache (default 5; the current page and its prefetched neighbours are never evicted)
+	 */
+	public void setMaxPages(int maxPages) {
+		this.maxPages = Math.max(1, maxPages);
+		evict();
+	}
+
+	public int getMaxPages() {
+		return maxPages;
+	}
+
+	/**
+	 * Maximum estimated memory of the decoded images and image buffers of all cached pages in bytes (default 256 MB)
+	 */
+	public void setMaxMemory(long maxMemory) {
+		this.maxMemory = maxMemory;
+		evict();
+	}
+
+	public long getMaxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * Estimated memory of the decoded images and image buffers of all cached pages in bytes
+	 */
+	public long getUsedMemory() {
+		long mem = 0;
+		for (Iterator<PreparedPage> it = pages.values().iterator(); it.hasNext(); )
+			mem += it.next().getEstimatedMemory();
+		return mem;
+	}
+
+	/**
+	 * Enables or disables drawing the images into buffer canvases (default <code>true</code>)
+	 */
+	public void setBufferImages(boolean bufferImages) {
+		this.bufferImages = bufferImages;
+	}
+
+	public void addListener(PagePrefetchListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(PagePrefetchListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the cached page or starts loading it
+	 */
+	private PreparedPage getOrLoad(int index) {
+		PreparedPage page = pages.get(index);
+		if (page == null) {
+			page = new PreparedPage(index, locator.getPageUrl(index), locator.getImageUrl(index));
+			pages.put(index, page);
+			page.load();
+			evict();
+		}
+		page.lastUsed = ++frame;
+		return page;
+	}
+
+	/**
+	 * Loads the pages within the prefetch distance of the current page (closest first)
+	 */
+	private void prefetchNeighbours() {
+		for (int d=1; d<=prefetchDistance; d++) {
+			if (currentPage + d < locator.getPageCount())
+				getOrLoad(currentPage + d);
+			if (currentPage - d >= 0)
+				getOrLoad(currentPage - d);
+		}
+	}
+
+	/**
+	 * Cancels the pages that are still loading but not within the prefetch distance of the current page
+	 */
+	private void cancelDistantPages() {
+		for (Iterator<PreparedPage> it = pages.values().iterator(); it.hasNext(); ) {
+			PreparedPage page = it.next();
+			if (!page.isReady() && !isProtected(page.index)) {
+				page.discard();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes least recently used pages until the page and memory limits are met
+	 */
+	private void evict() {
+		while (pages.size() > maxPages || getUsedMemory() > maxMemory) {
+			PreparedPage oldest = null;
+			for (Iterator<PreparedPage> it = pages.values().iterator(); it.hasNext(); ) {
+				PreparedPage page = it.next();
+				if (isProtected(page.index))
+					continue;
+				if (oldest == null || page.lastUsed < oldest.lastUsed)
+					oldest = page;
+			}
+			if (oldest == null) //Only protected pages left
+				return;
+			pages.remove(oldest.index);
+			oldest.discard();
+		}
+	}
+
+	/**
+	 * Checks if the given page is the current page or within the prefetch distance
+	 */
+	private boolean isProtected(int index) {
+		return currentPage >= 0 && Math.abs(index - currentPage) <= prefetchDistance;
+	}
+
+	private void onPageReady(PreparedPage page) {
+		evict(); //The memory estimate is known now
+		if (page.index == currentPage)
+			prefetchNeighbours();
+		for (Iterator<PagePrefetchListener> it = listeners.iterator(); it.hasNext(); )
+			it.next().pageReady(page, page.index == currentPage);
+	}
+
+	private void onPageLoadError(PreparedPage page, Throwable caught) {
+		if (pages.get(page.index) == page)
+			pages.remove(page.index); //Allow retry
+		page.discard();
+		for (Iterator<PagePrefetchListener> it = listeners.iterator(); it.hasNext(); )
+			it.next().pageLoadError(page, caught);
+	}
+
+
+	/**
+	 * Page of a multi-page document with its content and image (ready to display).
+	 *
+	 * @author Christian Clausner
+	 *
+	 */
+	public class PreparedPage implements DocumentImageErrorListener {
+		private int index;
+		private String pageUrl;
+		private String imageUrl;
+		private PageLayoutC pageLayout = new PageLayoutC();
+		private DocumentImageLoader imageLoader = new DocumentImageLoader();
+		private Canvas imageBuffer = null;
+		private Image bufferedImage = null;
+		private int pendingContentRequests = 0;
+		private boolean imageLoaded = false;
+		private boolean failed = false;
+		private boolean discarded = false;
+		private int lastUsed = 0;
+
+		private PreparedPage(int index, String pageUrl, String imageUrl) {
+			this.index = index;
+			this.pageUrl = pageUrl;
+			this.imageUrl = imageUrl;
+		}
+
+		/**
+		 * Requests the content objects and the image
+		 */
+		private void load() {
+			//Content (one request for all types)
+			if (!contentTypes.isEmpty()) {
+				pendingContentRequests = 1;
+				AsyncCallback<HashMap<String, ArrayList<ContentObjectC>>> callback = new AsyncCallback<HashMap<String, ArrayList<ContentObjectC>>>() {
+					public void onFailure(Throwable caught) {
+						if (discarded || failed)
+							return;
+						failed = true;
+						onPageLoadError(PreparedPage.this, caught);
+					}
+
+					public void onSuccess(HashMap<String, ArrayList<ContentObjectC>> contentObjects) {
+						if (discarded)
+							return;
+						for (Iterator<String> it = contentObjects.keySet().iterator(); it.hasNext(); ) {
+							String type = it.next();
+							pageLayout.setContent(type, contentObjects.get(type));
+						}
+						pendingContentRequests = 0;
+						checkReady();
+					}
+				};
+				syncService.loadAllContentObjects(pageUrl, new HashSet<String>(contentTypes), callback);
+			}
+
+			//Image
+			if (imageUrl != null) {
+				imageLoader.addListener(this);
+				imageLoader.loadImage(imageUrl);
+			}
+			else
+				imageLoaded = true;
+		}
+
+		@Override
+		public void imageLoaded() {
+			if (discarded || imageLoaded)
+				return;
+			imageLoaded = true;
+
+			//Page size
+			if (pageLayout.getWidth() <= 0 || pageLayout.getHeight() <= 0) {
+				pageLayout.setWidth(imageLoader.getOriginalImageWidth());
+				pageLayout.setHeight(imageLoader.getOriginalImageHeight());
+			}
+
+			if (bufferImages)
+				bufferImage();
+			checkReady();
+		}
+
+		@Override
+		public void imageLoadFailed(String url) {
+			if (discarded || failed || imageLoaded)
+				return;
+			failed = true;
+			onPageLoadError(this, new Exception("Could not load image: "+url));
+		}
+
+		/**
+		 * Draws the image into a canvas (the expensive part of displaying a new page)
+		 */
+		private void bufferImage() {
+			Image image = imageLoader.getImage(1.0);
+			int width = imageLoader.getOriginalImageWidth();
+			int height = imageLoader.getOriginalImageHeight();
+			if (image == null || width <= 0 || height <= 0)
+				return;
+			Canvas buffer = Canvas.createIfSupported();
+			if (buffer == null)
+				return;
+			buffer.setSize(width+"px", height+"px");
+			buffer.setCoordinateSpaceWidth(width);
+			buffer.setCoordinateSpaceHeight(height);
+			buffer.getContext2d().drawImage((ImageElement)image.getElement().cast(), 0, 0, width, height);
+			imageBuffer = buffer;
+			bufferedImage = image;
+		}
+
+		private void checkReady() {
+			if (isReady())
+				onPageReady(this);
+		}
+
+		/**
+		 * Cancels loading (results that arrive later are ignored) and releases the image and content
+		 */
+		private void discard() {
+			discarded = true;
+			imageLoader.removeListener(this);
+			imageLoader.clear();
+			imageBuffer = null;
+			bufferedImage = null;
+		}
+
+		/**
+		 * Content and image have been loaded
+		 */
+		public boolean isReady() {
+			return !discarded && !failed && pendingContentRequests == 0 && imageLoaded;
+		}
+
+		/**
+		 * Page index (0 based)
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public String getPageUrl() {
+			return pageUrl;
+		}
+
+		public String getImageUrl() {
+			return imageUrl;
+		}
+
+		public PageLayoutC getPageLayout() {
+			return pageLayout;
+		}
+
+		/**
+		 * Image source to be used for rendering the page
+		 */
+		public DocumentImageLoader getImageSource() {
+			return imageLoader;
+		}
+
+		/**
+		 * Canvas with the document image drawn in original size
+		 * @return The canvas or <code>null</code> if not available (yet)
+		 */
+		public Canvas getImageBuffer() {
+			return imageBuffer;
+		}
+
+		/**
+		 * The image that has been drawn into the image buffer
+		 */
+		public Image getBufferedImage() {
+			return bufferedImage;
+		}
+
+		/**
+		 * Estimated memory of the decoded image and the image buffer in bytes
+		 */
+		public long getEstimatedMemory() {
+			if (!imageLoaded || discarded)
+				return 0;
+			long pixels = (long)imageLoader.getOriginalImageWidth() * (long)imageLoader.getOriginalImageHeight();
+			return imageBuffer != null ? pixels * BYTES_PER_PIXEL : pixels * BYTES_PER_PIXEL / 2;
+		}
+	}
+
+	/**
+	 * Provides the page count and the URLs of the pages of a multi-page document.
+	 *
+	 * @author Christian Clausner
+	 *
+	 */
+	public static interface PageLocator {
+		public int getPageCount();
+
+		/**
+		 * URL of the page file (e.g. MultiPageLoader.getPageFileUrlFromMetsFileUrl(metsUrl, pageId))
+		 */
+		public String getPageUrl(int index);
+
+		/**
+		 * URL of the document image (can be <code>null</code>)
+		 */
+		public String getImageUrl(int index);
+	}
+
+	/**
+	 * Listener for prepared pages.
+	 *
+	 * @author Christian Clausner
+	 *
+	 */
+	public static interface PagePrefetchListener {
+		/**
+		 * Content and image of the given page have been loaded
+		 * @param current <code>true</code> if the page is the current page, <code>false</code> if it has been prefetched
+		 */
+		public void pageReady(PreparedPage page, boolean current);
+
+		public void pageLoadError(PreparedPage page, Throwable caught);
+	}
+}
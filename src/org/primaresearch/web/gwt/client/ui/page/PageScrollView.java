@@ -18,19 +18,23 @@ package org.primaresearch.web.gwt.client.ui.page;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.primaresearch.maths.geometry.Dimension;
 import org.primaresearch.maths.geometry.Point;
 import org.primaresearch.maths.geometry.Rect;
 import org.primaresearch.web.gwt.client.page.PageLayoutC;
+import org.primaresearch.web.gwt.client.page.PageSyncManager;
 import org.primaresearch.web.gwt.client.page.PageSyncManager.PageSyncListener;
 import org.primaresearch.web.gwt.client.ui.DocumentImageListener;
 import org.primaresearch.web.gwt.client.ui.DocumentImageSource;
 import org.primaresearch.web.gwt.client.ui.MouseScrollPanel;
 import org.primaresearch.web.gwt.client.ui.MouseScrollPanel.MouseHandlerExtension;
+import org.primaresearch.web.gwt.client.ui.MouseScrollPanel.ScrollListener;
 import org.primaresearch.web.gwt.client.ui.page.SelectionManager.SelectionListener;
 import org.primaresearch.web.gwt.client.ui.page.renderer.PageRenderer;
+import org.primaresearch.web.gwt.client.ui.page.renderer.PageRenderer.VisibleAreaProvider;
 import org.primaresearch.web.gwt.client.ui.page.tool.controls.PageViewHoverWidget;
 import org.primaresearch.web.gwt.client.ui.page.tool.drawing.PageViewTool;
 import org.primaresearch.web.gwt.client.ui.page.tool.drawing.PageViewToolListener;
@@ -60,7 +64,7 @@ import com.google.gwt.user.client.ui.Widget;
  *
  */
 public class PageScrollView implements DocumentImageListener, PageSyncListener, 
-										SelectionListener, MouseHandlerExtension, IsWidget {
+										SelectionListener, MouseHandlerExtension, IsWidget, VisibleAreaProvider {
 	
 	private MouseScrollPanel panel;
 	
@@ -93,6 +97,12 @@ public class PageScrollView implements DocumentImageListener, PageSyncListener,
 	
 	private Set<PageViewHoverWidget> hoverWidgets = new HashSet<PageViewHoverWidget>();
 	
+	//Viewport based content loading
+	private PageSyncManager viewportSyncManager;
+	private String viewportContentType;
+	private Timer viewportLoadingTimer;
+	private ScrollListener viewportScrollListener;
+	
 	
 	/**
 	 * Constructor
@@ -127,10 +137,33 @@ public class PageScrollView implements DocumentImageListener, PageSyncListener,
 		
 		if (canvas != null) {
 			viewPanel.add(canvas, 0, 0);
+			
+			//Layer canvases (stacked on top of the main canvas)
+			List<Canvas> layerCanvases = renderer.enableLayeredRendering();
+			for (int i=0; i<layerCanvases.size(); i++) {
+				Canvas layerCanvas = layerCanvases.get(i);
+				layerCanvas.addStyleName("pageViewCanvas");
+				layerCanvas.addStyleName("pageViewLayerCanvas");
+				viewPanel.add(layerCanvas, 0, 0);
+			}
+			renderer.refresh(zoomFactor);
 		}
 
 		panel.addMouseWheelHandler(panel);
 		panel.setMouseHandlerExtension(this);
+		
+		//Culling (plug-ins only draw the visible part of the page)
+		renderer.setVisibleAreaProvider(this);
+		panel.addScrollListener(new ScrollListener() {
+			@Override
+			public void scrollPositionChanged() {
+				renderer.visibleAreaChanged();
+			}
+			@Override
+			public boolean autoScrollingFinished() {
+				return false;
+			}
+		});
 	}
 	
 	/**
@@ -563,7 +596,7 @@ public class PageScrollView implements DocumentImageListener, PageSyncListener,
 
 	@Override
 	public void selectionChanged(SelectionManager manager) {
-		renderer.refresh(zoomFactor);
+		renderer.refreshLayer(PageRenderer.LAYER_Selection);
 	}
 
 	/**
@@ -625,6 +658,17 @@ public class PageScrollView implements DocumentImageListener, PageSyncListener,
 		return zoomFactor;
 	}
 	
+	/**
+	 * Returns the currently visible part of the document page (in document page coordinates).
+	 */
+	@Override
+	public Rect getVisibleDocumentRect() {
+		int clientWidth = panel.getElement().getClientWidth();
+		int clientHeight = panel.getElement().getClientHeight();
+		return new Rect(clientToDocumentCoordsX(0), clientToDocumentCoordsY(0),
+						clientToDocumentCoordsX(clientWidth), clientToDocumentCoordsY(clientHeight));
+	}
+	
 	/**
 	 * Notifies all zoom change listeners that the zoom has changed.
 	 */
@@ -634,6 +678,85 @@ public class PageScrollView implements DocumentImageListener, PageSyncListener,
 		}
 		
 		refreshHoverWidgets();
+		scheduleViewportLoading();
+	}
+	
+	/**
+	 * Enables viewport based loading of page content: Only the content objects of the visible part
+	 * of the page are requested from the server (on scroll and zoom). Already loaded page areas
+	 * are cached by the sync manager (see {@link PageSyncManager#loadContentObjectsInViewportAsync(String, int, int, int, int)}).<br>
+	 * Recommended for very large pages and low level content (e.g. glyphs).
+	 * @param syncManager Sync manager to load the content with (the view should be registered as listener)
+	 * @param contentType Content type to load (e.g. 'Glyph')
+	 */
+	public void enableViewportLoading(PageSyncManager syncManager, String contentType) {
+		viewportSyncManager = syncManager;
+		viewportContentType = contentType;
+		if (viewportScrollListener == null) {
+			viewportScrollListener = new ScrollListener() {
+				@Override
+				public void scrollPositionChanged() {
+					scheduleViewportLoading();
+				}
+				@Override
+				public boolean autoScrollingFinished() {
+					scheduleViewportLoading();
+					return false;
+				}
+			};
+			panel.addScrollListener(viewportScrollListener);
+		}
+		loadViewportContent();
+	}
+	
+	/**
+	 * Disables viewport based loading of page content.
+	 */
+	public void disableViewportLoading() {
+		viewportSyncManager = null;
+		viewportContentType = null;
+		if (viewportScrollListener != null) {
+			panel.removeScrollListener(viewportScrollListener);
+			viewportScrollListener = null;
+		}
+		if (viewportLoadingTimer != null)
+			viewportLoadingTimer.cancel();
+	}
+	
+	/**
+	 * Returns <code>true</code> if viewport based loading of page content is enabled.
+	 */
+	public boolean isViewportLoadingEnabled() {
+		return viewportSyncManager != null;
+	}
+	
+	/**
+	 * Triggers loading the content for the visible page area after a short delay
+	 * (to avoid a request for each scroll or zoom step).
+	 */
+	private void scheduleViewportLoading() {
+		if (viewportSyncManager == null)
+			return;
+		if (viewportLoadingTimer == null) {
+			viewportLoadingTimer = new Timer() {
+				@Override
+				public void run() {
+					loadViewportContent();
+				}
+			};
+		}
+		viewportLoadingTimer.schedule(150);
+	}
+	
+	/**
+	 * Requests the content of the visible page area.
+	 */
+	private void loadViewportContent() {
+		if (viewportSyncManager == null)
+			return;
+		Rect visible = getVisibleDocumentRect();
+		viewportSyncManager.loadContentObjectsInViewportAsync(viewportContentType, 
+				visible.left, visible.top, visible.right, visible.bottom);
 	}
 	
 	
@@ -21,10 +21,13 @@ import java.util.Set;
 
 import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
 import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.web.gwt.client.page.PageSyncManager;
 import org.primaresearch.web.gwt.client.ui.keyboard.VirtualKeyboard.VirtualKeyPressListener;
 import org.primaresearch.web.gwt.client.ui.page.SelectionManager.SelectionListener;
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 
+import com.google.gwt.event.dom.client.BlurEvent;
+import com.google.gwt.event.dom.client.BlurHandler;
 import com.google.gwt.event.dom.client.KeyCodes;
 import com.google.gwt.event.dom.client.KeyUpEvent;
 import com.google.gwt.event.dom.client.KeyUpHandler;
@@ -48,6 +51,8 @@ public class TextContentView implements SelectionListener, VirtualKeyPressListen
 	private Set<TextContentViewChangeListener> listeners = new HashSet<TextContentViewChangeListener>();
 	
 	private boolean readOnly;
+	
+	private PageSyncManager syncManager = null;
 
 	/**
 	 * Constructor for read-only text content view.
@@ -68,9 +73,33 @@ public class TextContentView implements SelectionListener, VirtualKeyPressListen
 
 		setReadOnly(readOnly);
 		
+		textField.addBlurHandler(new BlurHandler() {
+			@Override
+			public void onBlur(BlurEvent event) {
+				flushTextContent();
+			}
+		});
+		
 		clear();
 	}
 	
+	/**
+	 * Sets the sync manager for flushing debounced text changes when the text box loses the focus
+	 * or when the selection changes (see {@link PageSyncManager#setTextSyncDelay(int)}).
+	 * @param syncManager Sync manager or <code>null</code>
+	 */
+	public void setPageSyncManager(PageSyncManager syncManager) {
+		this.syncManager = syncManager;
+	}
+	
+	/**
+	 * Sends pending text changes to the server (if a sync manager has been set).
+	 */
+	private void flushTextContent() {
+		if (syncManager != null)
+			syncManager.flushTextContent();
+	}
+	
 	public void setReadOnly(boolean readOnly) {
 		this.readOnly = readOnly;
 		textField.setReadOnly(readOnly);
@@ -99,6 +128,8 @@ public class TextContentView implements SelectionListener, VirtualKeyPressListen
 		
 		notifyChangeListenersPreSelectionHandling(manager);
 		
+		flushTextContent();
+		
 		if (manager.getSelection() != null && manager.getSelection().size() == 1) {
 			update(manager.getSelection().iterator().next());
 		}
@@ -26,7 +26,7 @@ import org.primaresearch.web.gwt.shared.page.ContentObjectC;
  * @author Christian Clausner
  *
  */
-public class ContentHighlightRendererPlugin implements RendererPlugin {
+public class ContentHighlightRendererPlugin implements LayeredRendererPlugin {
 
 	private RenderStyle highlightStyle = null;
 	private boolean enabled = true;
@@ -40,6 +40,11 @@ public class ContentHighlightRendererPlugin implements RendererPlugin {
 	public boolean isEnabled() {
 		return enabled;
 	}
+	
+	@Override
+	public int getLayer() {
+		return PageRenderer.LAYER_Highlight;
+	}
 
 	/**
 	 * Constructor for using the default content style of the renderer to draw the highlight.
@@ -76,7 +81,7 @@ public class ContentHighlightRendererPlugin implements RendererPlugin {
 				RenderStyle style = highlightStyle == null 	? renderer.getRenderStyles().getStyle("pageContent."+obj.getType().getName())
 															: highlightStyle;
 				RendererHelper.drawPolygon(	renderer.getContext(), 
-													obj.getCoords(), 
+													obj, 
 													style, renderer.getZoomFactor(), true, true);
 			}
 		}	
@@ -31,7 +31,7 @@ import com.google.gwt.canvas.dom.client.CssColor;
  * @author Christian Clausner
  *
  */
-public class ContentSelectionRendererPlugin implements RendererPlugin {
+public class ContentSelectionRendererPlugin implements LayeredRendererPlugin {
 	private PageRenderer renderer;
 	private Context2d context;
 	private PageLayoutC pageLayout;
@@ -46,6 +46,11 @@ public class ContentSelectionRendererPlugin implements RendererPlugin {
 	public boolean isEnabled() {
 		return enabled;
 	}
+	
+	@Override
+	public int getLayer() {
+		return PageRenderer.LAYER_Selection;
+	}
 
 	@Override
 	public void render(PageRenderer renderer) {
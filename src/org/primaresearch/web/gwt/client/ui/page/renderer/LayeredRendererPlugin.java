@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.client.ui.page.renderer;
+
+
+/**
+ * Renderer plug-in that declares the layer it draws on (for layered rendering).
+ * 
+ * @author Christian Clausner
+ *
+ */
+public interface LayeredRendererPlugin extends RendererPlugin {
+
+	/**
+	 * Returns the layer the plug-in draws on (see PageRenderer.LAYER_... constants).
+	 * Call {@link PageRenderer#refreshLayer(int)} to redraw the layer after the plug-in content has changed.
+	 */
+	public int getLayer();
+}
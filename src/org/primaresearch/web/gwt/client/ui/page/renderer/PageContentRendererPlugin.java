@@ -15,21 +15,30 @@
  */
 package org.primaresearch.web.gwt.client.ui.page.renderer;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.primaresearch.web.gwt.client.page.PageLayoutC;
+import org.primaresearch.web.gwt.client.ui.RenderStyles;
 import org.primaresearch.web.gwt.client.ui.RenderStyles.RenderStyle;
+import org.primaresearch.web.gwt.client.ui.page.renderer.PageRenderer.HighlightRenderer;
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 
 import com.google.gwt.canvas.dom.client.Context2d;
 
 /**
- * Renderer plug-in for document page view that draws the content objects (outline + fill).
+ * Renderer plug-in for document page view that draws the content objects (outline + fill).<br>
+ * Objects with the same style are drawn together (each object with its own fill and stroke), so that the canvas state
+ * only changes once per style.
  * 
  * @author Christian Clausner
  *
  */
-public class PageContentRendererPlugin implements RendererPlugin {
+public class PageContentRendererPlugin implements LayeredRendererPlugin, HighlightRenderer {
 	private PageRenderer renderer;
 	private Context2d context;
 	private PageLayoutC pageLayout;
@@ -39,6 +48,13 @@ public class PageContentRendererPlugin implements RendererPlugin {
 	private boolean drawOutline = true;
 	private boolean fill = true;
 	
+	private static final RenderStyle GREYED_OUT_STYLE = new RenderStyle("rgb(100,100,100)", "transparent", 1.0);
+	
+	/** Style lookup cache (content type name to style) */
+	private Map<String, RenderStyle> styleCache = new HashMap<String, RenderStyle>();
+	/** Style provider the cache is valid for */
+	private RenderStyles cachedRenderStyles = null;
+	
 	@Override
 	public void enable(boolean enable) {
 		enabled = enable;
@@ -49,6 +65,11 @@ public class PageContentRendererPlugin implements RendererPlugin {
 		return enabled;
 	}
 	
+	@Override
+	public int getLayer() {
+		return PageRenderer.LAYER_Content;
+	}
+	
 	/**
 	 * Enables or disables the highlighting of the current object (usually when hovering over the object with the mouse).
 	 */
@@ -81,25 +102,92 @@ public class PageContentRendererPlugin implements RendererPlugin {
 	private void drawContentObjects(List<ContentObjectC> objects) {
 		if (objects == null)
 			return;
+		
+		//Group by style (in order of first occurrence)
+		Map<RenderStyle, List<ContentObjectC>> groups = new LinkedHashMap<RenderStyle, List<ContentObjectC>>();
 		ContentObjectC obj;
+		ContentObjectC highlightObject = null;
+		RenderStyle highlightStyle = null;
 		for (int i=0; i<objects.size(); i++) {
 			obj = objects.get(i);
+			if (obj.getCoords() == null || !renderer.isVisible(obj.getCoords().getBoundingBox()))
+				continue;
 			
-			RenderStyle style = greyedOut 	? new RenderStyle("rgb(100,100,100)", "transparent", 1.0) 
-											: getContentStyle(obj.getType().getName());
-			
-			RendererHelper.drawPolygon(context, obj.getCoords(), style, renderer.getZoomFactor(), drawOutline, fill);
+			RenderStyle style = getStyle(obj);
+			List<ContentObjectC> group = groups.get(style);
+			if (group == null) {
+				group = new ArrayList<ContentObjectC>();
+				groups.put(style, group);
+			}
+			group.add(obj);
 			
-			//Highlight?
-			if (highlightEnabled) {
-				if (obj.getId().equals(renderer.getContentObjectToHighlightFaintly())) //Just render twice
-					RendererHelper.drawPolygon(context, obj.getCoords(), style, renderer.getZoomFactor(), false, true);
+			//Highlight? (drawn on a separate layer in layered mode)
+			if (highlightEnabled && !renderer.isLayeredRendering() && highlightObject == null) {
+				if (obj.getId().equals(renderer.getContentObjectToHighlightFaintly())) {
+					highlightObject = obj;
+					highlightStyle = style;
+				}
 			}
 		}
+		
+		//Draw groups
+		for (Iterator<Map.Entry<RenderStyle, List<ContentObjectC>>> it = groups.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<RenderStyle, List<ContentObjectC>> entry = it.next();
+			RendererHelper.drawPolygons(context, entry.getValue(), entry.getKey(), renderer.getZoomFactor(), drawOutline, fill);
+		}
+		
+		if (highlightObject != null) //Just render twice
+			RendererHelper.drawPolygon(context, highlightObject, highlightStyle, renderer.getZoomFactor(), false, true);
 	}
 
+	@Override
+	public void renderHighlight(PageRenderer renderer) {
+		if (!enabled || !highlightEnabled || renderer.getContentObjectToHighlightFaintly() == null)
+			return;
+		
+		this.renderer = renderer;
+		this.context = renderer.getContext();
+		this.pageLayout = renderer.getPageLayout();
+		if (pageLayout == null)
+			return;
+		
+		List<ContentObjectC> objects = pageLayout.getContent(renderer.getPageContentToRender());
+		if (objects == null)
+			return;
+		ContentObjectC obj;
+		for (int i=0; i<objects.size(); i++) {
+			obj = objects.get(i);
+			if (obj.getId().equals(renderer.getContentObjectToHighlightFaintly()))
+				RendererHelper.drawPolygon(context, obj, getStyle(obj), renderer.getZoomFactor(), false, true);
+		}
+	}
+
+	private RenderStyle getStyle(ContentObjectC obj) {
+		return greyedOut ? GREYED_OUT_STYLE : getContentStyle(obj.getType().getName());
+	}
+
+	/**
+	 * Returns the style for the given content type (cached per style provider)
+	 */
 	private RenderStyle getContentStyle(String type) {
-		return renderer.getRenderStyles().getStyle("pageContent."+type);
+		RenderStyles renderStyles = renderer.getRenderStyles();
+		if (renderStyles != cachedRenderStyles) {
+			styleCache.clear();
+			cachedRenderStyles = renderStyles;
+		}
+		RenderStyle style = styleCache.get(type);
+		if (style == null) {
+			style = renderStyles.getStyle("pageContent."+type);
+			styleCache.put(type, style);
+		}
+		return style;
+	}
+	
+	/**
+	 * Discards the cached styles (to be called if the style provider returns different styles than before).
+	 */
+	public void clearStyleCache() {
+		styleCache.clear();
 	}
 
 	public void setDrawOutline(boolean drawOutline) {
@@ -18,31 +18,65 @@ package org.primaresearch.web.gwt.client.ui.page.renderer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.primaresearch.maths.geometry.Rect;
 import org.primaresearch.web.gwt.client.page.PageLayoutC;
 import org.primaresearch.web.gwt.client.ui.DocumentImageListener;
 import org.primaresearch.web.gwt.client.ui.DocumentImageSource;
 import org.primaresearch.web.gwt.client.ui.RenderStyles;
+import org.primaresearch.web.gwt.client.ui.TiledDocumentImageSource;
+import org.primaresearch.web.gwt.client.ui.TiledDocumentImageSource.Tile;
+import org.primaresearch.web.gwt.client.ui.TiledDocumentImageSource.TileListener;
 import org.primaresearch.web.gwt.client.ui.page.SelectionManager;
 
 import com.google.gwt.canvas.client.Canvas;
 import com.google.gwt.canvas.dom.client.Context2d;
 import com.google.gwt.canvas.dom.client.CssColor;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.dom.client.CanvasElement;
 import com.google.gwt.dom.client.ImageElement;
 import com.google.gwt.user.client.ui.Image;
 
 /**
  * Basic renderer for a document page that renders the document image.<br>
- * Add renderer plugins for additional layers.
+ * Add renderer plugins for additional layers.<br>
+ * <br>
+ * With layered rendering enabled (see {@link #enableLayeredRendering()}), each layer (see LAYER_... constants)
+ * is drawn on a separate canvas and only the layers that have been marked as dirty are redrawn
+ * (e.g. only the highlight layer if the mouse hovers over another object).<br>
+ * <br>
+ * If a visible area provider has been set (see {@link #setVisibleAreaProvider(VisibleAreaProvider)}), plug-ins
+ * can skip objects outside the visible page area plus a margin (see {@link #isVisible(Rect)}).
+ * The layers are redrawn if the visible area leaves the rendered area (see {@link #visibleAreaChanged()}).
  * 
  * @author Christian Clausner
  *
  */
-public class PageRenderer implements DocumentImageListener {
+public class PageRenderer implements DocumentImageListener, TileListener {
+
+	//Layers (bottom to top)
+	public static final int LAYER_Image			= 0;
+	public static final int LAYER_Content		= 1;
+	public static final int LAYER_Highlight		= 2;
+	public static final int LAYER_ReadingOrder	= 3;
+	public static final int LAYER_Selection		= 4;
+	public static final int LAYER_Tool			= 5;
+	private static final int LAYER_COUNT		= 6;
 
 	private Canvas canvas;
+	/** Canvases for the layers above the image layer (layered rendering only) */
+	private List<Canvas> layerCanvases = null;
+	private boolean[] dirtyLayers = new boolean[LAYER_COUNT];
+	
+	//Culling
+	private VisibleAreaProvider visibleAreaProvider = null;
+	/** Page area that is drawn by the plug-ins (visible area plus margin; null = whole page) */
+	private Rect renderedArea = null;
+	
+	private boolean tileRefreshScheduled = false;
 	private Canvas imageBuffer;
-	private boolean imageBuffered = false;
+	/** Image that has been drawn into the buffer (replaced if a better resolution becomes available) */
+	private Image bufferedImage = null;
 	
 	private PageLayoutC pageLayout;
 	private String pageContentToRender = null;
@@ -72,6 +106,8 @@ public class PageRenderer implements DocumentImageListener {
 		this.selectionManager = selectionManager;
 		this.imageSource = imageSource;
 		imageSource.addListener(this);
+		if (imageSource instanceof TiledDocumentImageSource)
+			((TiledDocumentImageSource)imageSource).addTileListener(this);
 	}
 	
 	/**
@@ -79,13 +115,76 @@ public class PageRenderer implements DocumentImageListener {
 	 */
 	public void addPlugin(RendererPlugin plugin) {
 		this.plugins.add(plugin);
+		markLayerDirty(getLayer(plugin));
 	}
 	
 	/**
 	 * Remove renderer plug-in (layer)
 	 */
 	public void removePlugin(RendererPlugin plugin) {
-		plugins.remove(plugin);
+		if (plugins.remove(plugin))
+			markLayerDirty(getLayer(plugin));
+	}
+	
+	/**
+	 * Returns the layer the given plug-in draws on (content layer for plug-ins that don't declare a layer).
+	 */
+	public static int getLayer(RendererPlugin plugin) {
+		if (plugin instanceof LayeredRendererPlugin)
+			return ((LayeredRendererPlugin)plugin).getLayer();
+		return LAYER_Content;
+	}
+	
+	/**
+	 * Enables layered rendering. Creates a separate canvas for each layer above the image layer.
+	 * The returned canvases have to be placed on top of the main canvas (same position, in the given order).
+	 * @return Layer canvases (bottom to top)
+	 */
+	public List<Canvas> enableLayeredRendering() {
+		if (layerCanvases == null) {
+			layerCanvases = new ArrayList<Canvas>();
+			for (int i=1; i<LAYER_COUNT; i++) {
+				Canvas layerCanvas = Canvas.createIfSupported();
+				if (layerCanvas == null) { //Not supported
+					layerCanvases = null;
+					return new ArrayList<Canvas>();
+				}
+				layerCanvases.add(layerCanvas);
+			}
+			width = height = 0; //Force resize
+			markAllLayersDirty();
+		}
+		return new ArrayList<Canvas>(layerCanvases);
+	}
+	
+	/**
+	 * Returns <code>true</code> if each layer is rendered on a separate canvas.
+	 */
+	public boolean isLayeredRendering() {
+		return layerCanvases != null;
+	}
+	
+	/**
+	 * Marks the given layer as outdated (the layer will be redrawn with the next call of {@link #refreshDirtyLayers()}).
+	 * @param layer See LAYER_... constants
+	 */
+	public void markLayerDirty(int layer) {
+		if (layer >= 0 && layer < LAYER_COUNT)
+			dirtyLayers[layer] = true;
+	}
+	
+	private void markAllLayersDirty() {
+		for (int i=0; i<LAYER_COUNT; i++)
+			dirtyLayers[i] = true;
+	}
+	
+	/**
+	 * Redraws the given layer (everything if layered rendering is disabled).
+	 * @param layer See LAYER_... constants
+	 */
+	public void refreshLayer(int layer) {
+		markLayerDirty(layer);
+		refreshDirtyLayers();
 	}
 
 	/**
@@ -100,49 +199,210 @@ public class PageRenderer implements DocumentImageListener {
 	 * @param zoom Zoom factor to use
 	 */
 	public synchronized void refresh(double zoom) {
+		markAllLayersDirty();
+		render(zoom);
+	}
+	
+	/**
+	 * Redraws the layers that have been marked as dirty (everything if layered rendering is disabled).
+	 */
+	public synchronized void refreshDirtyLayers() {
+		render(zoomFactor);
+	}
+	
+	/**
+	 * Draws the dirty layers
+	 * @param zoom Zoom factor to use
+	 */
+	private void render(double zoom) {
 		if (canvas == null)
 			return;
 		
-		this.context = canvas.getContext2d();
-
-		onZoom(zoom);
+		if (onZoom(zoom))
+			markAllLayersDirty();
+		updateRenderedArea();
+		
+		//Single canvas -> Redraw everything (in the order the plug-ins have been added)
+		if (layerCanvases == null) {
+			if (!isAnyLayerDirty())
+				return;
+			this.context = canvas.getContext2d();
+			context.setTransform(zoomFactor, 0, 0, zoomFactor, 0, 0);
+			drawImageLayer();
+			for (int i=0; i<plugins.size(); i++)
+				plugins.get(i).render(this);
+			for (int i=0; i<LAYER_COUNT; i++)
+				dirtyLayers[i] = false;
+			return;
+		}
+		
+		//Layered
+		for (int layer=0; layer<LAYER_COUNT; layer++) {
+			if (!dirtyLayers[layer])
+				continue;
+			dirtyLayers[layer] = false;
+			
+			this.context = getLayerCanvas(layer).getContext2d();
+			if (layer != LAYER_Image) { //Transparent layer -> Clear
+				context.setTransform(1, 0, 0, 1, 0, 0);
+				context.clearRect(0, 0, width, height);
+			}
+			context.setTransform(zoomFactor, 0, 0, zoomFactor, 0, 0);
+			
+			if (layer == LAYER_Image)
+				drawImageLayer();
+			for (int i=0; i<plugins.size(); i++) {
+				RendererPlugin plugin = plugins.get(i);
+				if (getLayer(plugin) == layer)
+					plugin.render(this);
+				else if (layer == LAYER_Highlight && plugin instanceof HighlightRenderer)
+					((HighlightRenderer)plugin).renderHighlight(this);
+			}
+		}
+	}
+	
+	private boolean isAnyLayerDirty() {
+		for (int i=0; i<LAYER_COUNT; i++)
+			if (dirtyLayers[i])
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Sets the provider for the visible page area. Plug-ins can then skip objects that are not visible.
+	 * @param provider Provider or <code>null</code> to render the whole page
+	 */
+	public void setVisibleAreaProvider(VisibleAreaProvider provider) {
+		this.visibleAreaProvider = provider;
+		renderedArea = null;
+		markAllLayersDirty();
+	}
+	
+	/**
+	 * Redraws the layers if the visible page area is not completely covered by the rendered area anymore
+	 * (to be called after scrolling).
+	 */
+	public void visibleAreaChanged() {
+		refreshDirtyLayers();
+	}
+	
+	/**
+	 * Returns the page area that is currently being drawn (visible area plus margin) in document coordinates.
+	 * @return The area or <code>null</code> if the whole page is drawn
+	 */
+	public Rect getVisibleRect() {
+		return renderedArea;
+	}
+	
+	/**
+	 * Checks if the given rectangle (document coordinates) intersects the area that is currently being drawn.
+	 */
+	public boolean isVisible(Rect rect) {
+		if (rect == null)
+			return false;
+		return isVisible(rect.left, rect.top, rect.right, rect.bottom);
+	}
 
-		//Draw image		
+	/**
+	 * Checks if the given rectangle (document coordinates) intersects the area that is currently being drawn.
+	 */
+	public boolean isVisible(int left, int top, int right, int bottom) {
+		if (renderedArea == null)
+			return true;
+		return left <= renderedArea.right && right >= renderedArea.left 
+				&& top <= renderedArea.bottom && bottom >= renderedArea.top;
+	}
+	
+	/**
+	 * Recalculates the rendered area if the visible area is not covered anymore
+	 * (marks all layers above the image layer as dirty in that case).
+	 */
+	private void updateRenderedArea() {
+		if (visibleAreaProvider == null)
+			return;
+		Rect visible = visibleAreaProvider.getVisibleDocumentRect();
+		if (visible == null || visible.right <= visible.left || visible.bottom <= visible.top) { //View not displayed (yet)
+			if (renderedArea != null) {
+				renderedArea = null;
+				markAllLayersDirty();
+			}
+			return;
+		}
+		if (renderedArea != null && visible.left >= renderedArea.left && visible.right <= renderedArea.right
+				&& visible.top >= renderedArea.top && visible.bottom <= renderedArea.bottom)
+			return; //Still covered
+		
+		//Margin of the size of the visible area in all directions (allows scrolling without redrawing)
+		int w = visible.right - visible.left;
+		int h = visible.bottom - visible.top;
+		renderedArea = new Rect(visible.left - w, visible.top - h, visible.right + w, visible.bottom + h);
+		for (int i=LAYER_Image+1; i<LAYER_COUNT; i++)
+			dirtyLayers[i] = true;
+		if (layerCanvases == null || imageSource instanceof TiledDocumentImageSource)
+			dirtyLayers[LAYER_Image] = true;
+	}
+	
+	/**
+	 * Returns the canvas for the given layer (layered rendering only)
+	 */
+	private Canvas getLayerCanvas(int layer) {
+		if (layer == LAYER_Image)
+			return canvas;
+		return layerCanvases.get(layer - 1);
+	}
+	
+	/**
+	 * Draws the document image or the grey background if the image is not available
+	 */
+	private void drawImageLayer() {
+		if (imageSource instanceof TiledDocumentImageSource) {
+			drawBackground();
+			drawTiles((TiledDocumentImageSource)imageSource);
+			return;
+		}
 		try {
-			Image image = imageSource.getImage(zoom);
+			Image image = imageSource.getImage(zoomFactor);
 			if (image == null)
 				drawBackground();
-			else
+			else {
+				bufferImage(); //In case the image had been loaded before the renderer was created
 				drawImage(/*image*/);
+			}
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		}
-		
-		//Process plugins
-		for (int i=0; i<plugins.size(); i++)
-			plugins.get(i).render(this);
 	}
 	
 	/**
 	 * Apply new zoom
 	 * @param zoomFactor Zoom factor to use
+	 * @return <code>true</code> if the canvas size has been changed (clears the canvas)
 	 */
-	private void onZoom(double zoomFactor) {
+	private boolean onZoom(double zoomFactor) {
+		boolean changed = zoomFactor != this.zoomFactor;
 		this.zoomFactor = zoomFactor; 
 
 		//Update size
 		int newWidth = (int)(pageLayout.getWidth() * zoomFactor);
 		int newHeight = (int)(pageLayout.getHeight() * zoomFactor);
 		if ((newWidth != width || newHeight != height) && newHeight > 0 && newWidth > 0) {
-			canvas.setSize(newWidth+"px", newHeight+"px");
-			canvas.setCoordinateSpaceWidth(newWidth);
-			canvas.setCoordinateSpaceHeight(newHeight);
+			resizeCanvas(canvas, newWidth, newHeight);
+			if (layerCanvases != null) {
+				for (int i=0; i<layerCanvases.size(); i++)
+					resizeCanvas(layerCanvases.get(i), newWidth, newHeight);
+			}
 			
 			width = newWidth;
 			height = newHeight;
+			changed = true;
 		}
-		
-		context.setTransform(zoomFactor, 0, 0, zoomFactor, 0, 0);
+		return changed;
+	}
+	
+	private static void resizeCanvas(Canvas canvas, int width, int height) {
+		canvas.setSize(width+"px", height+"px");
+		canvas.setCoordinateSpaceWidth(width);
+		canvas.setCoordinateSpaceHeight(height);
 	}
 	
 	/**
@@ -180,11 +440,8 @@ public class PageRenderer implements DocumentImageListener {
 		//We then draw the buffer canvas on the main canvas. This improves
 		//performance in Chrome considerably, but slows down IE a little bit.
 		
-		if (imageBuffered)
-			return;
-
 		Image image = imageSource.getImage(zoomFactor);
-		if (image == null)
+		if (image == null || image == bufferedImage)
 			return;
 
 		imageBuffer.setSize(pageLayout.getWidth()+"px", pageLayout.getHeight()+"px");
@@ -193,9 +450,25 @@ public class PageRenderer implements DocumentImageListener {
 		imageBuffer.setCoordinateSpaceWidth(pageLayout.getWidth());
 		imageBuffer.setCoordinateSpaceHeight(pageLayout.getHeight());
 
-		imageBuffer.getContext2d().drawImage((ImageElement)(image).getElement().cast(), 0, 0);
+		//Scale to original size (preview images have a lower resolution)
+		imageBuffer.getContext2d().drawImage((ImageElement)(image).getElement().cast(), 0, 0, 
+												imageSource.getOriginalImageWidth(), imageSource.getOriginalImageHeight());
 		
-		imageBuffered = true;
+		bufferedImage = image;
+	}
+	
+	/**
+	 * Uses an image buffer that has been prepared in advance (e.g. by the PagePrefetcher),
+	 * so the document image doesn't have to be drawn again.
+	 * @param buffer Canvas containing the document image (in original size)
+	 * @param image The image that has been drawn into the buffer (obtained from the image source of this renderer)
+	 */
+	public void setPreparedImageBuffer(Canvas buffer, Image image) {
+		if (buffer == null || image == null)
+			return;
+		imageBuffer = buffer;
+		bufferedImage = image;
+		markLayerDirty(LAYER_Image);
 	}
 	
 	/**
@@ -210,12 +483,41 @@ public class PageRenderer implements DocumentImageListener {
 		context.drawImage(ce, 0, 0);
 	}
 	
+	/**
+	 * Draws the tiles of the current page area (scaled to document coordinates)
+	 */
+	private void drawTiles(TiledDocumentImageSource tiledSource) {
+		List<Tile> tiles = tiledSource.getTiles(zoomFactor, renderedArea);
+		for (int i=0; i<tiles.size(); i++) {
+			Tile tile = tiles.get(i);
+			context.drawImage((ImageElement)tile.image.getElement().cast(), tile.left, tile.top, tile.width, tile.height);
+		}
+	}
+	
+	/**
+	 * Redraws the image layer (once for all tiles that arrive at the same time)
+	 */
+	@Override
+	public void tileLoaded() {
+		if (tileRefreshScheduled)
+			return;
+		tileRefreshScheduled = true;
+		Scheduler.get().scheduleDeferred(new ScheduledCommand() {
+			@Override
+			public void execute() {
+				tileRefreshScheduled = false;
+				refreshLayer(LAYER_Image);
+			}
+		});
+	}
+	
 	/**
 	 * Specify which page content objects to render
 	 * @param pageContentToRender See PageLayoutC.TYPE_ constants)
 	 */
 	public void setPageContentToRender(String pageContentToRender) {
 		this.pageContentToRender = pageContentToRender;
+		markAllLayersDirty();
 	}
 	
 	/**
@@ -232,6 +534,7 @@ public class PageRenderer implements DocumentImageListener {
 	 */
 	public void setRenderStyles(RenderStyles renderStyles) {
 		this.renderStyles = renderStyles;
+		markAllLayersDirty();
 	}
 
 	/**
@@ -243,12 +546,12 @@ public class PageRenderer implements DocumentImageListener {
 			return;
 		if (id == null) { //No highlight
 			contentObjectToHighlightFaintly = null;
-			refresh(zoomFactor);
+			refreshLayer(LAYER_Highlight);
 			return;
 		}
 		if (!id.equals(contentObjectToHighlightFaintly)) { //Changed
 			contentObjectToHighlightFaintly = id;
-			refresh(zoomFactor);
+			refreshLayer(LAYER_Highlight);
 		}
 	}
 
@@ -287,5 +590,27 @@ public class PageRenderer implements DocumentImageListener {
 		bufferImage();
 		refresh();
 	}
+	
+	/**
+	 * Interface for renderer plug-ins that draw the highlighted content object (see {@link PageRenderer#getContentObjectToHighlightFaintly()})
+	 * in addition to their main layer. With layered rendering enabled, the highlight is drawn on the highlight layer,
+	 * so that a highlight change does not require the main layer to be redrawn.
+	 */
+	public static interface HighlightRenderer {
+		/**
+		 * Draws the highlight (layered rendering only)
+		 */
+		public void renderHighlight(PageRenderer renderer);
+	}
+	
+	/**
+	 * Provider for the currently visible page area (for culling).
+	 */
+	public static interface VisibleAreaProvider {
+		/**
+		 * Returns the currently visible part of the document page (in document page coordinates).
+		 */
+		public Rect getVisibleDocumentRect();
+	}
 
 }
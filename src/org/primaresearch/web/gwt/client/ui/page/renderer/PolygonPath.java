@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.client.ui.page.renderer;
+
+import org.primaresearch.maths.geometry.Polygon;
+
+import com.google.gwt.canvas.dom.client.Context2d;
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Wrapper for a JavaScript Path2D object representing a closed polygon.<br>
+ * The path is defined in document coordinates and can be drawn repeatedly with
+ * any canvas transformation (zoom) without being rebuilt.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public final class PolygonPath extends JavaScriptObject {
+
+	protected PolygonPath() {
+	}
+	
+	/**
+	 * Returns <code>true</code> if the browser supports Path2D objects.
+	 */
+	public static native boolean isSupported() /*-{
+		return typeof $wnd.Path2D === 'function';
+	}-*/;
+	
+	/**
+	 * Creates a path for the given polygon (only if {@link #isSupported()}).
+	 * @return The path or <code>null</code> if the polygon has less than three points
+	 */
+	public static PolygonPath create(Polygon polygon) {
+		if (polygon == null || polygon.getSize() < 3)
+			return null;
+		PolygonPath path = createEmpty();
+		path.moveTo(polygon.getPoint(0).x, polygon.getPoint(0).y);
+		for (int i=1; i<polygon.getSize(); i++)
+			path.lineTo(polygon.getPoint(i).x, polygon.getPoint(i).y);
+		path.lineTo(polygon.getPoint(0).x, polygon.getPoint(0).y);
+		return path;
+	}
+	
+	/**
+	 * Creates an empty path (only if {@link #isSupported()}).
+	 */
+	public static native PolygonPath createEmpty() /*-{
+		return new $wnd.Path2D();
+	}-*/;
+	
+	private native void moveTo(double x, double y) /*-{
+		this.moveTo(x, y);
+	}-*/;
+
+	private native void lineTo(double x, double y) /*-{
+		this.lineTo(x, y);
+	}-*/;
+	
+	/**
+	 * Fills the path using the current fill style of the given context
+	 */
+	public native void fill(Context2d context) /*-{
+		context.fill(this);
+	}-*/;
+
+	/**
+	 * Draws the path outline using the current stroke style of the given context
+	 */
+	public native void stroke(Context2d context) /*-{
+		context.stroke(this);
+	}-*/;
+}
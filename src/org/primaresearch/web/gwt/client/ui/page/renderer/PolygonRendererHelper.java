@@ -17,6 +17,7 @@ package org.primaresearch.web.gwt.client.ui.page.renderer;
 
 import org.primaresearch.maths.geometry.Polygon;
 import org.primaresearch.web.gwt.client.ui.RenderStyles.RenderStyle;
+import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 
 import com.google.gwt.canvas.dom.client.Context2d;
 import com.google.gwt.canvas.dom.client.CssColor;
@@ -59,6 +60,14 @@ public abstract class PolygonRendererHelper {
 		drawPolygon(context, polygon, outline, fill);
 	}
 	
+	/**
+	 * Draws the outline of a content object (using the cached path of the object if supported)
+	 * @see RendererHelper#drawPolygon(Context2d, ContentObjectC, RenderStyle, double, boolean, boolean)
+	 */
+	public static void drawPolygon(Context2d context, ContentObjectC object, RenderStyle style, double zoomFactor, boolean outline, boolean fill) {
+		RendererHelper.drawPolygon(context, object, style, zoomFactor, outline, fill);
+	}
+	
 	private static void drawPolygon(Context2d context, Polygon polygon, boolean outline, boolean fill) {
 		if (polygon == null || polygon.getSize() < 3 || (!outline && !fill))
 			return;
@@ -35,7 +35,12 @@ import com.google.gwt.canvas.dom.client.Context2d;
  * @author Christian Clausner
  *
  */
-public class ReadingOrderRendererPlugin implements RendererPlugin {
+public class ReadingOrderRendererPlugin implements LayeredRendererPlugin {
+
+	//Extent of the drawn shapes around their reference points (for culling)
+	private static final int ARROW_PADDING = 15;
+	private static final int STAR_PADDING = 15;
+	private static final int DOT_PADDING = 9;
 
 	private PageRenderer renderer;
 	private Context2d context;
@@ -51,6 +56,11 @@ public class ReadingOrderRendererPlugin implements RendererPlugin {
 	public boolean isEnabled() {
 		return enabled;
 	}
+	
+	@Override
+	public int getLayer() {
+		return PageRenderer.LAYER_ReadingOrder;
+	}
 
 	@Override
 	public void render(PageRenderer renderer) {
@@ -115,7 +125,7 @@ public class ReadingOrderRendererPlugin implements RendererPlugin {
 							if (center2 == null) //happens for empty groups
 								continue;
 						}
-						if (child1 != null && center1 != null && center2 != null) {
+						if (child1 != null && center1 != null && center2 != null && isVisible(center1, center2, ARROW_PADDING)) {
 							//Draw arrow from centre of child 1 to centre of child 2
 							context.setStrokeStyle(getReadingOrderGroupColor(level).getLineColor());
 							context.setFillStyle(getReadingOrderGroupColor(level).getLineColor());
@@ -141,7 +151,7 @@ public class ReadingOrderRendererPlugin implements RendererPlugin {
 			else { 
 				Point groupCenter = getReadingOrderStartPoint(group);
 				Point center2 = null;
-				if (groupCenter != null) {
+				if (groupCenter != null && isVisible(groupCenter, groupCenter, STAR_PADDING)) {
 					context.setStrokeStyle(getReadingOrderGroupColor(level).getLineColor());
 					context.setFillStyle(getReadingOrderGroupColor(level).getFillColor());
 
@@ -153,7 +163,7 @@ public class ReadingOrderRendererPlugin implements RendererPlugin {
 					if (members != null) {
 						for (Iterator<GroupMemberC> it = members.iterator(); it.hasNext(); ) {
 							center2 = getReadingOrderEndPoint(it.next());
-							if (center2 != null) {
+							if (center2 != null && isVisible(groupCenter, center2, 0)) {
 								context.moveTo(x1, y1);
 								context.lineTo(center2.x, center2.y);
 							}
@@ -175,7 +185,7 @@ public class ReadingOrderRendererPlugin implements RendererPlugin {
 		else {
 			//Dot
 			Point center = getReadingOrderEndPoint(element);
-			if (center != null) {
+			if (center != null && isVisible(center, center, DOT_PADDING)) {
 				RenderStyle style = renderer.getRenderStyles().getStyle("readingOrder.Center");
 				context.setStrokeStyle(style.getLineColor());
 				context.setFillStyle(style.getFillColor());
@@ -187,6 +197,14 @@ public class ReadingOrderRendererPlugin implements RendererPlugin {
 		}
 	}
 	
+	/**
+	 * Checks if the bounding box of the line between the given points (plus padding) is in the area that is being drawn.
+	 */
+	private boolean isVisible(Point p1, Point p2, int padding) {
+		return renderer.isVisible(Math.min(p1.x, p2.x) - padding, Math.min(p1.y, p2.y) - padding, 
+									Math.max(p1.x, p2.x) + padding, Math.max(p1.y, p2.y) + padding);
+	}
+	
 	/**
 	 * Returns the colour for the reading oder group connectors.
 	 */
@@ -15,9 +15,13 @@
  */
 package org.primaresearch.web.gwt.client.ui.page.renderer;
 
+import java.util.List;
+
 import org.primaresearch.maths.geometry.Point;
 import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.maths.geometry.Rect;
 import org.primaresearch.web.gwt.client.ui.RenderStyles.RenderStyle;
+import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 
 import com.google.gwt.canvas.dom.client.Context2d;
 import com.google.gwt.canvas.dom.client.CssColor;
@@ -30,6 +34,8 @@ import com.google.gwt.canvas.dom.client.CssColor;
  */
 public abstract class RendererHelper {
 
+	private static final boolean PATH_SUPPORTED = PolygonPath.isSupported();
+
 	private static void setFillColor(Context2d context, RenderStyle style) {
 		if (style != null)
 			context.setFillStyle(style.getFillColor());
@@ -60,6 +66,96 @@ public abstract class RendererHelper {
 		drawPolygon(context, polygon, outline, fill);
 	}
 	
+	/**
+	 * Draws the outline of a content object. Uses a cached path if supported by the browser
+	 * (built once per outline and reused for all zoom factors).
+	 * @param context Canvas
+	 * @param object Content object
+	 * @param style Colours and line width
+	 * @param zoomFactor Current zoom
+	 * @param outline Set to <code>true</code> to draw the polygon outline
+	 * @param fill Set to <code>true</code> to fill the polygon
+	 */
+	public static void drawPolygon(Context2d context, ContentObjectC object, RenderStyle style, double zoomFactor, boolean outline, boolean fill) {
+		PolygonPath path = getPath(object);
+		if (path == null) {
+			drawPolygon(context, object.getCoords(), style, zoomFactor, outline, fill);
+			return;
+		}
+		if (!outline && !fill)
+			return;
+		setLineColor(context, style);
+		setFillColor(context, style);
+		context.setLineWidth(style.getLineWidth() / zoomFactor); 
+		if (fill)
+			path.fill(context);
+		if (outline)
+			path.stroke(context);
+	}
+	
+	/**
+	 * Draws the outlines of the given content objects with the same style (the style is set only once).<br>
+	 * Each object is filled and stroked separately, so overlapping objects don't cut holes into each other
+	 * and translucent fills add up as if the objects were drawn one by one.
+	 * @param context Canvas
+	 * @param objects Content objects
+	 * @param style Colours and line width (used for all objects)
+	 * @param zoomFactor Current zoom
+	 * @param outline Set to <code>true</code> to draw the polygon outlines
+	 * @param fill Set to <code>true</code> to fill the polygons
+	 */
+	public static void drawPolygons(Context2d context, List<ContentObjectC> objects, RenderStyle style, double zoomFactor, boolean outline, boolean fill) {
+		if (objects == null || objects.isEmpty() || (!outline && !fill))
+			return;
+		setLineColor(context, style);
+		setFillColor(context, style);
+		context.setLineWidth(style.getLineWidth() / zoomFactor);
+		
+		for (int i=0; i<objects.size(); i++) {
+			PolygonPath path = getPath(objects.get(i));
+			if (path != null) {
+				if (fill)
+					path.fill(context);
+				if (outline)
+					path.stroke(context);
+			} else if (!PATH_SUPPORTED)
+				drawPolygon(context, objects.get(i).getCoords(), outline, fill);
+		}
+	}
+	
+	/**
+	 * Returns the cached path for the outline of the given object (creates the path if necessary).
+	 * @return The path or <code>null</code> if Path2D is not supported or the outline has less than three points
+	 */
+	public static PolygonPath getPath(ContentObjectC object) {
+		if (!PATH_SUPPORTED)
+			return null;
+		Polygon polygon = object.getCoords();
+		if (polygon == null || polygon.getSize() < 3)
+			return null;
+		Rect box = polygon.getBoundingBox();
+		Object cache = object.getRenderCache();
+		if (cache instanceof CachedPath) {
+			CachedPath cachedPath = (CachedPath)cache;
+			//Safeguard for outlines that have been changed in place without calling outlineChanged():
+			//Points added or removed, polygon moved or resized (bounding box marked as outdated and recalculated)
+			if (cachedPath.polygon == polygon && cachedPath.size == polygon.getSize()
+					&& cachedPath.left == box.left && cachedPath.top == box.top
+					&& cachedPath.right == box.right && cachedPath.bottom == box.bottom)
+				return cachedPath.path;
+		}
+		CachedPath cachedPath = new CachedPath();
+		cachedPath.polygon = polygon;
+		cachedPath.size = polygon.getSize();
+		cachedPath.left = box.left;
+		cachedPath.top = box.top;
+		cachedPath.right = box.right;
+		cachedPath.bottom = box.bottom;
+		cachedPath.path = PolygonPath.create(polygon);
+		object.setRenderCache(cachedPath);
+		return cachedPath.path;
+	}
+	
 	private static void drawPolygon(Context2d context, Polygon polygon, boolean outline, boolean fill) {
 		if (polygon == null || polygon.getSize() < 3 || (!outline && !fill))
 			return;
@@ -148,6 +244,19 @@ public abstract class RendererHelper {
 		gc.closePath();
 	}
 	
+	/**
+	 * Path for a content object outline (stored in the render cache of the object)
+	 * 
+	 * @author Christian Clausner
+	 *
+	 */
+	private static final class CachedPath {
+		Polygon polygon;
+		int size;
+		int left, top, right, bottom;
+		PolygonPath path;
+	}
+	
 	/**
 	 * Data structure for defining an arrow
 	 * 
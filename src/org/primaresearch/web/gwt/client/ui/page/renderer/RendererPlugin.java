@@ -17,7 +17,8 @@ package org.primaresearch.web.gwt.client.ui.page.renderer;
 
 
 /**
- * Interface for page renderer plug-ins that represent a rendering layer.
+ * Interface for page renderer plug-ins that represent a rendering layer.<br>
+ * Plug-ins are drawn on the content layer, unless they implement {@link LayeredRendererPlugin}.
  * 
  * @author Christian Clausner
  *
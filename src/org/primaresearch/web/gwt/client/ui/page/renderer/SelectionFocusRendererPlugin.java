@@ -32,7 +32,7 @@ import com.google.gwt.canvas.dom.client.CssColor;
  * @author Christian Clausner
  *
  */
-public class SelectionFocusRendererPlugin implements RendererPlugin {
+public class SelectionFocusRendererPlugin implements LayeredRendererPlugin {
 	
 	private int padding;
 	
@@ -50,6 +50,11 @@ public class SelectionFocusRendererPlugin implements RendererPlugin {
 	public boolean isEnabled() {
 		return enabled;
 	}
+	
+	@Override
+	public int getLayer() {
+		return PageRenderer.LAYER_Selection;
+	}
 
 	public SelectionFocusRendererPlugin() {
 		this(5);
@@ -126,7 +131,7 @@ public class SelectionFocusRendererPlugin implements RendererPlugin {
 
 			//Draw the polygon
 			Polygon polygon = obj.getCoords();
-			if (polygon.getSize() < 3)
+			if (polygon.getSize() < 3 || !renderer.isVisible(polygon.getBoundingBox()))
 				continue;
 			//context.setStrokeStyle(CssColor.make("rgba(100,100,100,0.2)"));
 			//context.setLineWidth(5.0 / renderer.getZoomFactor());
@@ -135,6 +140,11 @@ public class SelectionFocusRendererPlugin implements RendererPlugin {
 			//context.setShadowOffsetX(0);
 			//context.setShadowOffsetY(0);
 			//context.setShadowBlur(5);
+			PolygonPath path = RendererHelper.getPath(obj);
+			if (path != null) {
+				path.fill(context);
+				continue;
+			}
 			context.beginPath();
 			context.moveTo(polygon.getPoint(0).x, polygon.getPoint(0).y);
 			for (int i=1; i<polygon.getSize(); i++) {
@@ -15,8 +15,6 @@
  */
 package org.primaresearch.web.gwt.client.ui.page.tool;
 
-import java.util.List;
-
 import org.primaresearch.dla.page.layout.physical.shared.ContentType;
 import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
 import org.primaresearch.dla.page.layout.physical.shared.RegionType;
@@ -104,7 +102,6 @@ public class CreatePageObjectTool {
 			//Create object
 			if (polygon != null) {
 				PageLayoutC layout = pageView.getPageLayout();
-				List<ContentObjectC> content = layout.getContent(pageObjectType);
 				
 				ContentObjectC newObject = new ContentObjectC(polygon, "todo"+idCounter);
 				idCounter++;
@@ -127,7 +124,7 @@ public class CreatePageObjectTool {
 						e.printStackTrace();
 					} 
 				}
-				content.add(newObject);
+				layout.add(newObject);
 				pageView.getRenderer().refresh();
 				
 				//Sync with server and change ID
@@ -132,6 +132,7 @@ public class MoveRegionTool extends DraggableControl implements SelectionListene
 			polygon.getPoint(i).y = referencePolygon.getPoint(i).y + translateY;
 		}
 		polygon.setBoundingBoxOutdated();
+		selObj.outlineChanged();
 		
 		//Update all other widgets that are on the page view
 		pageView.refreshHoverWidgets();
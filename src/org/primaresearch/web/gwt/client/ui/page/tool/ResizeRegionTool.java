@@ -182,6 +182,7 @@ public class ResizeRegionTool extends DraggableControl implements SelectionListe
 					polygon.getPoint(i).y = yBoundingBox + (int)((double)yRel * scaleY) + offsetY;
 			}
 			polygon.setBoundingBoxOutdated();
+			selObj.outlineChanged();
 		}
 		
 		pageView.refreshHoverWidgets(); //Refresh position of all widgets
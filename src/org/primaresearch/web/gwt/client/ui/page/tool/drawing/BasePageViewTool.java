@@ -19,13 +19,16 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
+import org.primaresearch.web.gwt.client.ui.page.renderer.LayeredRendererPlugin;
+import org.primaresearch.web.gwt.client.ui.page.renderer.PageRenderer;
+
 /**
  * Base class for tools that can be used with the page view class.
  * 
  * @author Christian Clausner
  *
  */
-public abstract class BasePageViewTool implements PageViewTool {
+public abstract class BasePageViewTool implements PageViewTool, LayeredRendererPlugin {
 
 	private Set<PageViewToolListener> listeners = new HashSet<PageViewToolListener>();
 
@@ -41,6 +44,11 @@ public abstract class BasePageViewTool implements PageViewTool {
 		this.enabled = enable;
 	}
 
+	@Override
+	public int getLayer() {
+		return PageRenderer.LAYER_Tool;
+	}
+
 	@Override
 	public void addListener(PageViewToolListener listener) {
 		listeners.add(listener);
@@ -176,6 +176,7 @@ public class EditOutlineTool extends BasePageViewTool implements SelectionListen
 	
 	private void onCancel(boolean unhideOtherToolWidgets) {
 		contentObject.setCoords(originalPolygon);
+		view.getPageLayout().updateSpatialIndex(contentObject);
 		view.removeHoverWidget(toolbar);
 		notifyListenersToolFinished(false);
 		if (unhideOtherToolWidgets)
@@ -217,6 +218,7 @@ public class EditOutlineTool extends BasePageViewTool implements SelectionListen
 					confinePointToDocument(currentPolygonPoint);
 					
 					polygon.setBoundingBoxOutdated();
+					contentObject.outlineChanged();
 					refreshToolbar(); //Update icon position
 				}
 			}
@@ -235,7 +237,7 @@ public class EditOutlineTool extends BasePageViewTool implements SelectionListen
 			currentPolygonPoint = findNearestPolygonPointCloseby(x, y);
 
 			if (oldPoint != currentPolygonPoint)
-				view.getRenderer().refresh();
+				view.getRenderer().refreshLayer(PageRenderer.LAYER_Tool);
 
 			//Add and move mode
 			if (!deletePointsMode) {
@@ -243,11 +245,11 @@ public class EditOutlineTool extends BasePageViewTool implements SelectionListen
 				if (currentPolygonPoint == null) {
 					newPolygonPointCandidate = findNearestPointOnLines(x,y);
 					
-					view.getRenderer().refresh();
+					view.getRenderer().refreshLayer(PageRenderer.LAYER_Tool);
 				}
 				else if (newPolygonPointCandidate != null) {
 					newPolygonPointCandidate = null;
-					view.getRenderer().refresh();
+					view.getRenderer().refreshLayer(PageRenderer.LAYER_Tool);
 				}
 			}
 		}		
@@ -291,6 +293,7 @@ public class EditOutlineTool extends BasePageViewTool implements SelectionListen
 			else if (newPolygonPointCandidate != null) {
 				mouseDownPoint = new Point(event.getX(), event.getY());
 				polygon.insertPoint(indexOfPointBeforeNewPolygonPoint, newPolygonPointCandidate);
+				contentObject.outlineChanged();
 				currentPolygonPoint = newPolygonPointCandidate;
 				referencePoint = new Point(currentPolygonPoint.x, currentPolygonPoint.y);
 				newPolygonPointCandidate = null;
@@ -307,6 +310,7 @@ public class EditOutlineTool extends BasePageViewTool implements SelectionListen
 	private void deleteCurrentPolygonPoint() {
 		if (polygon.getSize() > 3) {
 			polygon.removePoint(currentPolygonPoint);
+			contentObject.outlineChanged();
 			currentPolygonPoint = null;
 			view.getRenderer().refresh();
 		}
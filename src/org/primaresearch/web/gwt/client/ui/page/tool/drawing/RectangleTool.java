@@ -92,7 +92,7 @@ public class RectangleTool extends BasePageViewTool implements PageViewTool {
 			int y = view.clientToDocumentCoordsY(event.getRelativeY(view.asWidget().getElement()));
 			p2.x = x;
 			p2.y = y;
-			view.getRenderer().refresh();
+			view.getRenderer().refreshLayer(PageRenderer.LAYER_Tool);
 			return true; //Forbid scrolling
 		}
 		return false; //Allow scrolling
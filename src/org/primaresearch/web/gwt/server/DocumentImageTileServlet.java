@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Servlet delivering tiles of multi-resolution document image pyramids (see {@link ImagePyramid})
+ * and downscaled previews of document images.<br>
+ * <br>
+ * Requests:
+ * <ul>
+ * <li><code>?image=[url]&info</code> - Returns "width height tileSize levelCount" (plain text)</li>
+ * <li><code>?image=[url]&level=[l]&x=[col]&y=[row]</code> - Returns the tile image (level 0 = original resolution)</li>
+ * <li><code>?image=[url]&scale=[s]</code> - Returns the whole image downscaled by the given factor (0 &lt; s &lt; 1)</li>
+ * </ul>
+ * The pyramid of an image is built on first request and cached on disk. Previews are cached on disk as well.<br>
+ * <br>
+ * Only requests of logged-in sessions are served. Images are only loaded from HTTP(S) URLs that start with
+ * one of the allowed prefixes. If no prefixes are configured, all requests are rejected.<br>
+ * <br>
+ * Parameters (web.xml):
+ * <ul>
+ * <li>TILE_CACHE_DIR - Folder for the cached tiles (default: servlet container temp folder)</li>
+ * <li>TILE_SIZE - Edge length of the tiles (default: 256)</li>
+ * <li>ALLOWED_IMAGE_URL_PREFIXES - Comma separated list of allowed image URL prefixes, e.g. <code>https://images.example.org/</code> (required)</li>
+ * <li>MAX_CACHED_PYRAMIDS - Maximum number of pyramids kept in memory; the tiles stay on disk (default: 256)</li>
+ * </ul>
+ *
+ * @author Christian Clausner
+ *
+ */
+public class DocumentImageTileServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int DEFAULT_TILE_SIZE = 256;
+	private static final double MIN_PREVIEW_SCALE = 0.01;
+	private static final int BUFFER_SIZE = 16 * 1024;
+	/** Tiles never change for a given image URL */
+	private static final int CACHE_MAX_AGE_SECONDS = 24 * 60 * 60;
+	private static final int DEFAULT_MAX_CACHED_PYRAMIDS = 256;
+	private static final int PREVIEW_LOCK_STRIPES = 64;
+
+	private File cacheFolder;
+	private int tileSize = DEFAULT_TILE_SIZE;
+	private List<String> allowedUrlPrefixes = new ArrayList<String>();
+	private int maxCachedPyramids = DEFAULT_MAX_CACHED_PYRAMIDS;
+	/** Pyramids in access order (least recently used first) */
+	private final LinkedHashMap<String, ImagePyramid> pyramids = new LinkedHashMap<String, ImagePyramid>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ImagePyramid> eldest) {
+			return size() > maxCachedPyramids;
+		}
+	};
+	/** Locks for creating previews (striped by cache key) */
+	private final Object[] previewLocks = new Object[PREVIEW_LOCK_STRIPES];
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+
+		//Parameters defined in web.xml:
+		if (getInitParameter("TILE_CACHE_DIR") != null && !getInitParameter("TILE_CACHE_DIR").isEmpty())
+			cacheFolder = new File(getInitParameter("TILE_CACHE_DIR"));
+		else {
+			File tempDir = (File)getServletContext().getAttribute("javax.servlet.context.tempdir");
+			if (tempDir == null)
+				tempDir = new File(System.getProperty("java.io.tmpdir"));
+			cacheFolder = new File(tempDir, "prima-image-tiles");
+		}
+
+		if (getInitParameter("TILE_SIZE") != null && !getInitParameter("TILE_SIZE").isEmpty())
+			tileSize = Math.max(16, Integer.parseInt(getInitParameter("TILE_SIZE")));
+
+		if (getInitParameter("MAX_CACHED_PYRAMIDS") != null && !getInitParameter("MAX_CACHED_PYRAMIDS").isEmpty())
+			maxCachedPyramids = Math.max(1, Integer.parseInt(getInitParameter("MAX_CACHED_PYRAMIDS")));
+
+		if (getInitParameter("ALLOWED_IMAGE_URL_PREFIXES") != null) {
+			String[] prefixes = getInitParameter("ALLOWED_IMAGE_URL_PREFIXES").split(",");
+			for (int i=0; i<prefixes.length; i++) {
+				if (!prefixes[i].trim().isEmpty())
+					allowedUrlPrefixes.add(prefixes[i].trim());
+			}
+		}
+		if (allowedUrlPrefixes.isEmpty())
+			log("ALLOWED_IMAGE_URL_PREFIXES not set - all image requests will be rejected");
+
+		for (int i=0; i<previewLocks.length; i++)
+			previewLocks[i] = new Object();
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		if (!isLoggedIn(req)) {
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		String imageUrl = req.getParameter("image");
+		if (imageUrl == null || imageUrl.isEmpty()) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if (!isAllowed(imageUrl)) {
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+
+		//Preview
+		if (req.getParameter("scale") != null) {
+			double scale;
+			try {
+				scale = Double.parseDouble(req.getParameter("scale"));
+			} catch (NumberFormatException exc) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+			if (!(scale >= MIN_PREVIEW_SCALE && scale < 1.0)) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+			File preview;
+			try {
+				preview = getPreview(imageUrl, scale);
+			} catch (IOException exc) {
+				exc.printStackTrace();
+				resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+			sendFile(preview, resp);
+			return;
+		}
+
+		ImagePyramid pyramid;
+		try {
+			pyramid = getPyramid(imageUrl);
+		} catch (IOException exc) {
+			exc.printStackTrace();
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		//Info
+		if (req.getParameter("info") != null) {
+			resp.setContentType("text/plain");
+			resp.setHeader("Cache-Control", "max-age=" + CACHE_MAX_AGE_SECONDS);
+			resp.getWriter().write(pyramid.getWidth() + " " + pyramid.getHeight() + " " 
+									+ pyramid.getTileSize() + " " + pyramid.getLevelCount());
+			return;
+		}
+
+		//Tile
+		File tile;
+		try {
+			tile = pyramid.getTile(	Integer.parseInt(req.getParameter("level")), 
+									Integer.parseInt(req.getParameter("x")), 
+									Integer.parseInt(req.getParameter("y")));
+		} catch (NumberFormatException exc) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if (tile == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		sendFile(tile, resp);
+	}
+
+	/**
+	 * Returns the (built) pyramid for the given image
+	 */
+	protected ImagePyramid getPyramid(String imageUrl) throws IOException {
+		ImagePyramid pyramid;
+		synchronized (pyramids) {
+			pyramid = pyramids.get(imageUrl);
+			if (pyramid == null) {
+				pyramid = new ImagePyramid(imageUrl, cacheFolder, tileSize);
+				pyramids.put(imageUrl, pyramid);
+			}
+		}
+		pyramid.build(); //Blocks concurrent requests for the same image until the pyramid is available
+		return pyramid;
+	}
+
+	/**
+	 * Returns the cached preview of the given image (creates it if necessary).
+	 * The size of the preview is the original size multiplied by the scale (rounded, at least 1 pixel).
+	 * @param scale Scale factor (0 &lt; scale &lt; 1)
+	 */
+	protected File getPreview(String imageUrl, double scale) throws IOException {
+		//Cache file
+		String scaleKey = Long.toString(Math.round(scale * 10000.0));
+		String key = ImagePyramid.getCacheKey(imageUrl) + "_" + scaleKey;
+		File previewFolder = new File(cacheFolder, "previews");
+		File preview = findPreview(previewFolder, key);
+		if (preview != null)
+			return preview;
+
+		synchronized (previewLocks[(key.hashCode() & 0x7fffffff) % previewLocks.length]) {
+			preview = findPreview(previewFolder, key); //Created by concurrent request?
+			if (preview != null)
+				return preview;
+
+			BufferedImage image = ImagePyramid.normalize(ImagePyramid.readImage(imageUrl));
+			BufferedImage scaled = ImagePyramid.scale(image, 
+					Math.max(1, (int)Math.round(image.getWidth() * scale)), 
+					Math.max(1, (int)Math.round(image.getHeight() * scale)));
+			
+			if (!previewFolder.isDirectory() && !previewFolder.mkdirs())
+				throw new IOException("Could not create preview cache folder: " + previewFolder.getAbsolutePath());
+			String format = ImagePyramid.usePng(scaled) ? "png" : "jpg";
+			preview = new File(previewFolder, key + "." + format);
+			ImagePyramid.writeImage(scaled, format, preview);
+			return preview;
+		}
+	}
+	
+	private static File findPreview(File folder, String key) {
+		File file = new File(folder, key + ".jpg");
+		if (file.isFile())
+			return file;
+		file = new File(folder, key + ".png");
+		if (file.isFile())
+			return file;
+		return null;
+	}
+
+	/**
+	 * Streams the given image file to the client
+	 */
+	protected void sendFile(File file, HttpServletResponse resp) throws IOException {
+		resp.setContentType(file.getName().endsWith(".png") ? "image/png" : "image/jpeg");
+		resp.setHeader("Cache-Control", "max-age=" + CACHE_MAX_AGE_SECONDS);
+		resp.setContentLength((int)file.length());
+		InputStream in = new FileInputStream(file);
+		try {
+			OutputStream out = resp.getOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int len;
+			while ((len = in.read(buffer)) > 0)
+				out.write(buffer, 0, len);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks if the request belongs to a session of a logged-in user (or a demo session)
+	 */
+	protected boolean isLoggedIn(HttpServletRequest req) {
+		HttpSession session = req.getSession(false);
+		if (session == null)
+			return false;
+		return Boolean.TRUE.equals(session.getAttribute(SessionAttributes.USER_AUTH))
+				|| session.getAttribute(SessionAttributes.PERMISSIONS) != null;
+	}
+
+	/**
+	 * Checks the image URL against the allowed prefixes (only HTTP and HTTPS URLs are allowed).
+	 * A prefix has to end at a path boundary, so that "http://host" does not match "http://host.other.org".
+	 */
+	protected boolean isAllowed(String imageUrl) {
+		try {
+			URI uri = new URI(imageUrl);
+			if (!uri.equals(uri.normalize())) //No "." or ".." path segments
+				return false;
+			if (!ImagePyramid.isHttpUrl(uri.toURL()))
+				return false;
+		} catch (URISyntaxException exc) {
+			return false;
+		} catch (MalformedURLException exc) {
+			return false;
+		} catch (IllegalArgumentException exc) { //Not absolute
+			return false;
+		}
+		for (int i=0; i<allowedUrlPrefixes.size(); i++) {
+			String prefix = allowedUrlPrefixes.get(i);
+			if (!imageUrl.startsWith(prefix))
+				continue;
+			if (prefix.endsWith("/") || imageUrl.length() == prefix.length())
+				return true;
+			char next = imageUrl.charAt(prefix.length());
+			if (next == '/' || next == '?')
+				return true;
+		}
+		return false;
+	}
+
+	protected File getCacheFolder() {
+		return cacheFolder;
+	}
+}
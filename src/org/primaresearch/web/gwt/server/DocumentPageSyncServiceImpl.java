@@ -23,11 +23,32 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -37,7 +58,6 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.primaresearch.dla.page.Page;
-import org.primaresearch.dla.page.io.PageWriter;
 import org.primaresearch.dla.page.io.UrlInput;
 import org.primaresearch.dla.page.io.xml.MetsMultiPageReader;
 import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
@@ -66,15 +86,21 @@ import org.primaresearch.dla.page.layout.shared.GeometricObject;
 import org.primaresearch.io.UnsupportedFormatVersionException;
 import org.primaresearch.io.xml.IOError;
 import org.primaresearch.maths.geometry.Dimension;
+import org.primaresearch.maths.geometry.Point;
 import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.maths.geometry.Rect;
 import org.primaresearch.shared.Pair;
 import org.primaresearch.shared.variable.StringValue;
 import org.primaresearch.shared.variable.Variable;
 import org.primaresearch.shared.variable.VariableMap;
+import org.primaresearch.shared.variable.VariableValue;
 import org.primaresearch.web.gwt.client.page.DocumentPageSyncService;
 import org.primaresearch.web.gwt.shared.RemoteException;
+import org.primaresearch.web.gwt.shared.page.CompactContentObjects;
 import org.primaresearch.web.gwt.shared.page.ContentObjectC;
 import org.primaresearch.web.gwt.shared.page.ContentObjectSync;
+import org.primaresearch.web.gwt.shared.page.EditOperation;
+import org.primaresearch.web.gwt.shared.page.ExportProgress;
 import org.primaresearch.web.gwt.shared.page.GroupC;
 import org.primaresearch.web.gwt.shared.page.GroupMemberC;
 import org.primaresearch.web.gwt.shared.page.RegionRefC;
@@ -84,6 +110,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
+import com.google.gwt.user.server.rpc.RPCRequest;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 
 /**
@@ -97,22 +124,137 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 	private static final long serialVersionUID = 1L;
 	
 	private static final String PAGE_OBJECT_CACHE_ATTR = "PAGEObjectCache"; 
+	/** Set of URLs for which the session holds a private (modifiable) page object instead of a shared snapshot */
+	private static final String PAGE_PRIVATE_COPIES_ATTR = "PAGEPrivateCopies"; 
+	/** Spatial indexes for the page objects in the session cache (key: URL) */
+	private static final String PAGE_SPATIAL_INDEX_ATTR = "PAGESpatialIndexes"; 
+	/** Multi-page export jobs of the session (key: job ID) */
+	private static final String EXPORT_JOBS_ATTR = "PAGEExportJobs"; 
+	
+	/** Modification versions of the pages in the session cache (key: URL) */
+	private static final String PAGE_VERSIONS_ATTR = "PAGEVersions"; 
+	/** Serialized PAGE XML of the pages in the session cache (key: URL) */
+	private static final String PAGE_SERIALIZED_ATTR = "PAGESerialized"; 
+	
+	/** Suffix of export folders that are still being written */
+	private static final String EXPORT_TEMP_SUFFIX = ".part";
+	
+	/** Number of locks used for loading page files (a page file is mapped to a lock via the hash of session ID and URL) */
+	private static final int PAGE_LOCK_STRIPES = 64;
+	
+	private static final int DEFAULT_MULTI_PAGE_LOAD_THREADS = 8;
+	private static final int DEFAULT_MULTI_PAGE_LOADS_PER_HOST = 4;
+	private static final int DEFAULT_EXPORT_THREADS = 2;
+	private static final int DEFAULT_MAX_QUEUED_EXPORTS = 16;
+	/** Time after which finished export jobs are removed if their result hasn't been requested (ms) */
+	private static final long EXPORT_JOB_RETENTION_TIME = 60L * 60L * 1000L;
+	
+	private final Object[] pageLocks = createLocks(PAGE_LOCK_STRIPES);
+	private final Object pageCacheCreationLock = new Object();
+	
+	/** Worker threads for loading the pages of multi-page documents (METS) */
+	private ExecutorService multiPageLoader = null;
+	private final Object multiPageLoaderLock = new Object();
+	private int multiPageLoadThreads = DEFAULT_MULTI_PAGE_LOAD_THREADS;
+	/** Maximum number of concurrent page requests per host */
+	private int multiPageLoadsPerHost = DEFAULT_MULTI_PAGE_LOADS_PER_HOST;
+	private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+	/** Base folder for multi-page exports */
+	private File exportDir = null;
+	/** Worker threads for export jobs */
+	private ExecutorService exportExecutor = null;
+	private final Object exportExecutorLock = new Object();
+	private int exportThreads = DEFAULT_EXPORT_THREADS;
+	/** Maximum number of export jobs waiting for a worker thread */
+	private int maxQueuedExports = DEFAULT_MAX_QUEUED_EXPORTS;
+	/** Keep serialized PAGE XML for repeated downloads */
+	private boolean downloadCacheEnabled = true;
+	
+	/** Pages that have been accessed for editing during the current request */
+	private final ThreadLocal<Set<String>> modifiedPages = new ThreadLocal<Set<String>>() {
+		@Override
+		protected Set<String> initialValue() {
+			return new HashSet<String>(2);
+		}
+	};
+	private final ThreadLocal<HttpSession> modifiedPagesSession = new ThreadLocal<HttpSession>();
+	/** Permissions of the session of the current request */
+	private final ThreadLocal<Permissions> requestPermissions = new ThreadLocal<Permissions>();
+	
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		
+		//Parameters defined in web.xml:
+		SharedPageCache sharedPageCache = SharedPageCache.getInstance();
+		if (getInitParameter("PAGE_CACHE_ENABLED") != null)
+			sharedPageCache.setEnabled(Boolean.parseBoolean(getInitParameter("PAGE_CACHE_ENABLED")));
+		
+		if (getInitParameter("PAGE_CACHE_MAX_SIZE") != null && !getInitParameter("PAGE_CACHE_MAX_SIZE").isEmpty())
+			sharedPageCache.setMaxSize(Long.parseLong(getInitParameter("PAGE_CACHE_MAX_SIZE")));
+		
+		if (getInitParameter("MULTI_PAGE_LOAD_THREADS") != null && !getInitParameter("MULTI_PAGE_LOAD_THREADS").isEmpty())
+			multiPageLoadThreads = Math.max(1, Integer.parseInt(getInitParameter("MULTI_PAGE_LOAD_THREADS")));
+
+		if (getInitParameter("MULTI_PAGE_LOADS_PER_HOST") != null && !getInitParameter("MULTI_PAGE_LOADS_PER_HOST").isEmpty())
+			multiPageLoadsPerHost = Math.max(1, Integer.parseInt(getInitParameter("MULTI_PAGE_LOADS_PER_HOST")));
+		
+		if (getInitParameter("DOWNLOAD_CACHE_ENABLED") != null)
+			downloadCacheEnabled = Boolean.parseBoolean(getInitParameter("DOWNLOAD_CACHE_ENABLED"));
+		
+		if (getInitParameter("EXPORT_THREADS") != null && !getInitParameter("EXPORT_THREADS").isEmpty())
+			exportThreads = Math.max(1, Integer.parseInt(getInitParameter("EXPORT_THREADS")));
+		
+		if (getInitParameter("MAX_QUEUED_EXPORTS") != null && !getInitParameter("MAX_QUEUED_EXPORTS").isEmpty())
+			maxQueuedExports = Math.max(1, Integer.parseInt(getInitParameter("MAX_QUEUED_EXPORTS")));
+		
+		if (getInitParameter("EXPORT_DIR") != null && !getInitParameter("EXPORT_DIR").isEmpty())
+			exportDir = new File(getInitParameter("EXPORT_DIR"));
+		else {
+			String tempDir = System.getProperty("java.io.tmpdir");
+			if (tempDir != null)
+				exportDir = new File(tempDir, "page-export");
+		}
+	}
+	
+	@Override
+	public void destroy() {
+		synchronized (multiPageLoaderLock) {
+			if (multiPageLoader != null) {
+				multiPageLoader.shutdownNow();
+				multiPageLoader = null;
+			}
+		}
+		synchronized (exportExecutorLock) {
+			if (exportExecutor != null) {
+				exportExecutor.shutdownNow();
+				exportExecutor = null;
+			}
+		}
+		super.destroy();
+	}
 	
 	//The doGet() method is not used by GWT, so we can use it for download requests from client side
+	/**
+	 * Download of the PAGE XML of a cached page (parameter 'downloadPage' with the page URL or 'null' for the session page).<br>
+	 * The XML is written to a buffer while holding the page lock and then sent to the client (gzip or deflate compressed if accepted). The serialized form is kept
+	 * per session and served again as long as the page hasn't been modified (ETag based on the page modification version,
+	 * conditional requests are answered with 304).
+	 */
 	@Override
 	protected void doGet( HttpServletRequest req, HttpServletResponse resp ) throws ServletException, IOException {
 		//super.doGet(req, resp);
 	
-		HttpSession session = req.getSession();
+		HttpSession session = req.getSession(false);
 		boolean canDownload = false;
 		if (session != null) {
 			Permissions permissions = (Permissions)session.getAttribute(SessionAttributes.PERMISSIONS);
 		
-			canDownload = permissions.isPermitted(DefaultPermissionNames.Download);
+			canDownload = permissions != null && permissions.isPermitted(DefaultPermissionNames.Download);
 		}
 		
 		if (!canDownload) { //Forbidden
-			resp.sendError(403);
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN);
 			return;
 		}
 		
@@ -120,43 +262,104 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
         String url = req.getParameter( "downloadPage" );
         if ("null".equals(url))
         	url = null;
-        //if (fileName == null || "null".equals(fileName))
-        	//url = (String)session.getAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE);
 		
-		String fileName = "PageContent.xml";
+		//If no URL is given, use the session attribute
+		if (url == null)
+			url = (String)session.getAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE);
 
-        int BUFFER = 1024 * 100;
+		//Get it from the session cache
+		Page page = url != null ? getPageCache(session).get(url) : null;
+		if (page == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		//Conditional request
+		long version = getPageVersion(session, url);
+		String etag = "\"" + Integer.toHexString(System.identityHashCode(page)) + "-" + version + "\"";
+		resp.setHeader("ETag", etag);
+		resp.setHeader("Cache-Control", "private, no-cache");
+		resp.setHeader("Vary", "Accept-Encoding");
+		if (matchesEtag(req.getHeader("If-None-Match"), etag)) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		
+		String fileName = "PageContent.xml";
         resp.setContentType( "application/octet-stream" );
-        resp.setHeader( "Content-Disposition:", "attachment;filename=" + "\"" + fileName + "\"" );
-        ServletOutputStream outputStream = resp.getOutputStream();
-        //resp.setContentLength( Long.valueOf( getfile(fileName).length() ).intValue() );
-        resp.setBufferSize( BUFFER );
+        resp.setHeader( "Content-Disposition", "attachment;filename=" + "\"" + fileName + "\"" );
         
-        //Your IO code goes here to create a file and set to outputStream//
-        Page page = null;
-		try {
-			//page = getPageFile(null);
-			
-			//If no URL is given, use the session attribute
-			if (url == null)
-				url = (String)session.getAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE);
+        //Serialized form available?
+        Map<String, SerializedPage> serializedPages = downloadCacheEnabled ? getSerializedPages(session) : null;
+        SerializedPage serialized = serializedPages != null ? serializedPages.get(url) : null;
+        if (serialized == null || serialized.page != page || serialized.version != version) {
+        	//Serialize while holding the page lock (modifications can run in parallel requests), then send the buffer
+        	byte[] xml = null;
+        	try {
+        		xml = serializePage(session.getId(), url, page);
+        	} catch (Exception e) {
+        		e.printStackTrace();
+        	}
+        	if (xml == null) {
+        		resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        		return;
+        	}
+        	serialized = new SerializedPage(page, version, xml);
+        	
+        	//Keep serialized form (unless the page has been modified in the meantime)
+        	if (serializedPages != null && getPageVersion(session, url) == version)
+        		serializedPages.put(url, serialized);
+        }
+        
+        //Compression
+        String encoding = getAcceptedEncoding(req.getHeader("Accept-Encoding"));
+        if (encoding != null)
+        	resp.setHeader("Content-Encoding", encoding);
+
+        byte[] data = serialized.getData(encoding);
+        resp.setContentLength(data.length);
+        ServletOutputStream outputStream = resp.getOutputStream();
+        outputStream.write(data);
+        outputStream.close();
+	}
 	
-			//Try to get it from the session first
-			@SuppressWarnings("unchecked")
-			Map<String, Page> pageCache = (Map<String, Page>)session.getAttribute(PAGE_OBJECT_CACHE_ATTR);
-			if (pageCache == null) {
-				pageCache = new HashMap<String, Page>();
-				session.setAttribute(PAGE_OBJECT_CACHE_ATTR, pageCache);
-			}
-			
-			page = pageCache.get(url);
-			
-	        XmlPageWriter writer = PageXmlInputOutput.getWriterForLastestXmlFormat();
-	        writer.write(page, new StreamTarget(outputStream));
-		} catch (Exception e) {
-			e.printStackTrace();
+	/**
+	 * Checks if the given If-None-Match header contains the given entity tag
+	 */
+	private static boolean matchesEtag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null)
+			return false;
+		String[] tags = ifNoneMatch.split(",");
+		for (int i=0; i<tags.length; i++) {
+			String tag = tags[i].trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if ("*".equals(tag) || etag.equals(tag))
+				return true;
 		}
-		outputStream.close();
+		return false;
+	}
+	
+	/**
+	 * Returns the preferred content encoding ('gzip' or 'deflate') accepted by the client
+	 * @return The encoding or <code>null</code> for no compression
+	 */
+	private static String getAcceptedEncoding(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return null;
+		boolean deflate = false;
+		String[] codings = acceptEncoding.toLowerCase().split(",");
+		for (int i=0; i<codings.length; i++) {
+			String[] parts = codings[i].split(";");
+			String coding = parts[0].trim();
+			if (parts.length > 1 && parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?"))
+				continue; //Not acceptable
+			if ("gzip".equals(coding) || "x-gzip".equals(coding))
+				return "gzip";
+			if ("deflate".equals(coding))
+				deflate = true;
+		}
+		return deflate ? "deflate" : null;
 	}
 
 	@Override
@@ -197,144 +400,305 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		
 		//Get content
 		if (page != null && page.getLayout() != null) {
-			PageLayout layout = page.getLayout();
+			HashSet<String> contentTypes = new HashSet<String>(1);
+			contentTypes.add(contentType);
+			return collectContentObjects(page, contentTypes, null).get(contentType);
+		}
+
+		return null;
+	}
+	
+	@Override
+	public ArrayList<ContentObjectC> loadContentObjectsInRect(String url, String contentType, int left, int top, int right, int bottom) throws RemoteException {
+		//Get the page object
+		Page page = getPageFile(url);
+		
+		//Get content
+		if (page != null && page.getLayout() != null) {
+			Rect area = new Rect(left, top, right, bottom);
+			ContentType type = null;
+			if ("Region".equals(contentType))
+				type = RegionType.TextRegion;
+			else if ("TextLine".equals(contentType))
+				type = LowLevelTextType.TextLine;
+			else if ("Word".equals(contentType))
+				type = LowLevelTextType.Word;
+			else if ("Glyph".equals(contentType))
+				type = LowLevelTextType.Glyph;
 			
-			//Regions
-			if ("Region".equals(contentType)) {
-				ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(layout.getRegionCount());
-				List<Region> sorted = page.getLayout().getRegionsSorted(true);
-				for (int i=0; i<sorted.size(); i++) {
-					Region region = sorted.get(i);
-					
-					Polygon polygon = region.getCoords();
-					String id = region.getId().toString();
-					ContentObjectC contentObj = new ContentObjectC(polygon, id);
-					contentObj.setType(region.getType());
-					contentObj.setAttributes(region.getAttributes());
-					if (region instanceof TextObject)
-						contentObj.setText(((TextObject)region).getText());
-					
-					contentObjects.add(contentObj);
+			//Use spatial index
+			if (type != null) {
+				List<ContentObject> objects = getSpatialIndex(url, page).getObjectsInRect(area, type);
+				ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(objects.size());
+				for (int i=0; i<objects.size(); i++) {
+					ContentObject obj = objects.get(i);
+					contentObjects.add(createContentObjectC(obj, obj instanceof Region ? obj.getType() : type));
 				}
 				return contentObjects;
 			}
-			//Lines
-			else if ("TextLine".equals(contentType)) {
-				ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(layout.getRegionCount());
-				List<Region> sorted = page.getLayout().getRegionsSorted(true);
-				for (int i=0; i<sorted.size(); i++) {
-					Region region = sorted.get(i);
-					if (! (region instanceof TextRegion))
-						continue;
-					TextRegion textReg = (TextRegion)region;
-					List<LowLevelTextObject> lines = textReg.getTextObjectsSorted();
-					for (int l=0; l<lines.size(); l++) {
-						TextLine line = (TextLine)lines.get(l);
-						
-						Polygon polygon = line.getCoords();
-						String id = line.getId().toString();
-						ContentObjectC contentObj = new ContentObjectC(polygon, id);
-						contentObj.setType(LowLevelTextType.TextLine);
-						contentObj.setAttributes(line.getAttributes());
-						contentObj.setText(((TextObject)line).getText());
+			
+			//Border, print space
+			HashSet<String> contentTypes = new HashSet<String>(1);
+			contentTypes.add(contentType);
+			return collectContentObjects(page, contentTypes, area).get(contentType);
+		}
 
-						contentObjects.add(contentObj);
-					}
-				}
-				return contentObjects;
+		return null;
+	}
+	
+	@Override
+	public CompactContentObjects loadContentObjectsCompact(String url, String contentType) throws RemoteException {
+		ArrayList<ContentObjectC> contentObjects = loadContentObjects(url, contentType);
+		if (contentObjects == null)
+			return null;
+		return encodeCompact(contentObjects);
+	}
+	
+	/**
+	 * Converts the given content objects to the compact transfer format
+	 * (type and attribute dictionaries, sparse attribute overrides, VLQ encoded delta coordinates).
+	 */
+	private CompactContentObjects encodeCompact(List<ContentObjectC> contentObjects) {
+		int count = contentObjects.size();
+		CompactContentObjects compact = new CompactContentObjects();
+		compact.count = count;
+		compact.ids = new String[count];
+		compact.texts = new String[count];
+		compact.types = new ArrayList<ContentType>();
+		compact.attributeTemplates = new ArrayList<VariableMap>();
+		compact.attributeOverrides = new ArrayList<VariableValue>();
+		
+		StringBuilder data = new StringBuilder(count * 16);
+		Map<ContentType, Integer> typeIndices = new HashMap<ContentType, Integer>();
+		List<Integer> overrideIndices = new ArrayList<Integer>();
+		int lastX = 0;
+		int lastY = 0;
+		for (int i=0; i<count; i++) {
+			ContentObjectC obj = contentObjects.get(i);
+			compact.ids[i] = obj.getId();
+			compact.texts[i] = obj.getText();
+			
+			//Type
+			Integer typeIndex = typeIndices.get(obj.getType());
+			if (typeIndex == null) {
+				typeIndex = compact.types.size();
+				compact.types.add(obj.getType());
+				typeIndices.put(obj.getType(), typeIndex);
 			}
-			//Words
-			else if ("Word".equals(contentType)) {
-				ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(layout.getRegionCount());
-				List<Region> sorted = page.getLayout().getRegionsSorted(true);
-				for (int i=0; i<sorted.size(); i++) {
-					Region region = sorted.get(i);
-					if (! (region instanceof TextRegion))
-						continue;
-					TextRegion textReg = (TextRegion)region;
-					List<LowLevelTextObject> lines = textReg.getTextObjectsSorted();
-					for (int l=0; l<lines.size(); l++) {
-						TextLine line = (TextLine)lines.get(l);
-
-						List<LowLevelTextObject> words = line.getTextObjectsSorted();
-						for (int w=0; w<words.size(); w++) {
-							Word word = (Word)words.get(w);
-
-							Polygon polygon = word.getCoords();
-							String id = word.getId().toString();
-							ContentObjectC contentObj = new ContentObjectC(polygon, id);
-							contentObj.setType(LowLevelTextType.Word);
-							contentObj.setAttributes(word.getAttributes());
-							contentObj.setText(((TextObject)word).getText());
-
-							contentObjects.add(contentObj);
+			CompactContentObjects.appendInt(data, typeIndex);
+			
+			//Attributes
+			VariableMap attrs = obj.getAttributes();
+			if (attrs == null) {
+				CompactContentObjects.appendInt(data, 0);
+				CompactContentObjects.appendInt(data, 0);
+			} else {
+				int templateIndex = findAttributeTemplate(compact.attributeTemplates, attrs);
+				overrideIndices.clear();
+				if (templateIndex < 0) { //New template
+					templateIndex = compact.attributeTemplates.size();
+					compact.attributeTemplates.add(attrs);
+				} else {
+					VariableMap template = compact.attributeTemplates.get(templateIndex);
+					for (int v=0; v<attrs.getSize(); v++) {
+						VariableValue value = attrs.get(v).getValue();
+						if (!isSameValue(template.get(v).getValue(), value)) {
+							overrideIndices.add(v);
+							compact.attributeOverrides.add(value);
 						}
 					}
 				}
-				return contentObjects;
+				CompactContentObjects.appendInt(data, templateIndex+1);
+				CompactContentObjects.appendInt(data, overrideIndices.size());
+				for (int v=0; v<overrideIndices.size(); v++)
+					CompactContentObjects.appendInt(data, overrideIndices.get(v));
 			}
-			//Glyphs
-			else if ("Glyph".equals(contentType)) {
-				ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(layout.getRegionCount());
-				List<Region> sorted = page.getLayout().getRegionsSorted(true);
-				for (int i=0; i<sorted.size(); i++) {
-					Region region = sorted.get(i);
-					if (! (region instanceof TextRegion))
+			
+			//Outline
+			Polygon polygon = obj.getCoords();
+			if (polygon == null) {
+				CompactContentObjects.appendInt(data, -1);
+				continue;
+			}
+			CompactContentObjects.appendInt(data, polygon.getSize());
+			int prevX = lastX;
+			int prevY = lastY;
+			for (int p=0; p<polygon.getSize(); p++) {
+				Point point = polygon.getPoint(p);
+				CompactContentObjects.appendInt(data, point.x - prevX);
+				CompactContentObjects.appendInt(data, point.y - prevY);
+				prevX = point.x;
+				prevY = point.y;
+				if (p == 0) {
+					lastX = point.x;
+					lastY = point.y;
+				}
+			}
+		}
+		compact.data = data.toString();
+		return compact;
+	}
+	
+	/**
+	 * Finds an attribute template with the same variables (names in same order) as the given attribute map.
+	 * @return Index of template or -1
+	 */
+	private int findAttributeTemplate(List<VariableMap> templates, VariableMap attrs) {
+		for (int t=templates.size()-1; t>=0; t--) {
+			VariableMap template = templates.get(t);
+			if (template.getSize() != attrs.getSize())
+				continue;
+			boolean match = true;
+			for (int v=0; v<attrs.getSize() && match; v++) 
+				match = template.get(v).getName().equals(attrs.get(v).getName());
+			if (match)
+				return t;
+		}
+		return -1;
+	}
+	
+	private static boolean isSameValue(VariableValue value1, VariableValue value2) {
+		if (value1 == value2)
+			return true;
+		if (value1 == null || value2 == null)
+			return false;
+		return value1.getClass().equals(value2.getClass()) && value1.toString().equals(value2.toString());
+	}
+	
+	@Override
+	public HashMap<String, ArrayList<ContentObjectC>> loadAllContentObjects(String url, HashSet<String> contentTypes) throws RemoteException {
+		//Get the page object
+		Page page = getPageFile(url);
+		
+		//Get content
+		if (page != null && page.getLayout() != null && contentTypes != null)
+			return collectContentObjects(page, contentTypes, null);
+		
+		return null;
+	}
+	
+	/**
+	 * Creates client side content objects for all requested content types. The region hierarchy
+	 * (region, line, word, glyph) is traversed only once.
+	 * @param contentTypes Requested types (supported: 'Region', 'TextLine', 'Word', 'Glyph', 'Border', 'PrintSpace')
+	 * @param area Optional filter (only objects with a bounding box intersecting the area are included; <code>null</code> for all)
+	 * @return Map with content type as key and list of content objects as value (no entry for unsupported types)
+	 */
+	private HashMap<String, ArrayList<ContentObjectC>> collectContentObjects(Page page, Set<String> contentTypes, Rect area) {
+		PageLayout layout = page.getLayout();
+		HashMap<String, ArrayList<ContentObjectC>> result = new HashMap<String, ArrayList<ContentObjectC>>();
+		
+		ArrayList<ContentObjectC> regionObjects = null;
+		ArrayList<ContentObjectC> lineObjects = null;
+		ArrayList<ContentObjectC> wordObjects = null;
+		ArrayList<ContentObjectC> glyphObjects = null;
+		if (contentTypes.contains("Region"))
+			result.put("Region", regionObjects = new ArrayList<ContentObjectC>(layout.getRegionCount()));
+		if (contentTypes.contains("TextLine"))
+			result.put("TextLine", lineObjects = new ArrayList<ContentObjectC>(layout.getRegionCount()));
+		if (contentTypes.contains("Word"))
+			result.put("Word", wordObjects = new ArrayList<ContentObjectC>(layout.getRegionCount()));
+		if (contentTypes.contains("Glyph"))
+			result.put("Glyph", glyphObjects = new ArrayList<ContentObjectC>(layout.getRegionCount()));
+		
+		//Regions, lines, words and glyphs (single pass)
+		if (regionObjects != null || lineObjects != null || wordObjects != null || glyphObjects != null) {
+			boolean lowLevelText = lineObjects != null || wordObjects != null || glyphObjects != null;
+			List<Region> sorted = layout.getRegionsSorted(true);
+			for (int i=0; i<sorted.size(); i++) {
+				Region region = sorted.get(i);
+				
+				if (regionObjects != null && intersects(region, area))
+					regionObjects.add(createContentObjectC(region, region.getType()));
+				
+				if (!lowLevelText || !(region instanceof TextRegion))
+					continue;
+				TextRegion textReg = (TextRegion)region;
+				List<LowLevelTextObject> lines = textReg.getTextObjectsSorted();
+				for (int l=0; l<lines.size(); l++) {
+					TextLine line = (TextLine)lines.get(l);
+					
+					if (lineObjects != null && intersects(line, area))
+						lineObjects.add(createContentObjectC(line, LowLevelTextType.TextLine));
+					
+					if (wordObjects == null && glyphObjects == null)
 						continue;
-					TextRegion textReg = (TextRegion)region;
-					List<LowLevelTextObject> lines = textReg.getTextObjectsSorted();
-					for (int l=0; l<lines.size(); l++) {
-						TextLine line = (TextLine)lines.get(l);
-
-						List<LowLevelTextObject> words = line.getTextObjectsSorted();
-						for (int w=0; w<words.size(); w++) {
-							Word word = (Word)words.get(w);
-
-							List<LowLevelTextObject> glyphs = word.getTextObjectsSorted();
-							for (int g=0; g<glyphs.size(); g++) {
-								Glyph glyph = (Glyph)glyphs.get(g);
-								
-								Polygon polygon = glyph.getCoords();
-								String id = glyph.getId().toString();
-								ContentObjectC contentObj = new ContentObjectC(polygon, id);
-								contentObj.setType(LowLevelTextType.Glyph);
-								contentObj.setAttributes(glyph.getAttributes());
-								contentObj.setText(((TextObject)glyph).getText());
-
-								contentObjects.add(contentObj);
-							}
+					List<LowLevelTextObject> words = line.getTextObjectsSorted();
+					for (int w=0; w<words.size(); w++) {
+						Word word = (Word)words.get(w);
+						
+						if (wordObjects != null && intersects(word, area))
+							wordObjects.add(createContentObjectC(word, LowLevelTextType.Word));
+						
+						if (glyphObjects == null)
+							continue;
+						List<LowLevelTextObject> glyphs = word.getTextObjectsSorted();
+						for (int g=0; g<glyphs.size(); g++) {
+							Glyph glyph = (Glyph)glyphs.get(g);
+							if (intersects(glyph, area))
+								glyphObjects.add(createContentObjectC(glyph, LowLevelTextType.Glyph));
 						}
 					}
 				}
-				return contentObjects;
 			}
-			//Border
-			else if ("Border".equals(contentType)) {
-				ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(1);
-				GeometricObject border = page.getLayout().getBorder(); 
-				if (border != null && border.getCoords() != null && border.getCoords().getSize() >= 3) {
-					ContentObjectC contentObj = new ContentObjectC(border.getCoords(), "[border]");
-					contentObj.setType(ContentType.Border);
-					contentObj.setAttributes(new VariableMap());
-					contentObjects.add(contentObj);
-				}
-				return contentObjects;
+		}
+		
+		//Border
+		if (contentTypes.contains("Border")) {
+			ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(1);
+			GeometricObject border = layout.getBorder(); 
+			if (border != null && border.getCoords() != null && border.getCoords().getSize() >= 3 && intersects(border, area)) {
+				ContentObjectC contentObj = new ContentObjectC(border.getCoords(), "[border]");
+				contentObj.setType(ContentType.Border);
+				contentObj.setAttributes(new VariableMap());
+				contentObjects.add(contentObj);
 			}
-			//Print space
-			else if ("PrintSpace".equals(contentType)) {
-				ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(1);
-				GeometricObject printSpace = page.getLayout().getPrintSpace(); 
-				if (printSpace != null && printSpace.getCoords() != null && printSpace.getCoords().getSize() >= 3) {
-					ContentObjectC contentObj = new ContentObjectC(printSpace.getCoords(), "[print space]");
-					contentObj.setType(ContentType.PrintSpace);
-					contentObj.setAttributes(new VariableMap());
-					contentObjects.add(contentObj);
-				}
-				return contentObjects;
+			result.put("Border", contentObjects);
+		}
+		
+		//Print space
+		if (contentTypes.contains("PrintSpace")) {
+			ArrayList<ContentObjectC> contentObjects = new ArrayList<ContentObjectC>(1);
+			GeometricObject printSpace = layout.getPrintSpace(); 
+			if (printSpace != null && printSpace.getCoords() != null && printSpace.getCoords().getSize() >= 3 && intersects(printSpace, area)) {
+				ContentObjectC contentObj = new ContentObjectC(printSpace.getCoords(), "[print space]");
+				contentObj.setType(ContentType.PrintSpace);
+				contentObj.setAttributes(new VariableMap());
+				contentObjects.add(contentObj);
 			}
+			result.put("PrintSpace", contentObjects);
 		}
-
-		return null;
+		
+		return result;
+	}
+	
+	/**
+	 * Checks if the bounding box of the given object intersects the specified area.
+	 * @param area Area to check (<code>null</code> for whole page, i.e. always <code>true</code>)
+	 */
+	private static boolean intersects(GeometricObject obj, Rect area) {
+		if (area == null)
+			return true;
+		Polygon coords = obj.getCoords();
+		if (coords == null || coords.getSize() == 0)
+			return false;
+		Rect box = coords.getBoundingBox();
+		return box.left <= area.right && box.right >= area.left 
+				&& box.top <= area.bottom && box.bottom >= area.top;
+	}
+	
+	/**
+	 * Creates a client side content object (outline, ID, type, attributes and text) for the given page content object. 
+	 */
+	private ContentObjectC createContentObjectC(ContentObject obj, ContentType type) {
+		Polygon polygon = obj.getCoords();
+		String id = obj.getId().toString();
+		ContentObjectC contentObj = new ContentObjectC(polygon, id);
+		contentObj.setType(type);
+		contentObj.setAttributes(obj.getAttributes());
+		if (obj instanceof TextObject)
+			contentObj.setText(((TextObject)obj).getText());
+		return contentObj;
 	}
 	
 	@Override
@@ -343,11 +707,21 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		if (!isPermitted(DefaultPermissionNames.Edit))
 			throw new RemoteException("Not permitted: "+DefaultPermissionNames.Edit);
 		
-		Page page = getPageFile(url);
+		Page page = getPageFileForEditing(url);
 		
 		if (page == null) //No page object in cache
 			return false;
 		
+		synchronized (getEditLock(url)) {
+			return applyTextContent(page, type, contentObjectId, text);
+		}
+	}
+	
+	/**
+	 * Sets the text content of the specified page content object. 
+	 * @return <code>true</code> if successful
+	 */
+	private boolean applyTextContent(Page page, ContentType type, String contentObjectId, String text) {
 		ContentObject obj = page.getLayout().getObject(type, contentObjectId);
 		
 		if (obj == null)
@@ -368,11 +742,27 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		if (!isPermitted(DefaultPermissionNames.Edit))
 			throw new RemoteException("Not permitted: "+DefaultPermissionNames.Edit);
 		
-		Page page = getPageFile(url);
+		Page page = getPageFileForEditing(url);
 		
 		if (page == null) //No page object in cache
 			return false;
 		
+		synchronized (getEditLock(url)) {
+			try {
+				return applyAttributeValue(page, type, contentObjectId, attr);
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new RemoteException(e.getMessage());
+			} 
+		}
+	}
+	
+	/**
+	 * Sets an attribute value of the specified page content object. 
+	 * @return <code>true</code> if successful
+	 * @throws Exception Invalid value
+	 */
+	private boolean applyAttributeValue(Page page, ContentType type, String contentObjectId, Variable attr) throws Exception {
 		ContentObject obj = page.getLayout().getObject(type, contentObjectId);
 		
 		if (obj == null)
@@ -386,12 +776,7 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		if (oldAttr == null)
 			return false;
 		
-		try {
-			oldAttr.setValue(attr.getValue());
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new RemoteException(e.getMessage());
-		} 
+		oldAttr.setValue(attr.getValue());
 		
 		return true;
 	}
@@ -415,164 +800,603 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 	}
 	
 	public ArrayList<String> getMultiplePageIds(String metsFileUrl) throws RemoteException {
-		MetsMultiPageReader metsReader = new MetsMultiPageReader();
+		List<String> pageUrls = getMetsPageUrls(metsFileUrl);
+		if (pageUrls == null)
+			return null;
 		
+		return processPages(pageUrls, new PageProcessor<String>() {
+			@Override
+			public String process(String url, Page page) {
+				return page != null ? page.getGtsId().toString() : null;
+			}
+		});
+	}
+	
+	/**
+	 * Loads page content objects of the given type of multiple page files (specified in a METS file).
+	 */
+	@Override
+	public ArrayList<ArrayList<ContentObjectC>> loadMultiPageContentObjects(String metsFileUrl, String contentType) throws RemoteException {
+		return loadMultiPageContentObjects(metsFileUrl, contentType, 0, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Loads page content objects of the given type of a range of page files (specified in a METS file).
+	 */
+	@Override
+	public ArrayList<ArrayList<ContentObjectC>> loadMultiPageContentObjects(String metsFileUrl, final String contentType, 
+			int from, int count) throws RemoteException {
+		List<String> pageUrls = getMetsPageUrls(metsFileUrl);
+		if (pageUrls == null)
+			return null;
+		
+		//Range
+		from = Math.max(0, from);
+		int to = (int)Math.min((long)from + Math.max(0, count), (long)pageUrls.size());
+		if (from >= to)
+			return new ArrayList<ArrayList<ContentObjectC>>();
+		
+		final HashSet<String> contentTypes = new HashSet<String>(1);
+		contentTypes.add(contentType);
+		return processPages(pageUrls.subList(from, to), new PageProcessor<ArrayList<ContentObjectC>>() {
+			@Override
+			public ArrayList<ContentObjectC> process(String url, Page page) {
+				if (page == null || page.getLayout() == null)
+					return null;
+				return collectContentObjects(page, contentTypes, null).get(contentType);
+			}
+		});
+	}
+	
+	/**
+	 * Reads the METS file and returns the URLs of the page files (in document order).
+	 * @return List of URLs or <code>null</code> if the METS URL is invalid
+	 */
+	private List<String> getMetsPageUrls(String metsFileUrl) {
+		MetsMultiPageReader metsReader = new MetsMultiPageReader();
 		try {
 			List<String> pageFileNames = metsReader.read(new UrlInput(new URL(metsFileUrl)));
 			
-			ArrayList<String> multiplePageIds = new ArrayList<String>(pageFileNames.size());
-			
+			List<String> pageUrls = new ArrayList<String>(pageFileNames.size());
 			String urlBase = metsFileUrl.substring(0, metsFileUrl.lastIndexOf("/")+1);
-			
-			for (int i=0; i<pageFileNames.size(); i++) {
-				String pageFileName = pageFileNames.get(i);
-				
-				//Create page URL
-				String pageUrl = urlBase + pageFileName;
-				
-				//Load page content
-				String pageId = getPageId(pageUrl);
-				multiplePageIds.add(pageId);
-			}
-			
-			return multiplePageIds;
+			for (int i=0; i<pageFileNames.size(); i++)
+				pageUrls.add(urlBase + pageFileNames.get(i));
+			return pageUrls;
 			
 		} catch (MalformedURLException e) {
 			e.printStackTrace();
 		}
-		
 		return null;
 	}
 	
 	/**
-	 * Loads page content objects of the given type of multiple page files (specified in a METS file).
+	 * Loads the given pages concurrently (bounded number of worker threads and requests per host)
+	 * and applies the given processor to each page (also in the worker threads).
+	 * @return The results in the order of the URLs
 	 */
-	@Override
-	public ArrayList<ArrayList<ContentObjectC>> loadMultiPageContentObjects(String metsFileUrl, String contentType) throws RemoteException {
+	private <T> ArrayList<T> processPages(List<String> pageUrls, final PageProcessor<T> processor) throws RemoteException {
+		final HttpSession session = this.getThreadLocalRequest().getSession();
+		return processPages(new PageLoader() {
+			@Override
+			public Page load(String url) throws RemoteException {
+				return getPageFile(session, url, false);
+			}
+		}, pageUrls, processor);
+	}
+	
+	/**
+	 * Loads the given pages using the given loader concurrently and applies the given processor to each page.
+	 * Can be called from threads other than the request thread.
+	 * @return The results in the order of the URLs
+	 */
+	private <T> ArrayList<T> processPages(final PageLoader loader, List<String> pageUrls, final PageProcessor<T> processor) throws RemoteException {
+		ArrayList<T> results = new ArrayList<T>(pageUrls.size());
 		
-		MetsMultiPageReader metsReader = new MetsMultiPageReader();
+		//Single page -> No need for worker threads
+		if (pageUrls.size() == 1) {
+			Page page = loader.load(pageUrls.get(0));
+			try {
+				results.add(processor.process(pageUrls.get(0), page));
+			} catch (RemoteException e) {
+				throw e;
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new RemoteException("Error processing page file: "+e.getMessage());
+			}
+			return results;
+		}
 		
+		ExecutorService executor = getMultiPageLoader();
+		List<Future<T>> futures = new ArrayList<Future<T>>(pageUrls.size());
 		try {
-			List<String> pageFileNames = metsReader.read(new UrlInput(new URL(metsFileUrl)));
-			
-			ArrayList<ArrayList<ContentObjectC>> multiPageContentObjects = new ArrayList<ArrayList<ContentObjectC>>(pageFileNames.size());
-			
-			String urlBase = metsFileUrl.substring(0, metsFileUrl.lastIndexOf("/")+1);
+			for (int i=0; i<pageUrls.size(); i++) {
+				final String pageUrl = pageUrls.get(i);
+				futures.add(executor.submit(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						Semaphore permits = getHostPermits(pageUrl);
+						permits.acquire();
+						try {
+							return processor.process(pageUrl, loader.load(pageUrl));
+						} finally {
+							permits.release();
+						}
+					}
+				}));
+			}
+			for (int i=0; i<futures.size(); i++)
+				results.add(futures.get(i).get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Loading of page files interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RemoteException)
+				throw (RemoteException)e.getCause();
+			e.printStackTrace();
+			throw new RemoteException("Error loading page files: "+e.getCause());
+		} finally {
+			for (int i=0; i<futures.size(); i++) //Stop outstanding tasks if something went wrong
+				futures.get(i).cancel(true);
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns (creates if necessary) the executor for loading the pages of multi-page documents.
+	 */
+	private ExecutorService getMultiPageLoader() {
+		synchronized (multiPageLoaderLock) {
+			if (multiPageLoader == null) {
+				final AtomicInteger threadCount = new AtomicInteger();
+				ThreadPoolExecutor executor = new ThreadPoolExecutor(multiPageLoadThreads, multiPageLoadThreads, 
+						60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), 
+						new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, "MultiPageLoader-" + threadCount.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+				executor.allowCoreThreadTimeOut(true);
+				multiPageLoader = executor;
+			}
+			return multiPageLoader;
+		}
+	}
+	
+	/**
+	 * Returns the semaphore limiting the concurrent requests to the host of the given URL.
+	 */
+	private Semaphore getHostPermits(String url) {
+		String host;
+		try {
+			host = new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			host = "";
+		}
+		Semaphore permits = hostPermits.get(host);
+		if (permits == null) {
+			Semaphore newPermits = new Semaphore(multiPageLoadsPerHost);
+			permits = hostPermits.putIfAbsent(host, newPermits);
+			if (permits == null)
+				permits = newPermits;
+		}
+		return permits;
+	}
+	
+	/**
+	 * Source of the page objects of a multi-page document.
+	 */
+	private static interface PageLoader {
+		/**
+		 * Returns the page object for the given URL (read-only)
+		 */
+		public Page load(String url) throws RemoteException;
+	}
+	
+	/**
+	 * Operation applied to each page of a multi-page document (in a worker thread).
+	 *
+	 * @param <T> Result type
+	 */
+	private static interface PageProcessor<T> {
+		/**
+		 * @param url Page URL
+		 * @param page Page object (shared, read-only) or <code>null</code>
+		 */
+		public T process(String url, Page page) throws Exception;
+	}
+	
+	/**
+	 * Gets a page file from the session cache or loads it using the URL (read-only access).<br>
+	 * Only requests for the same page file within the same session wait for each other,
+	 * unrelated documents and sessions are loaded in parallel.
+	 * @return The page object (may be shared with other sessions and must not be modified)
+	 * @throws RemoteException 
+	 */
+	private Page getPageFile(String url) throws RemoteException {
+		return getPageFile(url, false);
+	}
+	
+	/**
+	 * Gets a page file from the session cache or loads it using the URL (write access).<br>
+	 * Creates a private copy of the page for the current session on first write access.
+	 * @throws RemoteException 
+	 */
+	private Page getPageFileForEditing(String url) throws RemoteException {
+		return getPageFile(url, true);
+	}
+	
+	/**
+	 * Gets a page file from the session cache or loads it using the URL.
+	 * @param forEditing If <code>true</code>, a page object that is not shared with other sessions is returned
+	 * @throws RemoteException 
+	 */
+	private Page getPageFile(String url, boolean forEditing) throws RemoteException {
+		
+		//Get session
+		HttpServletRequest request = this.getThreadLocalRequest();
+		HttpSession session = request.getSession();
+		
+		return getPageFile(session, url, forEditing);
+	}
+	
+	/**
+	 * Gets a page file from the cache of the given session or loads it using the URL
+	 * (can be called from threads other than the request thread).
+	 * @param forEditing If <code>true</code>, a page object that is not shared with other sessions is returned
+	 * @throws RemoteException 
+	 */
+	Page getPageFile(HttpSession session, String url, boolean forEditing) throws RemoteException {
+		
+		//If no URL is given, use the session attribute
+		if (url == null)
+			url = (String)session.getAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE);
+		
+		if (url == null)
+			throw new RemoteException("Error loading XML file: \nNo URL specified\n");
+		
+		if (forEditing)
+			pageModified(session, url);
+		
+		//Try to get it from the session first
+		Map<String, Page> pageCache = getPageCache(session);
+		Set<String> privateCopies = getPrivateCopies(session);
+		
+		Page page = pageCache.get(url);
+		if (page != null && (!forEditing || privateCopies.contains(url)))
+			return page;
+		
+		synchronized (getPageLock(session, url)) {
+			//Check again (another request might have loaded it in the meantime)
+			page = pageCache.get(url);
 			
-			for (int i=0; i<pageFileNames.size(); i++) {
-				String pageFileName = pageFileNames.get(i);
-				
-				//Create page URL
-				String pageUrl = urlBase + pageFileName;
+			try {
+				//Not in cache -> Load it now
+				if (page == null) {
+					if (!"demo".equals(url)) {
+						URL getAttachmentUrl = createAttachmentUrl(url, (String)session.getAttribute(SessionAttributes.USER_ID));
+						
+						//Shared snapshot
+						page = SharedPageCache.getInstance().getPage(url, getAttachmentUrl);
+						privateCopies.remove(url);
+					}
+					else {
+						//Demo mode
+						URL getAttachmentUrl = this.getClass().getResource("/org/primaresearch/web/aletheia/res/demo.xml");
+						giveDemoPermissions(session);
+						//For security, we better remove all other cached documents
+						pageCache.clear();
+						privateCopies.clear();
+						
+						XmlPageReader reader = PageXmlInputOutput.getReader();
+						page = reader.read(new UrlInput(getAttachmentUrl));
+						if (page == null) { //Error
+							List<IOError> errors = reader.getErrors();
+							String errmsg = "";
+							for (int i=0; i<errors.size(); i++) 
+								errmsg += errors.get(i).getMessage() + "\n";
+							throw new RemoteException(errmsg);
+						}
+						page.setFormatVersion(PageXmlInputOutput.getLatestSchemaModel());
+						privateCopies.add(url);
+					}
+					
+					//Put it in the cache
+					pageCache.put(url, page);
+				}
 				
-				//Load page content
-				ArrayList<ContentObjectC> pageContent = loadContentObjects(pageUrl, contentType);
-				multiPageContentObjects.add(pageContent);
+				//Copy on write
+				if (forEditing && !privateCopies.contains(url)) {
+					page = SharedPageCache.getInstance().createCopy(url, page);
+					pageCache.put(url, page);
+					privateCopies.add(url);
+				}
+			} catch (MalformedURLException e) {
+				e.printStackTrace();
+				String errmsg = "Error loading XML file: \n";
+				errmsg += e.getMessage() + "\n";
+				throw new RemoteException(errmsg);
+			} catch (UnsupportedFormatVersionException e) {
+				e.printStackTrace();
+				String errmsg = "Error loading XML file: \n";
+				errmsg += e.getMessage() + "\n";
+				throw new RemoteException(errmsg);
+			} catch (Exception e) {
+				e.printStackTrace();
+				String errmsg = "Error loading XML file: \n";
+				errmsg += e.getMessage() + "\n";
+				throw new RemoteException(errmsg);
 			}
-			
-			return multiPageContentObjects;
-			
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
 		}
 		
-		return null;
+		return page;
+	}
+	
+	/**
+	 * Returns the URL for loading the given page file on behalf of the given user
+	 */
+	private static URL createAttachmentUrl(String url, String userId) throws MalformedURLException {
+		String uidParam = "Uid="+userId;
+		return new URL(url + (url.contains("?") ? ("&"+uidParam) : ("?"+uidParam)));
+	}
+	
+	/**
+	 * Increments the modification version of the given page (before and after the current request, see {@link #onAfterResponseSerialized(String)}).
+	 */
+	private void pageModified(HttpSession session, String url) {
+		Map<String, Long> versions = getPageVersions(session);
+		synchronized (versions) {
+			Long version = versions.get(url);
+			versions.put(url, version != null ? version + 1 : 1L);
+		}
+		modifiedPages.get().add(url);
+		modifiedPagesSession.set(session);
+	}
+	
+	/**
+	 * Returns the modification version of the given page
+	 */
+	private long getPageVersion(HttpSession session, String url) {
+		Map<String, Long> versions = getPageVersions(session);
+		synchronized (versions) {
+			Long version = versions.get(url);
+			return version != null ? version : 0L;
+		}
+	}
+	
+	@Override
+	protected void onAfterRequestDeserialized(RPCRequest rpcRequest) {
+		super.onAfterRequestDeserialized(rpcRequest);
+		modifiedPages.get().clear();
+		modifiedPagesSession.remove();
+		requestPermissions.remove();
+	}
+	
+	/**
+	 * Increments the modification version of all pages that have been accessed for editing during the request
+	 * (the modification itself happens after the page has been retrieved).
+	 */
+	@Override
+	protected void onAfterResponseSerialized(String serializedResponse) {
+		super.onAfterResponseSerialized(serializedResponse);
+		Set<String> modified = modifiedPages.get();
+		if (modified.isEmpty())
+			return;
+		HttpSession session = modifiedPagesSession.get();
+		Map<String, Long> versions = getPageVersions(session);
+		synchronized (versions) {
+			for (Iterator<String> it = modified.iterator(); it.hasNext(); ) {
+				String url = it.next();
+				Long version = versions.get(url);
+				versions.put(url, version != null ? version + 1 : 1L);
+			}
+		}
+		modified.clear();
+		modifiedPagesSession.remove();
+	}
+	
+	/**
+	 * Returns the page modification versions of the given session (creates the map if it doesn't exist yet). 
+	 */
+	private Map<String, Long> getPageVersions(HttpSession session) {
+		@SuppressWarnings("unchecked")
+		Map<String, Long> versions = (Map<String, Long>)session.getAttribute(PAGE_VERSIONS_ATTR);
+		if (versions != null)
+			return versions;
+		
+		synchronized (pageCacheCreationLock) {
+			@SuppressWarnings("unchecked")
+			Map<String, Long> existing = (Map<String, Long>)session.getAttribute(PAGE_VERSIONS_ATTR);
+			if (existing != null)
+				return existing;
+			versions = new HashMap<String, Long>();
+			session.setAttribute(PAGE_VERSIONS_ATTR, versions);
+		}
+		return versions;
+	}
+	
+	/**
+	 * Returns the serialized pages of the given session (creates the map if it doesn't exist yet). 
+	 */
+	private Map<String, SerializedPage> getSerializedPages(HttpSession session) {
+		@SuppressWarnings("unchecked")
+		Map<String, SerializedPage> pages = (Map<String, SerializedPage>)session.getAttribute(PAGE_SERIALIZED_ATTR);
+		if (pages != null)
+			return pages;
+		
+		synchronized (pageCacheCreationLock) {
+			@SuppressWarnings("unchecked")
+			Map<String, SerializedPage> existing = (Map<String, SerializedPage>)session.getAttribute(PAGE_SERIALIZED_ATTR);
+			if (existing != null)
+				return existing;
+			pages = new ConcurrentHashMap<String, SerializedPage>();
+			session.setAttribute(PAGE_SERIALIZED_ATTR, pages);
+		}
+		return pages;
+	}
+	
+	/**
+	 * Returns the page object cache of the given session (creates the cache if it doesn't exist yet). 
+	 */
+	private Map<String, Page> getPageCache(HttpSession session) {
+		@SuppressWarnings("unchecked")
+		Map<String, Page> pageCache = (Map<String, Page>)session.getAttribute(PAGE_OBJECT_CACHE_ATTR);
+		if (pageCache != null)
+			return pageCache;
+		
+		synchronized (pageCacheCreationLock) {
+			@SuppressWarnings("unchecked")
+			Map<String, Page> existing = (Map<String, Page>)session.getAttribute(PAGE_OBJECT_CACHE_ATTR);
+			if (existing != null)
+				return existing;
+			pageCache = new ConcurrentHashMap<String, Page>();
+			session.setAttribute(PAGE_OBJECT_CACHE_ATTR, pageCache);
+		}
+		return pageCache;
+	}
+	
+	/**
+	 * Returns the set of page URLs for which the given session holds private (modifiable) page objects. 
+	 */
+	private Set<String> getPrivateCopies(HttpSession session) {
+		@SuppressWarnings("unchecked")
+		Set<String> privateCopies = (Set<String>)session.getAttribute(PAGE_PRIVATE_COPIES_ATTR);
+		if (privateCopies != null)
+			return privateCopies;
+		
+		synchronized (pageCacheCreationLock) {
+			@SuppressWarnings("unchecked")
+			Set<String> existing = (Set<String>)session.getAttribute(PAGE_PRIVATE_COPIES_ATTR);
+			if (existing != null)
+				return existing;
+			privateCopies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			session.setAttribute(PAGE_PRIVATE_COPIES_ATTR, privateCopies);
+		}
+		return privateCopies;
+	}
+	
+	/**
+	 * Returns the spatial indexes for the page objects in the session cache of the given session (creates the map if it doesn't exist yet). 
+	 */
+	private Map<String, PageSpatialIndex> getSpatialIndexes(HttpSession session) {
+		@SuppressWarnings("unchecked")
+		Map<String, PageSpatialIndex> indexes = (Map<String, PageSpatialIndex>)session.getAttribute(PAGE_SPATIAL_INDEX_ATTR);
+		if (indexes != null)
+			return indexes;
+		
+		synchronized (pageCacheCreationLock) {
+			@SuppressWarnings("unchecked")
+			Map<String, PageSpatialIndex> existing = (Map<String, PageSpatialIndex>)session.getAttribute(PAGE_SPATIAL_INDEX_ATTR);
+			if (existing != null)
+				return existing;
+			indexes = new ConcurrentHashMap<String, PageSpatialIndex>();
+			session.setAttribute(PAGE_SPATIAL_INDEX_ATTR, indexes);
+		}
+		return indexes;
 	}
 	
+	/**
+	 * Returns the spatial index for the given page (builds the index if it doesn't exist or is outdated).
+	 * @param url Page URL (<code>null</code> for URL from session)
+	 */
+	private PageSpatialIndex getSpatialIndex(String url, Page page) {
+		PageSpatialIndex index = getExistingSpatialIndex(url, page);
+		if (index == null) {
+			HttpSession session = this.getThreadLocalRequest().getSession();
+			index = new PageSpatialIndex(page);
+			getSpatialIndexes(session).put(resolveUrl(session, url), index);
+		}
+		return index;
+	}
 	
+	/**
+	 * Returns the spatial index for the given page if it has been built already.
+	 * @param url Page URL (<code>null</code> for URL from session)
+	 * @return The index or <code>null</code>
+	 */
+	private PageSpatialIndex getExistingSpatialIndex(String url, Page page) {
+		HttpSession session = this.getThreadLocalRequest().getSession();
+		PageSpatialIndex index = getSpatialIndexes(session).get(resolveUrl(session, url));
+		if (index != null && index.getPage() == page)
+			return index;
+		return null;
+	}
 	
 	/**
-	 * Gets a page file from the session cache or loads it using the URL.
-	 * @throws RemoteException 
+	 * Removes the spatial index for the given page URL (the index will be rebuilt on next access).
+	 * @param url Page URL (<code>null</code> for URL from session)
 	 */
-	private synchronized Page getPageFile(String url) throws RemoteException {
-		
-		//Get session
-		HttpServletRequest request = this.getThreadLocalRequest();
-		HttpSession session = request.getSession();
-		
-		//If no URL is given, use the session attribute
+	private void invalidateSpatialIndex(String url) {
+		HttpSession session = this.getThreadLocalRequest().getSession();
+		getSpatialIndexes(session).remove(resolveUrl(session, url));
+	}
+	
+	/**
+	 * Returns the given URL or, if <code>null</code>, the page URL from the session attributes.
+	 */
+	private static String resolveUrl(HttpSession session, String url) {
 		if (url == null)
 			url = (String)session.getAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE);
-		
-		Page page = null;
-		
-		//Try to get it from the session first
-		@SuppressWarnings("unchecked")
-		Map<String, Page> pageCache = (Map<String, Page>)session.getAttribute(PAGE_OBJECT_CACHE_ATTR);
-		if (pageCache == null) {
-			pageCache = new HashMap<String, Page>();
-			session.setAttribute(PAGE_OBJECT_CACHE_ATTR, pageCache);
-		}
-		
-		page = pageCache.get(url);
-		
-		//Not in cache? -> Load it now
-		if (page == null) {
-		
-			try {
-				XmlPageReader reader = PageXmlInputOutput.getReader();
-				
-				String uidParam = "Uid="+(String)session.getAttribute(SessionAttributes.USER_ID);
-				
-				URL getAttachmentUrl = null;
-				if (!"demo".equals(url))
-					getAttachmentUrl = new URL(url + (url.contains("?") ? ("&"+uidParam) : ("?"+uidParam)));
-				else {
-					//Demo mode
-					getAttachmentUrl = this.getClass().getResource("/org/primaresearch/web/aletheia/res/demo.xml");
-					giveDemoPermissions();
-					//For security, we better remove all other cached documents
-					pageCache.clear();
-				}
-				System.out.println("Get PAGE file: "+getAttachmentUrl);
-				
-				page = reader.read(new UrlInput(getAttachmentUrl));
-				//page = XmlInputOutput.readPage("C:\\junit\\page.xml");
-				
-				//Put it in the cache
-				if (page != null) {
-					page.setFormatVersion(PageXmlInputOutput.getLatestSchemaModel());
-					pageCache.put(url, page);
-				}
-				else { //Error
-					List<IOError> errors = reader.getErrors();
-					String errmsg = "";
-					for (int i=0; i<errors.size(); i++) 
-						errmsg += errors.get(i).getMessage() + "\n";
-					throw new RemoteException(errmsg);
-				}
-				
-			} catch (MalformedURLException e) {
-				e.printStackTrace();
-				String errmsg = "Error loading XML file: \n";
-				errmsg += e.getMessage() + "\n";
-				throw new RemoteException(errmsg);
-			} catch (UnsupportedFormatVersionException e) {
-				e.printStackTrace();
-				String errmsg = "Error loading XML file: \n";
-				errmsg += e.getMessage() + "\n";
-				throw new RemoteException(errmsg);
-			} catch (Exception e) {
-				e.printStackTrace();
-				String errmsg = "Error loading XML file: \n";
-				errmsg += e.getMessage() + "\n";
-				throw new RemoteException(errmsg);
-			}
+		return url != null ? url : "";
+	}
+	
+	/**
+	 * Returns the lock to be used when loading the page file with the given URL in the given session.
+	 */
+	Object getPageLock(HttpSession session, String url) {
+		return getPageLock(session.getId(), url);
+	}
+	
+	/**
+	 * Returns the lock to be used when loading the page file with the given URL in the session with the given ID.
+	 */
+	private Object getPageLock(String sessionId, String url) {
+		int hash = sessionId.hashCode() * 31 + (url != null ? url.hashCode() : 0);
+		return pageLocks[(hash & 0x7fffffff) % pageLocks.length];
+	}
+	
+	/**
+	 * Writes the given page of a session to PAGE XML (latest format) while holding the page lock
+	 * (no modification can be applied at the same time).
+	 * @return The XML data or <code>null</code> if the page is not valid
+	 */
+	private byte[] serializePage(String sessionId, String url, Page page) {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		synchronized (getPageLock(sessionId, url)) {
+			XmlPageWriter writer = PageXmlInputOutput.getWriterForLastestXmlFormat();
+			if (!writer.write(page, new StreamTarget(outputStream)))
+				return null;
 		}
-		
-		return page;
+		return outputStream.toByteArray();
+	}
+	
+	/**
+	 * Returns the lock that all modifications of the given page in the current session have to hold
+	 * (the same lock is used for loading the page).
+	 * @param url Page URL (<code>null</code> for URL from session)
+	 */
+	private Object getEditLock(String url) {
+		HttpSession session = this.getThreadLocalRequest().getSession();
+		return getPageLock(session, resolveUrl(session, url));
+	}
+	
+	private static Object[] createLocks(int count) {
+		Object[] locks = new Object[count];
+		for (int i=0; i<count; i++)
+			locks[i] = new Object();
+		return locks;
 	}
 	
-	private void giveDemoPermissions() {
+	private void giveDemoPermissions(HttpSession session) {
 		try {
-			HttpServletRequest request = this.getThreadLocalRequest();
-			HttpSession session = request.getSession();
 			Permissions permissions = new Permissions();
 			
 			DefaultPermissionNames.giveDemoPermissions(permissions);
 			
 			session.setAttribute(SessionAttributes.PERMISSIONS, permissions);
+			requestPermissions.remove();
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		}
@@ -583,9 +1407,13 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 	 */
 	private boolean isPermitted(String permissionName) {
 		try {
-			HttpServletRequest request = this.getThreadLocalRequest();
-			HttpSession session = request.getSession();
-			Permissions permissions = (Permissions)session.getAttribute(SessionAttributes.PERMISSIONS);
+			Permissions permissions = requestPermissions.get();
+			if (permissions == null) {
+				HttpServletRequest request = this.getThreadLocalRequest();
+				HttpSession session = request.getSession();
+				permissions = (Permissions)session.getAttribute(SessionAttributes.PERMISSIONS);
+				requestPermissions.set(permissions);
+			}
 			
 			return permissions.isPermitted(permissionName);
 		} catch (Exception exc) {
@@ -606,74 +1434,78 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		if (!isPermitted(DefaultPermissionNames.Edit))
 			throw new RemoteException("Not permitted: "+DefaultPermissionNames.Edit);
 
-		Page page = getPageFile(url);
+		Page page = getPageFileForEditing(url);
 		
 		if (page == null) //No page object in cache
 			return null;
 		
-		PageLayout layout = page.getLayout();
-		
-		//Create a new page object
-		ContentObject newObject = null;
-		Polygon polygon = object.getCoords();
-		int xCenter = (polygon.getBoundingBox().left + polygon.getBoundingBox().right)/2;
-		int yCenter = (polygon.getBoundingBox().top + polygon.getBoundingBox().bottom)/2;
-		// Region
-		if (object.getType() instanceof RegionType) {
-			newObject = layout.createRegion((RegionType)object.getType());
+		synchronized (getEditLock(url)) {
+			PageLayout layout = page.getLayout();
+			PageSpatialIndex spatialIndex = getSpatialIndex(url, page);
+		
+			//Create a new page object
+			ContentObject newObject = null;
+			Polygon polygon = object.getCoords();
+			int xCenter = (polygon.getBoundingBox().left + polygon.getBoundingBox().right)/2;
+			int yCenter = (polygon.getBoundingBox().top + polygon.getBoundingBox().bottom)/2;
+			// Region
+			if (object.getType() instanceof RegionType) {
+				newObject = layout.createRegion((RegionType)object.getType());
 			
-			//Sub-type
-			VariableMap attrs = object.getAttributes();
-			if (attrs != null) {
-				Variable attr = attrs.get("type");
-				if (attr != null && attr.getValue() != null) {
-					String val = attr.getValue().toString();
-					if (!"".equals(val)) {
-						VariableMap newAttrs = newObject.getAttributes();
-						if (newAttrs != null) {
-							Variable newAttr = newAttrs.get("type");
-							if (newAttr != null) {
-								try {
-									newAttr.setValue(attr.getValue());
-								} catch (Exception e) {
-									e.printStackTrace();
+				//Sub-type
+				VariableMap attrs = object.getAttributes();
+				if (attrs != null) {
+					Variable attr = attrs.get("type");
+					if (attr != null && attr.getValue() != null) {
+						String val = attr.getValue().toString();
+						if (!"".equals(val)) {
+							VariableMap newAttrs = newObject.getAttributes();
+							if (newAttrs != null) {
+								Variable newAttr = newAttrs.get("type");
+								if (newAttr != null) {
+									try {
+										newAttr.setValue(attr.getValue());
+									} catch (Exception e) {
+										e.printStackTrace();
+									}
 								}
 							}
 						}
 					}
 				}
 			}
-		}
-		//Text Line
-		else if (LowLevelTextType.TextLine.equals(object.getType())) {
-			Region parent = layout.getRegionAt(xCenter, yCenter);
-			if (parent != null && parent instanceof TextRegion)
-				newObject = ((TextRegion)parent).createTextLine();
-		}
-		//Word
-		else if (LowLevelTextType.Word.equals(object.getType())) {
-			ContentObject parent = layout.getObjectAt(xCenter, yCenter, LowLevelTextType.TextLine);
-			if (parent != null && parent instanceof TextLine)
-				newObject = ((TextLine)parent).createWord();
-		}
-		//Glyph
-		else if (LowLevelTextType.Glyph.equals(object.getType())) {
-			ContentObject parent = layout.getObjectAt(xCenter, yCenter, LowLevelTextType.Word);
-			if (parent != null && parent instanceof Word)
-				newObject = ((Word)parent).createGlyph();
-		}
+			//Text Line
+			else if (LowLevelTextType.TextLine.equals(object.getType())) {
+				Region parent = spatialIndex.getRegionAt(xCenter, yCenter);
+				if (parent != null && parent instanceof TextRegion)
+					newObject = ((TextRegion)parent).createTextLine();
+			}
+			//Word
+			else if (LowLevelTextType.Word.equals(object.getType())) {
+				ContentObject parent = spatialIndex.getObjectAt(xCenter, yCenter, LowLevelTextType.TextLine);
+				if (parent != null && parent instanceof TextLine)
+					newObject = ((TextLine)parent).createWord();
+			}
+			//Glyph
+			else if (LowLevelTextType.Glyph.equals(object.getType())) {
+				ContentObject parent = spatialIndex.getObjectAt(xCenter, yCenter, LowLevelTextType.Word);
+				if (parent != null && parent instanceof Word)
+					newObject = ((Word)parent).createGlyph();
+			}
 		
-		//Copy content
-		String oldId = object.getId();
-		if (newObject != null) {
-			newObject.setCoords(object.getCoords());
+			//Copy content
+			String oldId = object.getId();
+			if (newObject != null) {
+				newObject.setCoords(object.getCoords());
+				spatialIndex.add(newObject);
 			
-			object.setId(newObject.getId().toString());
-			object.setAttributes(newObject.getAttributes());
+				object.setId(newObject.getId().toString());
+				object.setAttributes(newObject.getAttributes());
 			
-			return new ContentObjectSync(oldId, object);
-		} else {
-			return new ContentObjectSync(oldId, null);
+				return new ContentObjectSync(oldId, object);
+			} else {
+				return new ContentObjectSync(oldId, null);
+			}
 		}
 	}
 	
@@ -683,11 +1515,21 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		if (!isPermitted(DefaultPermissionNames.Edit))
 			throw new RemoteException("Not permitted: "+DefaultPermissionNames.Edit);
 
-		Page page = getPageFile(url);
+		Page page = getPageFileForEditing(url);
 		
 		if (page == null) //No page object in cache
 			return false;
 		
+		synchronized (getEditLock(url)) {
+			return applyOutline(url, page, type, contentObjectId, outline);
+		}
+	}
+	
+	/**
+	 * Sets the outline of the specified page content object. 
+	 * @return <code>true</code> if successful
+	 */
+	private boolean applyOutline(String url, Page page, ContentType type, String contentObjectId, Polygon outline) {
 		ContentObject obj = page.getLayout().getObject(type, contentObjectId);
 		
 		if (obj == null)
@@ -695,6 +1537,10 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 
 		obj.setCoords(outline);
 		
+		PageSpatialIndex spatialIndex = getExistingSpatialIndex(url, page);
+		if (spatialIndex != null)
+			spatialIndex.update(obj);
+		
 		return true;
 	}
 	
@@ -704,16 +1550,31 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		if (!isPermitted(DefaultPermissionNames.Edit))
 			throw new RemoteException("Not permitted: "+DefaultPermissionNames.Edit);
 
-		Page page = getPageFile(url);
+		Page page = getPageFileForEditing(url);
 		
 		if (page == null) //No page object in cache
 			return false;
 		
+		synchronized (getEditLock(url)) {
+			return applyDelete(url, page, type, contentObjectId);
+		}
+	}
+	
+	/**
+	 * Removes the specified page content object from the page layout. 
+	 * @return <code>true</code> if successful
+	 */
+	private boolean applyDelete(String url, Page page, ContentType type, String contentObjectId) {
 		ContentObject obj = page.getLayout().getObject(type, contentObjectId);
 		
 		if (obj == null)
 			return false;
 
+		//Update spatial index (before the object is detached from its parent)
+		PageSpatialIndex spatialIndex = getExistingSpatialIndex(url, page);
+		if (spatialIndex != null)
+			spatialIndex.remove(obj);
+
 		if (obj.getType() instanceof RegionType) 
 			page.getLayout().removeRegion(obj.getId());
 		else if (obj instanceof LowLevelTextObject) {
@@ -726,6 +1587,111 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		return true;		
 	}
 	
+	@Override
+	public ArrayList<Boolean> applyEdits(String url, ArrayList<EditOperation> operations) throws RemoteException {
+		
+		if (!isPermitted(DefaultPermissionNames.Edit))
+			throw new RemoteException("Not permitted: "+DefaultPermissionNames.Edit);
+		
+		ArrayList<Boolean> results = new ArrayList<Boolean>(operations != null ? operations.size() : 0);
+		if (operations == null || operations.isEmpty())
+			return results;
+
+		Page page = getPageFileForEditing(url);
+		
+		synchronized (getEditLock(url)) {
+			//Check all operations first (invalid operations are skipped, the others are applied)
+			boolean[] valid = new boolean[operations.size()];
+			Set<String> deleted = new HashSet<String>();
+			for (int i=0; i<operations.size(); i++)
+				valid[i] = page != null && isValidEdit(page, operations.get(i), deleted);
+			
+			//Apply the modifications (deletions last; the checks ensure that no valid operation refers to a deleted object).
+			//Only setting an attribute value can still fail (invalid value). In that case the operation is undone.
+			for (int i=0; i<operations.size(); i++) {
+				EditOperation op = operations.get(i);
+				if (!valid[i] || op.operation == EditOperation.TYPE_Delete)
+					continue;
+				ContentObject obj = page.getLayout().getObject(op.contentType, op.contentObjectId);
+				Object previousValue = null;
+				boolean success = false;
+				try {
+					if (op.operation == EditOperation.TYPE_TextContent) {
+						previousValue = ((TextObject)obj).getText();
+						success = applyTextContent(page, op.contentType, op.contentObjectId, op.text);
+					}
+					else if (op.operation == EditOperation.TYPE_Attribute) {
+						previousValue = obj.getAttributes().get(op.attribute.getName()).getValue();
+						success = applyAttributeValue(page, op.contentType, op.contentObjectId, op.attribute);
+					}
+					else if (op.operation == EditOperation.TYPE_Outline) {
+						previousValue = obj.getCoords();
+						success = applyOutline(url, page, op.contentType, op.contentObjectId, op.outline);
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				if (!success) {
+					undoEdit(url, page, op, previousValue);
+					valid[i] = false;
+				}
+			}
+			for (int i=0; i<operations.size(); i++) {
+				EditOperation op = operations.get(i);
+				if (valid[i] && op.operation == EditOperation.TYPE_Delete)
+					valid[i] = applyDelete(url, page, op.contentType, op.contentObjectId);
+				results.add(valid[i]);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Restores the state of the modified object before the given operation.
+	 * @param previousValue Text, attribute value or outline before the modification
+	 */
+	private void undoEdit(String url, Page page, EditOperation op, Object previousValue) {
+		try {
+			if (op.operation == EditOperation.TYPE_TextContent)
+				applyTextContent(page, op.contentType, op.contentObjectId, (String)previousValue);
+			else if (op.operation == EditOperation.TYPE_Attribute) {
+				ContentObject obj = page.getLayout().getObject(op.contentType, op.contentObjectId);
+				obj.getAttributes().get(op.attribute.getName()).setValue((VariableValue)previousValue);
+			}
+			else if (op.operation == EditOperation.TYPE_Outline && previousValue != null)
+				applyOutline(url, page, op.contentType, op.contentObjectId, (Polygon)previousValue);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Checks if the given edit operation can be applied (without changing the page).
+	 * @param deleted IDs of the objects deleted by the preceding operations of the batch (delete operations add to the set)
+	 */
+	private boolean isValidEdit(Page page, EditOperation op, Set<String> deleted) {
+		ContentObject obj = page.getLayout().getObject(op.contentType, op.contentObjectId);
+		if (obj == null || deleted.contains(op.contentObjectId))
+			return false;
+		if (op.operation == EditOperation.TYPE_TextContent)
+			return obj instanceof TextObject;
+		if (op.operation == EditOperation.TYPE_Attribute)
+			return op.attribute != null && obj.getAttributes() != null && obj.getAttributes().get(op.attribute.getName()) != null;
+		if (op.operation == EditOperation.TYPE_Outline)
+			return op.outline != null;
+		if (op.operation == EditOperation.TYPE_Delete) {
+			deleted.add(op.contentObjectId);
+			//Child objects are deleted as well
+			if (obj instanceof LowLevelTextContainer) {
+				ArrayList<String> children = new ArrayList<String>();
+				collectChildObjectIds((LowLevelTextContainer)obj, children);
+				deleted.addAll(children);
+			}
+			return true;
+		}
+		return false;
+	}
+	
 	@Override
 	public Boolean save(String url) throws RemoteException {
 		if (!isPermitted(DefaultPermissionNames.Save))
@@ -739,6 +1705,9 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		//Get session
 		HttpServletRequest request = this.getThreadLocalRequest();
 		HttpSession session = request.getSession();
+		
+		if (url == null)
+			url = (String)session.getAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE);
 
 		String soapServiceUrl = (String)session.getAttribute(SessionAttributes.SOAP_SERVICE);
 		String uid = (String)session.getAttribute(SessionAttributes.USER_ID);
@@ -747,20 +1716,18 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		//Create PAGE XML
 		//byte[] xmlData = null;
 		String xmlData = null;
+		long version = getPageVersion(session, url);
 		try {
-			PageWriter pageWriter = null; 
-			pageWriter = PageXmlInputOutput.getWriterForLastestXmlFormat();
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			StreamTarget outputTarget = new StreamTarget(outputStream);
-			
-			//No validation!!!:
-			//pageWriter = new XmlPageWriter_2010_03_19(null);
-			
-			if (!pageWriter.write(page, outputTarget))
+			//Serialize while holding the page lock (modifications can run in parallel requests)
+			byte[] xml = serializePage(session.getId(), url, page);
+			if (xml == null)
 				throw new RemoteException("XML file not valid.");
 			
-			//xmlData = outputStream.toByteArray();
-			xmlData = outputStream.toString();
+			xmlData = new String(xml);
+			
+			//Keep for downloads
+			if (downloadCacheEnabled && getPageVersion(session, url) == version)
+				getSerializedPages(session).put(url, new SerializedPage(page, version, xml));
 		} catch (Exception exc) {
 			exc.printStackTrace();
 			throw new RemoteException("Could not create PAGE XML file.");
@@ -824,13 +1791,12 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 								session.setAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE, attachmentSource);
 								
 								//Save as new entry in map and remove the old entry
-								@SuppressWarnings("unchecked")
-								Map<String, Page> pageCache = (Map<String, Page>)session.getAttribute(PAGE_OBJECT_CACHE_ATTR);
-								if (pageCache == null) {
-									pageCache = new HashMap<String, Page>();
-								}
+								Map<String, Page> pageCache = getPageCache(session);
 								pageCache.put(attachmentSource, page);
-								pageCache.remove(oldAttachmentId);
+								if (url != null && getPrivateCopies(session).contains(url))
+									getPrivateCopies(session).add(attachmentSource);
+								if (oldAttachmentId != null)
+									pageCache.remove(oldAttachmentId);
 								break;
 							}
 							sourceNode = sourceNode.getNextSibling();
@@ -851,50 +1817,246 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		return true;		
 	}
 	
+	/**
+	 * Saves all PAGE XML files specified in the METS file (waits until the export job has finished).
+	 */
 	@Override
 	public Boolean savetMultiplePagesLocally(String metsFileUrl, String folderName) throws RemoteException {
-		//Get temp dir
-		//String tempDir = System.getProperty("java.io.tmpdir");
-		//if (tempDir == null)
-		//	throw new RemoteException("Could not retrieve temp directory.");
-		
-		//String targetBaseDir = "/var/www/crowdPrototype";
-		String targetBaseDir = "/media/netstor/wwwroot/tomcat/crowdPrototype";
-		
-		//Create target folder
-		File targetFolder = new File(targetBaseDir + File.separator + folderName);
-		if (!targetFolder.exists()) {
-			if (!targetFolder.mkdir())
-				throw new RemoteException("Could not create target directory: "+folderName);
+		HttpSession session = this.getThreadLocalRequest().getSession();
+		File targetFolder = getExportFolder(folderName);
+		ExportProgress progress = new ExportProgress(UUID.randomUUID().toString());
+		runExport(createDetachedPageLoader(session), metsFileUrl, targetFolder, progress);
+		if (progress.errorMessage != null)
+			throw new RemoteException(progress.errorMessage);
+		return true;
+	}
+	
+	/**
+	 * Starts an export job that saves all PAGE XML files specified in the METS file in a sub-folder of the export directory.
+	 * The folder gets its final name only after all files have been written.<br>
+	 * Everything the job needs from the session is copied before the job starts (the job may outlive the session).
+	 * @return Job ID (see {@link #getExportProgress(String)})
+	 */
+	@Override
+	public String startMultiPageExport(final String metsFileUrl, String folderName) throws RemoteException {
+		HttpSession session = this.getThreadLocalRequest().getSession();
+		final File targetFolder = getExportFolder(folderName);
+		final PageLoader loader = createDetachedPageLoader(session);
+		
+		final Map<String, ExportJob> jobs = getExportJobs(session);
+		pruneExportJobs(jobs);
+		final ExportJob job = new ExportJob(new ExportProgress(UUID.randomUUID().toString()));
+		jobs.put(job.progress.jobId, job);
+		
+		try {
+			getExportExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runExport(loader, metsFileUrl, targetFolder, job.progress);
+					} finally {
+						job.finishedTime = System.currentTimeMillis();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.progress.jobId);
+			throw new RemoteException("Too many export jobs. Please try again later.");
 		}
 		
-		//Save PAGE XML files
-		MetsMultiPageReader metsReader = new MetsMultiPageReader();
+		return job.progress.jobId;
+	}
+	
+	/**
+	 * Returns the progress of the given export job of the current session.
+	 * A finished job is removed once its final progress has been returned.
+	 * @return Progress snapshot or <code>null</code> if the job doesn't exist
+	 */
+	@Override
+	public ExportProgress getExportProgress(String jobId) throws RemoteException {
+		HttpSession session = this.getThreadLocalRequest().getSession();
+		Map<String, ExportJob> jobs = getExportJobs(session);
+		pruneExportJobs(jobs);
+		ExportJob job = jobs.get(jobId);
+		if (job == null)
+			return null;
+		ExportProgress progress;
+		synchronized (job.progress) {
+			progress = job.progress.copy();
+		}
+		if (progress.finished) //Collected
+			jobs.remove(jobId);
+		return progress;
+	}
+	
+	/**
+	 * Removes finished jobs that have not been collected within the retention time.
+	 */
+	private void pruneExportJobs(Map<String, ExportJob> jobs) {
+		long now = System.currentTimeMillis();
+		for (Iterator<ExportJob> it = jobs.values().iterator(); it.hasNext(); ) {
+			ExportJob job = it.next();
+			if (job.finishedTime > 0L && now - job.finishedTime > EXPORT_JOB_RETENTION_TIME)
+				it.remove();
+		}
+	}
+	
+	/**
+	 * Returns (creates if necessary) the executor for export jobs (bounded number of threads and waiting jobs).
+	 */
+	private ExecutorService getExportExecutor() {
+		synchronized (exportExecutorLock) {
+			if (exportExecutor == null) {
+				final AtomicInteger threadCount = new AtomicInteger();
+				ThreadPoolExecutor executor = new ThreadPoolExecutor(exportThreads, exportThreads, 
+						60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueuedExports), 
+						new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, "PageExport-" + threadCount.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							}
+						}, new ThreadPoolExecutor.AbortPolicy());
+				executor.allowCoreThreadTimeOut(true);
+				exportExecutor = executor;
+			}
+			return exportExecutor;
+		}
+	}
+	
+	/**
+	 * Creates a page loader that doesn't access the given session after it has been created (for background jobs).
+	 * Pages in the session cache (including unsaved changes) are taken from a snapshot of the cache.
+	 * Pages that can be modified by the session are copied while holding the page lock (the user can
+	 * continue editing). All other pages are loaded via the shared page cache on behalf of the session user.
+	 */
+	private PageLoader createDetachedPageLoader(HttpSession session) {
+		final Map<String, Page> sessionPages = new HashMap<String, Page>(getPageCache(session));
+		final Set<String> privateCopies = new HashSet<String>(getPrivateCopies(session));
+		final String sessionId = session.getId();
+		final String userId = (String)session.getAttribute(SessionAttributes.USER_ID);
+		return new PageLoader() {
+			@Override
+			public Page load(String url) throws RemoteException {
+				Page page = sessionPages.get(url);
+				if (page != null && !privateCopies.contains(url))
+					return page; //Shared snapshot (not modified)
+				try {
+					if (page != null) {
+						byte[] data = serializePage(sessionId, url, page);
+						if (data == null)
+							throw new RemoteException("XML file not valid: "+url);
+						return SharedPageCache.readPage(data);
+					}
+					return SharedPageCache.getInstance().getPage(url, createAttachmentUrl(url, userId));
+				} catch (Exception e) {
+					e.printStackTrace();
+					throw new RemoteException("Error loading XML file: \n" + e.getMessage() + "\n");
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Exports all pages of the given METS file to a temporary folder (in parallel) and renames the folder when done.
+	 * Errors are recorded in the progress object.
+	 */
+	private void runExport(PageLoader loader, String metsFileUrl, File targetFolder, final ExportProgress progress) {
+		File tempFolder = new File(targetFolder.getParentFile(), targetFolder.getName() + EXPORT_TEMP_SUFFIX);
 		try {
-			List<String> pageFileNames = metsReader.read(new UrlInput(new URL(metsFileUrl)));
+			List<String> pageUrls = getMetsPageUrls(metsFileUrl);
+			if (pageUrls == null)
+				throw new RemoteException("Invalid METS file URL: "+metsFileUrl);
+			synchronized (progress) {
+				progress.pageCount = pageUrls.size();
+			}
 			
-			String urlBase = metsFileUrl.substring(0, metsFileUrl.lastIndexOf("/")+1);
+			if (!tempFolder.isDirectory() && !tempFolder.mkdirs())
+				throw new RemoteException("Could not create target directory: "+targetFolder.getName());
 			
-			for (int i=0; i<pageFileNames.size(); i++) {
-				String pageFileName = pageFileNames.get(i);
-				
-				//Create page URL
-				String pageUrl = urlBase + pageFileName;
-
-				//Get file
-				Page page = getPageFile(pageUrl);
-				
-				//Save file
-				String filename = pageUrl.substring(pageUrl.lastIndexOf("/"));
-				String location = targetFolder.getPath() + File.separator + filename;
-				PageXmlInputOutput.writePage(page, location);
+			final File folder = tempFolder;
+			processPages(loader, pageUrls, new PageProcessor<Boolean>() {
+				@Override
+				public Boolean process(String url, Page page) throws Exception {
+					if (page == null)
+						throw new RemoteException("Could not load "+url);
+					String filename = url.substring(url.lastIndexOf("/")+1);
+					int paramPos = filename.indexOf('?');
+					if (paramPos >= 0)
+						filename = filename.substring(0, paramPos);
+					PageXmlInputOutput.writePage(page, new File(folder, filename).getPath());
+					synchronized (progress) {
+						progress.savedPageCount++;
+					}
+					return true;
+				}
+			});
+			
+			//Complete -> Final name
+			if (targetFolder.exists() && !deleteFolder(targetFolder))
+				throw new RemoteException("Could not replace existing directory: "+targetFolder.getName());
+			if (!tempFolder.renameTo(targetFolder))
+				throw new RemoteException("Could not rename export directory: "+tempFolder.getName());
+			
+			synchronized (progress) {
+				progress.finished = true;
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
-			throw new RemoteException("Could not save PAGE XML files: "+e.getMessage());
+			deleteFolder(tempFolder);
+			synchronized (progress) {
+				progress.errorMessage = "Could not save PAGE XML files: "+e.getMessage();
+				progress.finished = true;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the target folder for an export (sub-folder of the export directory).
+	 * @param folderName Simple folder name (no path)
+	 */
+	private File getExportFolder(String folderName) throws RemoteException {
+		if (exportDir == null)
+			throw new RemoteException("No export directory configured.");
+		if (folderName == null || folderName.isEmpty() || folderName.contains("/") || folderName.contains("\\") 
+				|| folderName.startsWith(".") || folderName.endsWith(EXPORT_TEMP_SUFFIX))
+			throw new RemoteException("Invalid folder name: "+folderName);
+		if (!exportDir.isDirectory() && !exportDir.mkdirs())
+			throw new RemoteException("Could not create export directory.");
+		return new File(exportDir, folderName);
+	}
+	
+	/**
+	 * Deletes the given folder including the contained files (no sub-folders expected).
+	 */
+	private static boolean deleteFolder(File folder) {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (int i=0; i<files.length; i++)
+				files[i].delete();
 		}
+		return folder.delete() || !folder.exists();
+	}
+	
+	/**
+	 * Returns the export jobs of the given session (creates the map if it doesn't exist yet). 
+	 */
+	private Map<String, ExportJob> getExportJobs(HttpSession session) {
+		@SuppressWarnings("unchecked")
+		Map<String, ExportJob> jobs = (Map<String, ExportJob>)session.getAttribute(EXPORT_JOBS_ATTR);
+		if (jobs != null)
+			return jobs;
 		
-		return true;
+		synchronized (pageCacheCreationLock) {
+			@SuppressWarnings("unchecked")
+			Map<String, ExportJob> existing = (Map<String, ExportJob>)session.getAttribute(EXPORT_JOBS_ATTR);
+			if (existing != null)
+				return existing;
+			jobs = new ConcurrentHashMap<String, ExportJob>();
+			session.setAttribute(EXPORT_JOBS_ATTR, jobs);
+		}
+		return jobs;
 	}
 
 	@Override
@@ -905,50 +2067,49 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		if (!isPermitted(DefaultPermissionNames.Edit))
 			throw new RemoteException("Not permitted: "+DefaultPermissionNames.Edit);
 
-		Page page = getPageFile(url);
+		Page page = getPageFileForEditing(url);
 		
 		if (page == null) //No page object in cache
 			return null;
 		
-		ContentObject obj = page.getLayout().getObject(oldType, contentObjectId);
+		synchronized (getEditLock(url)) {
+			ContentObject obj = page.getLayout().getObject(oldType, contentObjectId);
 		
-		if (obj == null)
-			return null;
+			if (obj == null)
+				return null;
 
-		//Children to delete?
-		ArrayList<String> toDelete = new ArrayList<String>();
-		if (RegionType.TextRegion.equals(oldType) && !RegionType.TextRegion.equals(newType)) {
-			collectChildObjectIds((LowLevelTextContainer)obj, toDelete);
-		}
-		
-		//Change type
-		ContentObject changed = page.getLayout().changeTypeOfRegion(obj, newType);
+			//Children to delete?
+			ArrayList<String> toDelete = new ArrayList<String>();
+			if (RegionType.TextRegion.equals(oldType) && !RegionType.TextRegion.equals(newType)) {
+				collectChildObjectIds((LowLevelTextContainer)obj, toDelete);
+			}
 		
-		//Update sub-type
-		if (newSubType != null && !("".equals(newSubType))) {
-			VariableMap attrs = changed.getAttributes();
-			if (attrs != null) {
-				Variable attr = attrs.get("type");
-				if (attr != null) {
-					try {
-						attr.setValue(new StringValue(newSubType));
-					} catch (Exception e) {
-						e.printStackTrace();
+			//Change type
+			ContentObject changed = page.getLayout().changeTypeOfRegion(obj, newType);
+		
+			//The region object has been replaced -> Rebuild spatial index on next access
+			invalidateSpatialIndex(url);
+		
+			//Update sub-type
+			if (newSubType != null && !("".equals(newSubType))) {
+				VariableMap attrs = changed.getAttributes();
+				if (attrs != null) {
+					Variable attr = attrs.get("type");
+					if (attr != null) {
+						try {
+							attr.setValue(new StringValue(newSubType));
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
 					}
 				}
 			}
-		}
 
-		//Create ContentObjectC
-		Polygon polygon = changed.getCoords();
-		String id = changed.getId().toString();
-		ContentObjectC syncObj = new ContentObjectC(polygon, id);
-		syncObj.setType(changed.getType());
-		syncObj.setAttributes(changed.getAttributes());
-		if (changed instanceof TextObject)
-			syncObj.setText(((TextObject)changed).getText());
+			//Create ContentObjectC
+			ContentObjectC syncObj = createContentObjectC(changed, changed.getType());
 		
-		return new Pair<ContentObjectC, ArrayList<String>>(syncObj, toDelete);
+			return new Pair<ContentObjectC, ArrayList<String>>(syncObj, toDelete);
+		}
 	}
 	
 	private void collectChildObjectIds(LowLevelTextContainer parent, ArrayList<String> list) {
@@ -978,15 +2139,15 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 			url = (String)session.getAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE);
 
 		//Try to get it from the session first
-		@SuppressWarnings("unchecked")
-		Map<String, Page> pageCache = (Map<String, Page>)session.getAttribute(PAGE_OBJECT_CACHE_ATTR);
-		if (pageCache == null) {
-			pageCache = new HashMap<String, Page>();
-			session.setAttribute(PAGE_OBJECT_CACHE_ATTR, pageCache);
+		Map<String, Page> pageCache = getPageCache(session);
+		
+		//Remove from cache (the next access uses the shared snapshot again)
+		if (url != null) {
+			pageCache.remove(url);
+			getPrivateCopies(session).remove(url);
+			getSpatialIndexes(session).remove(url);
+			getSerializedPages(session).remove(url);
 		}
-		
-		//Remove from cache
-		pageCache.remove(url);
 
 		return true;
 	}
@@ -1053,4 +2214,66 @@ public class DocumentPageSyncServiceImpl extends RemoteServiceServlet implements
 		return null;
 	}
 
+	
+	/**
+	 * Export job of a session (progress and time of completion).
+	 */
+	private static class ExportJob {
+		private final ExportProgress progress;
+		/** Time the job has finished (0 while running) */
+		private volatile long finishedTime = 0L;
+		
+		public ExportJob(ExportProgress progress) {
+			this.progress = progress;
+		}
+	}
+	
+	/**
+	 * Serialized PAGE XML of a page object (with compressed variants created on demand).
+	 *
+	 * @author Christian Clausner
+	 *
+	 */
+	private static class SerializedPage {
+		private final Page page;
+		private final long version;
+		private final byte[] xml;
+		private volatile byte[] gzipped = null;
+		private volatile byte[] deflated = null;
+		
+		public SerializedPage(Page page, long version, byte[] xml) {
+			this.page = page;
+			this.version = version;
+			this.xml = xml;
+		}
+		
+		/**
+		 * Returns the XML data
+		 * @param encoding Content encoding ('gzip', 'deflate' or <code>null</code>)
+		 */
+		public byte[] getData(String encoding) throws IOException {
+			if ("gzip".equals(encoding)) {
+				if (gzipped == null) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length / 4);
+					GZIPOutputStream gzip = new GZIPOutputStream(out);
+					gzip.write(xml);
+					gzip.close();
+					gzipped = out.toByteArray();
+				}
+				return gzipped;
+			}
+			if ("deflate".equals(encoding)) {
+				if (deflated == null) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length / 4);
+					DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+					deflater.write(xml);
+					deflater.close();
+					deflated = out.toByteArray();
+				}
+				return deflated;
+			}
+			return xml;
+		}
+	}
+	
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Multi-resolution tile pyramid of a document image, cached on disk.<br>
+ * <br>
+ * Level 0 has the original resolution, each further level half the width and height of the previous one.
+ * The last level fits into a single tile. All levels are cut into square tiles (the tiles at the right
+ * and bottom border can be smaller). Bitonal images and images with transparency are stored as PNG, all
+ * others as JPEG.<br>
+ * The pyramid is built on first access (see {@link #build()}) and reused as long as the cache folder exists.
+ *
+ * @author Christian Clausner
+ *
+ */
+public class ImagePyramid {
+
+	private static final String INFO_FILE = "pyramid.properties";
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 60000;
+
+	private final String imageUrl;
+	private final File folder;
+	private final int tileSize;
+	private int width = 0;
+	private int height = 0;
+	private int levelCount = 0;
+	private volatile boolean built = false;
+
+	/**
+	 * Constructor
+	 * @param imageUrl Source image
+	 * @param cacheFolder Base folder for cached pyramids (a sub-folder per image is used)
+	 * @param tileSize Edge length of the tiles
+	 */
+	public ImagePyramid(String imageUrl, File cacheFolder, int tileSize) {
+		this.imageUrl = imageUrl;
+		this.folder = new File(cacheFolder, getCacheKey(imageUrl) + "_" + tileSize);
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Builds the pyramid (if not done yet). Reads the source image and writes all tiles to the cache folder.
+	 * @throws IOException Source image could not be read or tiles could not be written
+	 */
+	public synchronized void build() throws IOException {
+		if (built)
+			return;
+		if (readInfo()) { //Cached from previous build
+			built = true;
+			return;
+		}
+
+		BufferedImage image = normalize(readImage(imageUrl));
+		width = image.getWidth();
+		height = image.getHeight();
+
+		if (!folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("Could not create tile cache folder: " + folder.getAbsolutePath());
+
+		int level = 0;
+		BufferedImage levelImage = image;
+		while (true) {
+			writeTiles(levelImage, level);
+			if (levelImage.getWidth() <= tileSize && levelImage.getHeight() <= tileSize)
+				break;
+			levelImage = halve(levelImage);
+			level++;
+		}
+		levelCount = level + 1;
+
+		writeInfo(); //Last (marks the pyramid as complete)
+		built = true;
+	}
+
+	/**
+	 * Returns the tile file for the given level and tile position.
+	 * @return The file or <code>null</code> if the tile does not exist
+	 */
+	public File getTile(int level, int x, int y) {
+		if (level < 0 || level >= levelCount || x < 0 || y < 0)
+			return null;
+		File levelFolder = new File(folder, Integer.toString(level));
+		File file = new File(levelFolder, x + "_" + y + ".jpg");
+		if (file.isFile())
+			return file;
+		file = new File(levelFolder, x + "_" + y + ".png");
+		if (file.isFile())
+			return file;
+		return null;
+	}
+
+	public String getImageUrl() {
+		return imageUrl;
+	}
+
+	/**
+	 * Returns the cache folder of this pyramid.
+	 */
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Width of the original image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Height of the original image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Number of pyramid levels (level 0 = original resolution)
+	 */
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	/**
+	 * Writes all tiles of one pyramid level
+	 */
+	private void writeTiles(BufferedImage levelImage, int level) throws IOException {
+		File levelFolder = new File(folder, Integer.toString(level));
+		if (!levelFolder.isDirectory() && !levelFolder.mkdirs())
+			throw new IOException("Could not create tile cache folder: " + levelFolder.getAbsolutePath());
+
+		String format = usePng(levelImage) ? "png" : "jpg";
+		int cols = (levelImage.getWidth() + tileSize - 1) / tileSize;
+		int rows = (levelImage.getHeight() + tileSize - 1) / tileSize;
+		for (int y=0; y<rows; y++) {
+			for (int x=0; x<cols; x++) {
+				int left = x * tileSize;
+				int top = y * tileSize;
+				BufferedImage tile = levelImage.getSubimage(left, top, 
+						Math.min(tileSize, levelImage.getWidth() - left), Math.min(tileSize, levelImage.getHeight() - top));
+				writeImage(tile, format, new File(levelFolder, x + "_" + y + "." + format));
+			}
+		}
+	}
+
+	/**
+	 * Reads the source image. Only HTTP and HTTPS URLs are accepted (no local files or other protocols).
+	 * Redirects are not followed (the target might not be an allowed image source).
+	 * @throws IOException Unsupported URL, HTTP error, timeout or unsupported image format
+	 */
+	static BufferedImage readImage(String imageUrl) throws IOException {
+		URL url = new URL(imageUrl);
+		if (!isHttpUrl(url))
+			throw new IOException("Image URL not supported: " + imageUrl);
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			connection.setInstanceFollowRedirects(false);
+			int responseCode = connection.getResponseCode();
+			if (responseCode != HttpURLConnection.HTTP_OK)
+				throw new IOException("Could not load image (HTTP " + responseCode + "): " + imageUrl);
+			InputStream in = connection.getInputStream();
+			try {
+				BufferedImage image = ImageIO.read(in);
+				if (image == null)
+					throw new IOException("Unsupported image format: " + imageUrl);
+				return image;
+			} finally {
+				in.close();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Checks if the given URL uses the HTTP or HTTPS protocol and has no user info
+	 */
+	static boolean isHttpUrl(URL url) {
+		return ("http".equalsIgnoreCase(url.getProtocol()) || "https".equalsIgnoreCase(url.getProtocol()))
+				&& url.getHost() != null && !url.getHost().isEmpty() && url.getUserInfo() == null;
+	}
+
+	/**
+	 * Writes the image to a temporary file first and renames it afterwards (no partial tiles for concurrent readers)
+	 */
+	static void writeImage(BufferedImage image, String format, File target) throws IOException {
+		File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+		if (!ImageIO.write(image, format, temp))
+			throw new IOException("No image writer for format " + format);
+		if (target.exists())
+			target.delete();
+		if (!temp.renameTo(target))
+			throw new IOException("Could not write " + target.getAbsolutePath());
+	}
+
+	/**
+	 * Returns an image with half the width and height of the given image (bilinear interpolation).
+	 * Bitonal images are converted to greyscale.
+	 */
+	static BufferedImage halve(BufferedImage image) {
+		return scale(image, Math.max(1, (image.getWidth() + 1) / 2), Math.max(1, (image.getHeight() + 1) / 2));
+	}
+
+	/**
+	 * Scales the given image to the given size (bilinear interpolation). Bitonal images are converted to greyscale.
+	 */
+	static BufferedImage scale(BufferedImage image, int width, int height) {
+		int type;
+		if (image.getType() == BufferedImage.TYPE_BYTE_BINARY || image.getType() == BufferedImage.TYPE_BYTE_GRAY)
+			type = BufferedImage.TYPE_BYTE_GRAY;
+		else if (image.getColorModel().hasAlpha())
+			type = BufferedImage.TYPE_INT_ARGB;
+		else
+			type = BufferedImage.TYPE_INT_RGB;
+		BufferedImage scaled = new BufferedImage(width, height, type);
+		Graphics2D g = scaled.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			g.dispose();
+		}
+		return scaled;
+	}
+
+	/**
+	 * Converts images with uncommon pixel layout to RGB(A) (required for the image writers)
+	 */
+	static BufferedImage normalize(BufferedImage image) {
+		switch (image.getType()) {
+			case BufferedImage.TYPE_BYTE_BINARY:
+			case BufferedImage.TYPE_BYTE_GRAY:
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return image;
+		}
+		boolean alpha = image.getColorModel().hasAlpha();
+		BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), 
+				alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = converted.createGraphics();
+		try {
+			g.drawImage(image, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+		return converted;
+	}
+
+	/**
+	 * PNG for bitonal images and images with transparency, JPEG otherwise
+	 */
+	static boolean usePng(BufferedImage image) {
+		return image.getType() == BufferedImage.TYPE_BYTE_BINARY || image.getColorModel().hasAlpha();
+	}
+
+	private boolean readInfo() {
+		File infoFile = new File(folder, INFO_FILE);
+		if (!infoFile.isFile())
+			return false;
+		Properties props = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(infoFile);
+			props.load(in);
+			width = Integer.parseInt(props.getProperty("width"));
+			height = Integer.parseInt(props.getProperty("height"));
+			levelCount = Integer.parseInt(props.getProperty("levels"));
+			return true;
+		} catch (Exception exc) {
+			return false; //Rebuild
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private void writeInfo() throws IOException {
+		Properties props = new Properties();
+		props.setProperty("url", imageUrl);
+		props.setProperty("width", Integer.toString(width));
+		props.setProperty("height", Integer.toString(height));
+		props.setProperty("tileSize", Integer.toString(tileSize));
+		props.setProperty("levels", Integer.toString(levelCount));
+		File temp = new File(folder, INFO_FILE + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			props.store(out, null);
+		} finally {
+			out.close();
+		}
+		File infoFile = new File(folder, INFO_FILE);
+		if (infoFile.exists())
+			infoFile.delete();
+		if (!temp.renameTo(infoFile))
+			throw new IOException("Could not write " + infoFile.getAbsolutePath());
+	}
+
+	/**
+	 * Returns a file system safe key for the given image URL (SHA-1 hex)
+	 */
+	static String getCacheKey(String url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(url.getBytes("UTF-8"));
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for (int i=0; i<hash.length; i++) {
+				key.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+				key.append(Character.forDigit(hash[i] & 0xF, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(url.hashCode());
+		} catch (UnsupportedEncodingException e) {
+			return Integer.toHexString(url.hashCode());
+		}
+	}
+}
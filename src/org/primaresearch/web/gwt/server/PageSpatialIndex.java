@@ -0,0 +1,374 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.layout.PageLayout;
+import org.primaresearch.dla.page.layout.physical.ContentObject;
+import org.primaresearch.dla.page.layout.physical.Region;
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
+import org.primaresearch.dla.page.layout.physical.shared.LowLevelTextType;
+import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.dla.page.layout.physical.text.LowLevelTextContainer;
+import org.primaresearch.dla.page.layout.physical.text.LowLevelTextObject;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextLine;
+import org.primaresearch.dla.page.layout.physical.text.impl.TextRegion;
+import org.primaresearch.dla.page.layout.physical.text.impl.Word;
+import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.maths.geometry.Rect;
+
+/**
+ * Spatial index for the content objects of a page (regions, text lines, words and glyphs).<br>
+ * <br>
+ * Uses one uniform grid per content type. Each object is registered in all grid cells its
+ * bounding box overlaps. Point queries check only the objects of one cell (bounding box prefilter,
+ * then exact polygon test). Coordinates outside the page are mapped to the border cells.<br>
+ * Within a cell the objects are kept in the order they were added (layout order for the objects that
+ * existed when the index was built), so point queries return the first matching object like a linear search.<br>
+ * Area queries return the objects in document order (sorted regions, then sorted text objects per parent),
+ * the same order as a full traversal of the page.<br>
+ * Thread-safe.
+ *
+ * @author Christian Clausner
+ *
+ */
+public class PageSpatialIndex {
+
+	private static final int TARGET_OBJECTS_PER_CELL = 4;
+	private static final int MIN_CELL_SIZE = 16;
+
+	private final Page page;
+	private final Map<String, Grid> grids = new HashMap<String, Grid>();
+	private final int pageWidth;
+	private final int pageHeight;
+	/** Position of each object in document order (built on demand, reset on change) */
+	private Map<ContentObject, Integer> documentOrder = null;
+
+	/**
+	 * Constructor. Builds the index for all regions, text lines, words and glyphs of the given page.
+	 */
+	public PageSpatialIndex(Page page) {
+		this.page = page;
+		PageLayout layout = page.getLayout();
+		pageWidth = Math.max(1, layout.getWidth());
+		pageHeight = Math.max(1, layout.getHeight());
+
+		List<ContentObject> regions = new ArrayList<ContentObject>();
+		List<ContentObject> lines = new ArrayList<ContentObject>();
+		List<ContentObject> words = new ArrayList<ContentObject>();
+		List<ContentObject> glyphs = new ArrayList<ContentObject>();
+		for (int i=0; i<layout.getRegionCount(); i++) {
+			Region region = layout.getRegion(i);
+			regions.add(region);
+			if (region instanceof LowLevelTextContainer) {
+				LowLevelTextContainer textRegion = (LowLevelTextContainer)region;
+				for (int l=0; l<textRegion.getTextObjectCount(); l++) {
+					LowLevelTextObject line = textRegion.getTextObject(l);
+					lines.add(line);
+					if (!(line instanceof LowLevelTextContainer))
+						continue;
+					for (int w=0; w<((LowLevelTextContainer)line).getTextObjectCount(); w++) {
+						LowLevelTextObject word = ((LowLevelTextContainer)line).getTextObject(w);
+						words.add(word);
+						if (!(word instanceof LowLevelTextContainer))
+							continue;
+						for (int g=0; g<((LowLevelTextContainer)word).getTextObjectCount(); g++)
+							glyphs.add(((LowLevelTextContainer)word).getTextObject(g));
+					}
+				}
+			}
+		}
+		grids.put(getKey(RegionType.TextRegion), new Grid(regions));
+		grids.put(getKey(LowLevelTextType.TextLine), new Grid(lines));
+		grids.put(getKey(LowLevelTextType.Word), new Grid(words));
+		grids.put(getKey(LowLevelTextType.Glyph), new Grid(glyphs));
+	}
+
+	/**
+	 * Returns the page the index has been built for.
+	 */
+	public Page getPage() {
+		return page;
+	}
+
+	/**
+	 * Returns the first region that contains the given point.
+	 * @return A region or <code>null</code>
+	 */
+	public synchronized Region getRegionAt(int x, int y) {
+		return (Region)getObjectAt(x, y, RegionType.TextRegion);
+	}
+
+	/**
+	 * Returns the first object of the given type that contains the given point.
+	 * @param type Content type (all region types are treated the same)
+	 * @return A content object or <code>null</code>
+	 */
+	public synchronized ContentObject getObjectAt(int x, int y, ContentType type) {
+		Grid grid = grids.get(getKey(type));
+		if (grid == null)
+			return null;
+		return grid.getObjectAt(x, y);
+	}
+
+	/**
+	 * Returns all objects of the given type with a bounding box intersecting the given rectangle (in document order).
+	 * @param type Content type (all region types are treated the same)
+	 */
+	public synchronized List<ContentObject> getObjectsInRect(Rect rect, ContentType type) {
+		Grid grid = grids.get(getKey(type));
+		if (grid == null)
+			return new ArrayList<ContentObject>();
+		List<ContentObject> objects = grid.getObjectsInRect(rect);
+		if (objects.size() > 1) {
+			final Map<ContentObject, Integer> order = getDocumentOrder();
+			Collections.sort(objects, new Comparator<ContentObject>() {
+				@Override
+				public int compare(ContentObject o1, ContentObject o2) {
+					Integer pos1 = order.get(o1);
+					Integer pos2 = order.get(o2);
+					int p1 = pos1 != null ? pos1 : Integer.MAX_VALUE;
+					int p2 = pos2 != null ? pos2 : Integer.MAX_VALUE;
+					return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
+				}
+			});
+		}
+		return objects;
+	}
+
+	/**
+	 * Returns the position of each object in document order (builds the map if required).
+	 * The traversal is the same as for loading all content objects of a page.
+	 */
+	private Map<ContentObject, Integer> getDocumentOrder() {
+		if (documentOrder != null)
+			return documentOrder;
+		Map<ContentObject, Integer> order = new IdentityHashMap<ContentObject, Integer>();
+		int pos = 0;
+		List<Region> regions = page.getLayout().getRegionsSorted(true);
+		for (int i=0; i<regions.size(); i++) {
+			Region region = regions.get(i);
+			order.put(region, pos++);
+			if (!(region instanceof TextRegion))
+				continue;
+			List<LowLevelTextObject> lines = ((TextRegion)region).getTextObjectsSorted();
+			for (int l=0; l<lines.size(); l++) {
+				TextLine line = (TextLine)lines.get(l);
+				order.put(line, pos++);
+				List<LowLevelTextObject> words = line.getTextObjectsSorted();
+				for (int w=0; w<words.size(); w++) {
+					Word word = (Word)words.get(w);
+					order.put(word, pos++);
+					List<LowLevelTextObject> glyphs = word.getTextObjectsSorted();
+					for (int g=0; g<glyphs.size(); g++)
+						order.put(glyphs.get(g), pos++);
+				}
+			}
+		}
+		documentOrder = order;
+		return order;
+	}
+
+	/**
+	 * Adds a new object (to be called after the object has been added to the page layout).
+	 */
+	public synchronized void add(ContentObject obj) {
+		documentOrder = null;
+		Grid grid = grids.get(getKey(obj.getType()));
+		if (grid != null)
+			grid.add(obj);
+	}
+
+	/**
+	 * Removes the given object and all its child objects (text lines, words, glyphs).
+	 */
+	public synchronized void remove(ContentObject obj) {
+		documentOrder = null;
+		Grid grid = grids.get(getKey(obj.getType()));
+		if (grid != null)
+			grid.remove(obj);
+		if (obj instanceof LowLevelTextContainer) {
+			LowLevelTextContainer container = (LowLevelTextContainer)obj;
+			for (int i=0; i<container.getTextObjectCount(); i++)
+				remove(container.getTextObject(i));
+		}
+	}
+
+	/**
+	 * Re-registers the given object (to be called after the outline of the object has been changed).
+	 */
+	public synchronized void update(ContentObject obj) {
+		documentOrder = null;
+		Grid grid = grids.get(getKey(obj.getType()));
+		if (grid != null)
+			grid.update(obj);
+	}
+
+	private static String getKey(ContentType type) {
+		if (type instanceof RegionType)
+			return "Region";
+		return type != null ? type.getName() : null;
+	}
+
+	/**
+	 * Uniform grid for objects of one type.
+	 *
+	 * @author Christian Clausner
+	 *
+	 */
+	private class Grid {
+		private final int cellSize;
+		private final int cols;
+		private final int rows;
+		private final List<List<ContentObject>> cells;
+		/** Bounding boxes the objects were registered with (the outline may be changed in place) */
+		private final Map<ContentObject, Rect> registeredBoxes = new IdentityHashMap<ContentObject, Rect>();
+		/** Sequence numbers for keeping the insertion order within the cells */
+		private final Map<ContentObject, Integer> order = new IdentityHashMap<ContentObject, Integer>();
+		private int nextOrder = 0;
+
+		public Grid(List<ContentObject> objects) {
+			int cellCount = Math.max(1, objects.size() / TARGET_OBJECTS_PER_CELL);
+			cellSize = Math.max(MIN_CELL_SIZE, (int)Math.ceil(Math.sqrt((double)pageWidth * pageHeight / cellCount)));
+			cols = (pageWidth + cellSize - 1) / cellSize;
+			rows = (pageHeight + cellSize - 1) / cellSize;
+			cells = new ArrayList<List<ContentObject>>(cols * rows);
+			for (int i=0; i<cols*rows; i++)
+				cells.add(null);
+			for (int i=0; i<objects.size(); i++)
+				add(objects.get(i));
+		}
+
+		public void add(ContentObject obj) {
+			order.put(obj, nextOrder++);
+			register(obj);
+		}
+
+		public void remove(ContentObject obj) {
+			unregister(obj);
+			order.remove(obj);
+		}
+
+		public void update(ContentObject obj) {
+			unregister(obj);
+			register(obj);
+		}
+
+		public ContentObject getObjectAt(int x, int y) {
+			List<ContentObject> cell = cells.get(getRow(y) * cols + getCol(x));
+			if (cell == null)
+				return null;
+			for (int i=0; i<cell.size(); i++) {
+				ContentObject obj = cell.get(i);
+				Polygon coords = obj.getCoords();
+				if (coords == null)
+					continue;
+				Rect box = coords.getBoundingBox();
+				if (x < box.left || x > box.right || y < box.top || y > box.bottom)
+					continue;
+				if (coords.isPointInside(x, y))
+					return obj;
+			}
+			return null;
+		}
+
+		public List<ContentObject> getObjectsInRect(Rect rect) {
+			//Collect candidates (without duplicates)
+			Set<ContentObject> candidates = new LinkedHashSet<ContentObject>();
+			for (int row=getRow(rect.top); row<=getRow(rect.bottom); row++) {
+				for (int col=getCol(rect.left); col<=getCol(rect.right); col++) {
+					List<ContentObject> cell = cells.get(row * cols + col);
+					if (cell != null)
+						candidates.addAll(cell);
+				}
+			}
+			List<ContentObject> result = new ArrayList<ContentObject>(candidates.size());
+			for (ContentObject obj : candidates) {
+				Polygon coords = obj.getCoords();
+				if (coords == null || coords.getSize() == 0)
+					continue;
+				Rect box = coords.getBoundingBox();
+				if (box.left <= rect.right && box.right >= rect.left && box.top <= rect.bottom && box.bottom >= rect.top)
+					insertSorted(result, obj);
+			}
+			return result;
+		}
+
+		private void register(ContentObject obj) {
+			Polygon coords = obj.getCoords();
+			if (coords == null || coords.getSize() == 0)
+				return;
+			Rect box = coords.getBoundingBox();
+			box = new Rect(box.left, box.top, box.right, box.bottom);
+			registeredBoxes.put(obj, box);
+			for (int row=getRow(box.top); row<=getRow(box.bottom); row++) {
+				for (int col=getCol(box.left); col<=getCol(box.right); col++) {
+					int index = row * cols + col;
+					List<ContentObject> cell = cells.get(index);
+					if (cell == null) {
+						cell = new ArrayList<ContentObject>(TARGET_OBJECTS_PER_CELL);
+						cells.set(index, cell);
+					}
+					insertSorted(cell, obj);
+				}
+			}
+		}
+
+		private void unregister(ContentObject obj) {
+			Rect box = registeredBoxes.remove(obj);
+			if (box == null)
+				return;
+			for (int row=getRow(box.top); row<=getRow(box.bottom); row++) {
+				for (int col=getCol(box.left); col<=getCol(box.right); col++) {
+					List<ContentObject> cell = cells.get(row * cols + col);
+					if (cell != null)
+						cell.remove(obj);
+				}
+			}
+		}
+
+		/**
+		 * Inserts the given object into the list, keeping the insertion order
+		 */
+		private void insertSorted(List<ContentObject> list, ContentObject obj) {
+			int seq = order.get(obj);
+			int pos = list.size();
+			while (pos > 0 && order.get(list.get(pos-1)) > seq)
+				pos--;
+			list.add(pos, obj);
+		}
+
+		private int getCol(int x) {
+			int col = x / cellSize;
+			return col < 0 ? 0 : (col >= cols ? cols - 1 : col);
+		}
+
+		private int getRow(int y) {
+			int row = y / cellSize;
+			return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+		}
+	}
+}
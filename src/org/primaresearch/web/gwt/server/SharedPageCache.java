@@ -0,0 +1,400 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.primaresearch.dla.page.Page;
+import org.primaresearch.dla.page.io.UrlInput;
+import org.primaresearch.dla.page.io.xml.PageXmlInputOutput;
+import org.primaresearch.dla.page.io.xml.StreamTarget;
+import org.primaresearch.dla.page.io.xml.XmlPageReader;
+import org.primaresearch.dla.page.io.xml.XmlPageWriter;
+import org.primaresearch.io.UnsupportedFormatVersionException;
+import org.primaresearch.io.xml.IOError;
+
+/**
+ * Server-wide cache for parsed PAGE files that is shared between all sessions.<br>
+ * <br>
+ * The cached page objects are read-only snapshots. Sessions that want to modify a page
+ * have to request a private copy ({@link #createCopy(String, Page)}).<br>
+ * Entries are keyed by the page URL and are revalidated on each load via the ETag and
+ * Last-Modified headers of the source (conditional request carrying the parameters of the
+ * requesting user, so the source can still decide on access).<br>
+ * Concurrent loads of the same source are merged. No lock is held during I/O or parsing.<br>
+ * If the estimated memory usage exceeds the configured maximum, the least recently used entries are evicted.<br>
+ * Singleton.
+ *
+ * @author Christian Clausner
+ *
+ */
+public class SharedPageCache {
+
+	/** Estimated ratio between memory usage of a parsed page (plus the cached XML) and the size of the XML data */
+	static final int ESTIMATED_SIZE_FACTOR = 5;
+
+	private static SharedPageCache instance = null;
+
+	private boolean enabled = true;
+	private long maxSize = 256L * 1024L * 1024L;
+	private long currentSize = 0L;
+
+	/** Cache entries in access order (least recently used first) */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	/** Loads in progress (key: source URL) */
+	private final ConcurrentHashMap<String, FutureTask<Page>> loads = new ConcurrentHashMap<String, FutureTask<Page>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private SharedPageCache() {
+	}
+
+	/**
+	 * Returns the singleton instance of this class
+	 */
+	public static synchronized SharedPageCache getInstance() {
+		if (instance == null)
+			instance = new SharedPageCache();
+		return instance;
+	}
+
+	/**
+	 * Returns the page snapshot for the given URL. The page is only loaded and parsed if it is not in the cache
+	 * or if the source reports a modification.
+	 * @param url Page URL (used as cache key)
+	 * @param source Actual source to load the page from (e.g. the URL with added user ID parameter)
+	 * @return Shared page object (must not be modified)
+	 */
+	public Page getPage(final String url, final URL source) throws IOException, UnsupportedFormatVersionException {
+		//Only HTTP sources can be revalidated
+		if (!enabled || !isHttp(source)) {
+			misses.incrementAndGet();
+			return readPage(source);
+		}
+
+		//Concurrent requests for the same source share one load. The key is the actual source
+		//(including the user parameter), so each user's access is still checked by the source.
+		final String key = source.toExternalForm();
+		FutureTask<Page> load = new FutureTask<Page>(new Callable<Page>() {
+			@Override
+			public Page call() throws Exception {
+				return loadPage(url, source);
+			}
+		});
+		FutureTask<Page> running = loads.putIfAbsent(key, load);
+		if (running == null) {
+			try {
+				load.run();
+			} finally {
+				loads.remove(key, load);
+			}
+			running = load;
+		}
+
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for page: " + url);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof UnsupportedFormatVersionException)
+				throw (UnsupportedFormatVersionException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Revalidates or loads the page (no lock held during I/O; only the result is published under the lock of the entry map).
+	 */
+	private Page loadPage(String url, URL source) throws IOException, UnsupportedFormatVersionException {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(url);
+		}
+
+		HttpURLConnection connection = (HttpURLConnection)source.openConnection();
+		try {
+			if (entry != null) {
+				if (entry.eTag != null)
+					connection.setRequestProperty("If-None-Match", entry.eTag);
+				if (entry.lastModified != null)
+					connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+			}
+
+			int responseCode = connection.getResponseCode();
+
+			//Not modified -> Use cached snapshot
+			if (entry != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				hits.incrementAndGet();
+				return entry.page;
+			}
+
+			misses.incrementAndGet();
+
+			byte[] data = readFully(connection.getInputStream());
+			Page page = readPage(data);
+
+			String eTag = connection.getHeaderField("ETag");
+			String lastModified = connection.getHeaderField("Last-Modified");
+			if (eTag != null || lastModified != null)
+				put(url, new Entry(page, data, eTag, lastModified));
+			else //Cannot be revalidated
+				remove(url);
+
+			return page;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Creates a private (modifiable) copy of the given page snapshot.
+	 * @param url Page URL (cache key)
+	 * @param snapshot Page object that was returned by {@link #getPage(String, URL)}
+	 * @return New page object
+	 */
+	public Page createCopy(String url, Page snapshot) throws IOException, UnsupportedFormatVersionException {
+		byte[] data = null;
+		synchronized (entries) {
+			Entry entry = entries.get(url);
+			if (entry != null && entry.page == snapshot)
+				data = entry.data;
+		}
+
+		//Evicted or replaced in the meantime -> Serialise the snapshot
+		if (data == null) {
+			XmlPageWriter writer = PageXmlInputOutput.getWriterForLastestXmlFormat();
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			if (!writer.write(snapshot, new StreamTarget(outputStream)))
+				throw new IOException("Could not copy page: XML file not valid.");
+			data = outputStream.toByteArray();
+		}
+
+		return readPage(data);
+	}
+
+	/**
+	 * Removes the entry for the given URL
+	 */
+	public void remove(String url) {
+		synchronized (entries) {
+			Entry entry = entries.remove(url);
+			if (entry != null)
+				currentSize -= entry.size;
+		}
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			currentSize = 0L;
+		}
+	}
+
+	void put(String url, Entry entry) {
+		synchronized (entries) {
+			Entry old = entries.put(url, entry);
+			if (old != null)
+				currentSize -= old.size;
+			currentSize += entry.size;
+
+			//Evict least recently used
+			for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext() && currentSize > maxSize; ) {
+				Entry eldest = it.next().getValue();
+				it.remove();
+				currentSize -= eldest.size;
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private static boolean isHttp(URL url) {
+		return "http".equalsIgnoreCase(url.getProtocol()) || "https".equalsIgnoreCase(url.getProtocol());
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException {
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = inputStream.read(buffer)) > 0)
+				outputStream.write(buffer, 0, len);
+			return outputStream.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Parses a page from the given XML data.
+	 */
+	static Page readPage(final byte[] data) throws IOException, UnsupportedFormatVersionException {
+		//Wrap the data in a URL, so it can be used with the URL input of the reader
+		URL url = new URL("bytes", null, -1, "page", new URLStreamHandler() {
+			@Override
+			protected URLConnection openConnection(URL u) throws IOException {
+				return new URLConnection(u) {
+					@Override
+					public void connect() throws IOException {
+					}
+					@Override
+					public InputStream getInputStream() throws IOException {
+						return new ByteArrayInputStream(data);
+					}
+				};
+			}
+		});
+		return readPage(url);
+	}
+
+	/**
+	 * Loads and parses a page from the given URL.
+	 */
+	private static Page readPage(URL source) throws IOException, UnsupportedFormatVersionException {
+		XmlPageReader reader = PageXmlInputOutput.getReader();
+		Page page = reader.read(new UrlInput(source));
+		if (page == null) { //Error
+			List<IOError> errors = reader.getErrors();
+			String errmsg = "";
+			for (int i=0; i<errors.size(); i++)
+				errmsg += errors.get(i).getMessage() + "\n";
+			throw new IOException(errmsg);
+		}
+		page.setFormatVersion(PageXmlInputOutput.getLatestSchemaModel());
+		return page;
+	}
+
+	/**
+	 * Enables or disables the cache (if disabled, pages are loaded directly and not shared)
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled)
+			clear();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the maximum (estimated) memory usage in bytes
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the estimated memory usage of all cached pages in bytes
+	 */
+	public long getCurrentSize() {
+		synchronized (entries) {
+			return currentSize;
+		}
+	}
+
+	/**
+	 * Returns the number of cached pages
+	 */
+	public int getEntryCount() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the number of requests that were served with a cached page
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests for which the page had to be loaded and parsed
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of pages that have been removed to stay within the memory limit
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SharedPageCache [entries=" + getEntryCount() + ", size=" + getCurrentSize() + "/" + maxSize
+				+ ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+	}
+
+
+	/**
+	 * Cached page together with the original XML data and the validation headers of the source.
+	 *
+	 * @author Christian Clausner
+	 *
+	 */
+	static class Entry {
+		private final Page page;
+		private final byte[] data;
+		private final String eTag;
+		private final String lastModified;
+		private final long size;
+
+		public Entry(Page page, byte[] data, String eTag, String lastModified) {
+			this.page = page;
+			this.data = data;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.size = (long)data.length * ESTIMATED_SIZE_FACTOR;
+		}
+	}
+}
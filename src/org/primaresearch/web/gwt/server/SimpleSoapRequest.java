@@ -15,10 +15,22 @@
  */
 package org.primaresearch.web.gwt.server;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.soap.MessageFactory;
 import javax.xml.soap.SOAPBody;
@@ -33,17 +45,41 @@ import javax.xml.soap.SOAPPart;
 import org.w3c.dom.Node;
 
 /**
- * Helper for sending simple SOAP requests and extracting the content of the SOAP response.
+ * Helper for sending simple SOAP requests and extracting the content of the SOAP response.<br>
+ * <br>
+ * The SAAJ factories are created once per JVM. Each request uses its own connection, which is closed
+ * after the call; the underlying HTTP connection is kept alive and reused by the JVM's HTTP connection cache
+ * (see system property 'http.maxConnections'). Connect and read timeouts apply to every request.<br>
+ * Requests can be sent asynchronously via {@link #sendAsync()} (thread pool shared by all requests, with a bounded
+ * number of threads and waiting requests, see {@link #setAsyncPoolSize(int, int)}). The pool is shut down by
+ * {@link #shutdown()}, which is called by {@link SimpleSoapRequestContextListener} when the web application is stopped.
+ * 
  * @author Christian Clausner
  *
  */
 public class SimpleSoapRequest {
 	
+	private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	private static final int DEFAULT_READ_TIMEOUT = 60000;
+	private static final int DEFAULT_ASYNC_THREADS = 8;
+	private static final int DEFAULT_MAX_QUEUED_ASYNC_REQUESTS = 64;
+	
+	private static int defaultConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private static int defaultReadTimeout = DEFAULT_READ_TIMEOUT;
+	private static int asyncThreads = DEFAULT_ASYNC_THREADS;
+	private static int maxQueuedAsyncRequests = DEFAULT_MAX_QUEUED_ASYNC_REQUESTS;
+
+	private static SOAPConnectionFactory connectionFactory = null;
+	private static MessageFactory messageFactory = null;
+	private static ExecutorService asyncExecutor = null;
+	
 	private String targetUrl;
 	private String method;
 	private List<String> methodParameterNames = new ArrayList<String>();
 	private List<String> methodParameterValues = new ArrayList<String>();
 	private boolean DEBUG = false;
+	private int connectTimeout = defaultConnectTimeout;
+	private int readTimeout = defaultReadTimeout;
 	
 	/**
 	 * Constructor
@@ -74,12 +110,7 @@ public class SimpleSoapRequest {
 	 */
 	public String send() throws UnsupportedOperationException, SOAPException, MalformedURLException {
 		
-		SOAPConnectionFactory soapConnectionFact = SOAPConnectionFactory.newInstance();
-		
-		SOAPConnection connection = soapConnectionFact.createConnection();
-		
-		MessageFactory messageFactory = MessageFactory.newInstance();
-        SOAPMessage outgoingMessage = messageFactory.createMessage();
+        SOAPMessage outgoingMessage = getMessageFactory().createMessage();
         
         SOAPPart soappart = outgoingMessage.getSOAPPart();
 
@@ -96,7 +127,7 @@ public class SimpleSoapRequest {
         	methodelement.addChildElement(methodParameterNames.get(i)).addTextNode(methodParameterValues.get(i));
         }
         
-        URL soapTarget = new URL(targetUrl);
+        URL soapTarget = createUrlWithTimeouts(targetUrl, connectTimeout, readTimeout);
         
         //Authentication
         //String authorization = new String(Base64.encodeBase64("test:test123".getBytes()));  
@@ -106,7 +137,13 @@ public class SimpleSoapRequest {
         	System.out.println("SOAP Target URL: "+targetUrl);
         
         
-		SOAPMessage incomingMessage = connection.call(outgoingMessage, soapTarget);
+		SOAPMessage incomingMessage;
+		SOAPConnection connection = getConnectionFactory().createConnection();
+		try {
+			incomingMessage = connection.call(outgoingMessage, soapTarget);
+		} finally {
+			connection.close();
+		}
 		
 		/*try {
 			System.out.println();
@@ -136,9 +173,121 @@ public class SimpleSoapRequest {
 		return soapResponseContent;
 	}
 
+	/**
+	 * Sends the request in a background thread (see {@link #send()}).
+	 * @return Future providing the content of the response (or the exception thrown by send())
+	 * @throws RejectedExecutionException All threads are busy and the maximum number of waiting requests has been reached
+	 */
+	public Future<String> sendAsync() {
+		return submitAsync(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return send();
+			}
+		});
+	}
+	
+	/**
+	 * Runs the given task in the shared thread pool for asynchronous requests.
+	 * @throws RejectedExecutionException The pool is full
+	 */
+	static <T> Future<T> submitAsync(Callable<T> task) {
+		return getAsyncExecutor().submit(task);
+	}
+
 	public void setDEBUG(boolean dEBUG) {
 		DEBUG = dEBUG;
 	}
 	
+	/**
+	 * Sets the connect and read timeout for this request (in milliseconds, 0 for no timeout)
+	 */
+	public void setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+	
+	/**
+	 * Sets the connect and read timeout for all requests created afterwards (in milliseconds, 0 for no timeout)
+	 */
+	public static synchronized void setDefaultTimeouts(int connectTimeout, int readTimeout) {
+		defaultConnectTimeout = connectTimeout;
+		defaultReadTimeout = readTimeout;
+	}
 	
+	/**
+	 * Creates a URL that opens connections with the given timeouts
+	 * (SAAJ doesn't support timeouts, but opens the HTTP connection via the URL).
+	 */
+	private static URL createUrlWithTimeouts(String url, final int connectTimeout, final int readTimeout) throws MalformedURLException {
+		new URL(url); //Validate (throws exception for unknown protocols)
+		return new URL(null, url, new URLStreamHandler() {
+			@Override
+			protected URLConnection openConnection(URL u) throws IOException {
+				URLConnection connection = new URL(u.toString()).openConnection(); //Default handler
+				connection.setConnectTimeout(connectTimeout);
+				connection.setReadTimeout(readTimeout);
+				return connection;
+			}
+		});
+	}
+	
+	/**
+	 * Sets the size of the thread pool for asynchronous requests.
+	 * Requests that are currently being processed are not affected (the new pool is created on demand).
+	 * @param threads Maximum number of requests processed at the same time
+	 * @param maxQueued Maximum number of requests waiting for a thread (further requests are rejected)
+	 */
+	public static synchronized void setAsyncPoolSize(int threads, int maxQueued) {
+		if (threads < 1 || maxQueued < 1)
+			throw new IllegalArgumentException("Invalid pool size: "+threads+" threads, "+maxQueued+" queued");
+		asyncThreads = threads;
+		maxQueuedAsyncRequests = maxQueued;
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdown(); //Let the submitted requests finish
+			asyncExecutor = null;
+		}
+	}
+	
+	/**
+	 * Stops the threads for asynchronous requests (pending requests are cancelled).
+	 * A new pool is created if {@link #sendAsync()} is called afterwards.
+	 */
+	public static synchronized void shutdown() {
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdownNow();
+			asyncExecutor = null;
+		}
+	}
+	
+	private static synchronized SOAPConnectionFactory getConnectionFactory() throws SOAPException {
+		if (connectionFactory == null)
+			connectionFactory = SOAPConnectionFactory.newInstance();
+		return connectionFactory;
+	}
+	
+	private static synchronized MessageFactory getMessageFactory() throws SOAPException {
+		if (messageFactory == null)
+			messageFactory = MessageFactory.newInstance();
+		return messageFactory;
+	}
+	
+	private static synchronized ExecutorService getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			final AtomicInteger threadCount = new AtomicInteger();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 
+					60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueuedAsyncRequests), 
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "SoapRequest-" + threadCount.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, new ThreadPoolExecutor.AbortPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			asyncExecutor = executor;
+		}
+		return asyncExecutor;
+	}
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Stops the threads for asynchronous SOAP requests when the web application is stopped or redeployed.<br>
+ * <br>
+ * Register in web.xml:<br>
+ * <code>&lt;listener&gt;&lt;listener-class&gt;org.primaresearch.web.gwt.server.SimpleSoapRequestContextListener&lt;/listener-class&gt;&lt;/listener&gt;</code>
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class SimpleSoapRequestContextListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		//Nothing to do (the thread pool is created on demand)
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		SimpleSoapRequest.shutdown();
+	}
+
+}
@@ -18,22 +18,36 @@ package org.primaresearch.web.gwt.server;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import javax.sql.DataSource;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -60,6 +74,17 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 	private static final long serialVersionUID = 1L;
 	
 	private static final long AUTHENTICATION_TIMEOUT = 60000L; //One minute
+	/** Length of initialisation vector (vector required for encryption/decryption) */
+	private static final int IV_LENGTH = 16;
+	private static final String CIPHER_TRANSFORMATION = "AES/CFB8/NoPadding";
+	private static final int MAX_IDLE_CIPHERS = 8;
+	/** Idle cipher instances for decryption (not thread-safe, therefore taken from the pool for each use) */
+	private static final BlockingQueue<Cipher> idleCiphers = new ArrayBlockingQueue<Cipher>(MAX_IDLE_CIPHERS);
+	private static final long DEFAULT_LOGON_SOAP_TIMEOUT = 30000L;
+	private static final long DEFAULT_APP_DATA_CACHE_TTL = 5L * 60L * 1000L; //Five minutes
+	static final int MAX_IDLE_CONNECTIONS = 4;
+	/** Timeout for validating idle database connections (seconds) */
+	private static final int CONNECTION_VALIDATION_TIMEOUT = 2;
 	
 	private boolean DEBUG = false;
 	
@@ -70,6 +95,21 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 	private String encryptionCharEncoding = "ISO-8859-1";
 	private String staticSecretKey = null;
 	private String staticIntegrationServiceUrl = null;
+	/** Maximum time for retrieving web service info and permissions during logon (milliseconds) */
+	private long logonSoapTimeout = DEFAULT_LOGON_SOAP_TIMEOUT;
+	/** Integration service method returning web service info and permissions in one response (optional) */
+	private String combinedLogonSoapMethod = null;
+	/** Time to live of cached application data (milliseconds, 0 = no caching) */
+	private long appDataCacheTtl = DEFAULT_APP_DATA_CACHE_TTL;
+	private final ConcurrentHashMap<String, ApplicationRecord> appDataCache = new ConcurrentHashMap<String, ApplicationRecord>();
+	/** Derived AES keys (key: secret) */
+	private final ConcurrentHashMap<String, SecretKeySpec> keySpecs = new ConcurrentHashMap<String, SecretKeySpec>();
+	/** JNDI name of a data source to be used instead of DATABASE_URL etc. (optional) */
+	private String dataSourceName = null;
+	private DataSource dataSource = null;
+	private boolean driverLoaded = false;
+	/** Idle database connections (if no data source is used) */
+	private final ConcurrentLinkedQueue<Connection> idleConnections = new ConcurrentLinkedQueue<Connection>();
 
 	@Override
 	public void init(ServletConfig config) throws ServletException {
@@ -102,6 +142,36 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 		if (getInitParameter("STATIC_SOAP_URL") != null && !getInitParameter("STATIC_SOAP_URL").isEmpty())
 			staticIntegrationServiceUrl = getInitParameter("STATIC_SOAP_URL");
 		
+		if (getInitParameter("DATA_SOURCE") != null && !getInitParameter("DATA_SOURCE").isEmpty())
+			dataSourceName = getInitParameter("DATA_SOURCE");
+		
+		if (getInitParameter("APP_DATA_CACHE_TTL") != null && !getInitParameter("APP_DATA_CACHE_TTL").isEmpty())
+			appDataCacheTtl = Long.parseLong(getInitParameter("APP_DATA_CACHE_TTL"));
+		
+		if (getInitParameter("LOGON_SOAP_TIMEOUT") != null && !getInitParameter("LOGON_SOAP_TIMEOUT").isEmpty())
+			logonSoapTimeout = Long.parseLong(getInitParameter("LOGON_SOAP_TIMEOUT"));
+		
+		if (getInitParameter("COMBINED_LOGON_SOAP_METHOD") != null && !getInitParameter("COMBINED_LOGON_SOAP_METHOD").isEmpty())
+			combinedLogonSoapMethod = getInitParameter("COMBINED_LOGON_SOAP_METHOD");
+		
+		if (getInitParameter("SOAP_CONNECT_TIMEOUT") != null && !getInitParameter("SOAP_CONNECT_TIMEOUT").isEmpty()
+				&& getInitParameter("SOAP_READ_TIMEOUT") != null && !getInitParameter("SOAP_READ_TIMEOUT").isEmpty())
+			SimpleSoapRequest.setDefaultTimeouts(Integer.parseInt(getInitParameter("SOAP_CONNECT_TIMEOUT")), 
+												Integer.parseInt(getInitParameter("SOAP_READ_TIMEOUT")));
+		
+		if (getInitParameter("SOAP_ASYNC_THREADS") != null && !getInitParameter("SOAP_ASYNC_THREADS").isEmpty()
+				&& getInitParameter("SOAP_MAX_QUEUED_REQUESTS") != null && !getInitParameter("SOAP_MAX_QUEUED_REQUESTS").isEmpty())
+			SimpleSoapRequest.setAsyncPoolSize(Integer.parseInt(getInitParameter("SOAP_ASYNC_THREADS")), 
+												Integer.parseInt(getInitParameter("SOAP_MAX_QUEUED_REQUESTS")));
+		
+	}
+	
+	@Override
+	public void destroy() {
+		Connection con;
+		while ((con = idleConnections.poll()) != null)
+			closeQuietly(con);
+		super.destroy();
 	}
 	
 	@Override
@@ -184,6 +254,54 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 				return null;
 			}
 			
+			//Get all relevant web service URLs and the list of rights from the integration web service
+			if (DEBUG)
+				System.out.println("  Getting web service URLs and permissions from integration service");
+			WebServiceInfo webServices = new WebServiceInfo();
+			Permissions permissions = null;
+			long deadline = System.currentTimeMillis() + logonSoapTimeout;
+			
+			// Combined call (if supported by the integration service)
+			if (combinedLogonSoapMethod != null) {
+				try {
+					String response = send(createSoapRequest(appData.integrationServiceUrl, combinedLogonSoapMethod, token.uid, attachmentId), deadline);
+					if (response != null) {
+						webServices = parseWebServiceInfo(response);
+						permissions = parsePermissions(response, true);
+					}
+				} catch (Exception exc) {
+					//Not supported -> Use separate calls
+					if (DEBUG)
+						exc.printStackTrace();
+				}
+			}
+			
+			// Separate calls (permissions in background if the pool is not busy, sources in request thread)
+			if (webServices.pageContentWebService == null || permissions == null) {
+				SimpleSoapRequest permissionsRequest = createSoapRequest(appData.integrationServiceUrl, "getDocumentAttachmentPermissions", token.uid, attachmentId);
+				Future<String> permissionsResponse = null;
+				try {
+					setTimeouts(permissionsRequest, deadline);
+					permissionsResponse = permissionsRequest.sendAsync();
+				} catch (RejectedExecutionException exc) {
+					//Pool busy -> Send in request thread (see below)
+				}
+				try {
+					webServices = parseWebServiceInfo(send(createSoapRequest(appData.integrationServiceUrl, "getDocumentAttachmentSources", token.uid, attachmentId), 
+															deadline));
+				} catch (RemoteException exc) {
+					if (permissionsResponse != null)
+						permissionsResponse.cancel(true);
+					throw exc;
+				}
+				String response = permissionsResponse != null ? getResponse(permissionsResponse, deadline) : send(permissionsRequest, deadline);
+				permissions = parsePermissions(response, false);
+			}
+			if (webServices.pageContentWebService == null)
+				throw new RemoteException("Integration service returned no page content source");
+			if (permissions == null)
+				throw new RemoteException("Integration service returned no permissions");
+			
 			//Mark session as authentic (set flag)
 			Boolean userAuthenticated = true;
 			session.setAttribute(SessionAttributes.USER_AUTH, userAuthenticated);
@@ -191,17 +309,8 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 			
 			//Attachment ID
 			session.setAttribute(SessionAttributes.ATTACHMENT_ID, attachmentId);
-	
-			//Get all relevant web service URLs from the integration web service
-			if (DEBUG)
-				System.out.println("  Getting web service URLs from integration service");
-			WebServiceInfo webServices = getWebServiceInfo(appData.integrationServiceUrl, token.uid, attachmentId);
-			session.setAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE, webServices.pageContentWebService);
 			
-			//Request list of rights from database
-			if (DEBUG)
-				System.out.println("  Getting permissions");
-			Permissions permissions = getPermissions(appData.integrationServiceUrl, token.uid, attachmentId);
+			session.setAttribute(SessionAttributes.PAGE_CONTENT_WEB_SERVICE, webServices.pageContentWebService);
 			session.setAttribute(SessionAttributes.PERMISSIONS, permissions);
 	
 			//Return value
@@ -212,6 +321,9 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 			if (DEBUG)
 				System.out.println("Done");
 			return sessionData;
+		} catch (RemoteException exc) {
+			System.err.println("Could not log on: "+exc.getMessage());
+			throw new RemoteException("Could not log on: "+exc.getMessage());
 		} catch (Exception exc) {
 			exc.printStackTrace();
 			throw new RemoteException("Could not log on: "+exc.getMessage());
@@ -224,38 +336,90 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 	 * @return Decrypted data
 	 */
 	private String decrypt(String msgBase64, String key) {
+		try {
+			return decrypt(msgBase64, getKeySpec(key), encryptionCharEncoding);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Decrypt data (AES encryption) 
+	 * @param msgBase64 - Initialisation vector + encrypted data, base64 encoded
+	 * @param keySpec - AES key (see {@link #createKeySpec(String)})
+	 * @param charEncoding - Character encoding used for encryption
+	 * @return Decrypted data
+	 */
+	static String decrypt(String msgBase64, SecretKeySpec keySpec, String charEncoding) throws Exception {
 		
-		final String PHP_CHAR_ENCODING = encryptionCharEncoding;		//Character encoding used for encryption
-		final int IV_LENGTH = 16;							//Length of initialisation vector (vector required for encryption/decryption)
+		final String PHP_CHAR_ENCODING = charEncoding;		//Character encoding used for encryption
 		Base64 base64 = new org.apache.commons.codec.binary.Base64();
 		
-	    String decryptedData = null;
-	    try {
-	    	byte[] msgBytes = base64.decode(msgBase64.getBytes());	//Decode base64
-	    	String m = new String(msgBytes, PHP_CHAR_ENCODING);
+		byte[] msgBytes = base64.decode(msgBase64.getBytes());	//Decode base64
 		
-	    	//Split into initialisation vector and encrypted data
-	    	String initialVectorString = m.substring(0, IV_LENGTH);
-	    	String encryptedData = m.substring(IV_LENGTH);
-	    	
-	    	//byte[] initialVectorBytes = initialVectorString.getBytes();
-	    	byte[] initialVectorBytes = initialVectorString.getBytes(PHP_CHAR_ENCODING);
-	    	byte[] encryptedDataBytes = encryptedData.getBytes(PHP_CHAR_ENCODING);
+		//Split into initialisation vector and encrypted data
+		byte[] initialVectorBytes;
+		byte[] encryptedDataBytes;
+		if (isSingleByteEncoding(PHP_CHAR_ENCODING)) {
+			//One character per byte -> Split directly
+			if (msgBytes.length < IV_LENGTH)
+				throw new IllegalArgumentException("Encrypted data too short");
+			initialVectorBytes = Arrays.copyOfRange(msgBytes, 0, IV_LENGTH);
+			encryptedDataBytes = Arrays.copyOfRange(msgBytes, IV_LENGTH, msgBytes.length);
+		} else {
+			//Split at character level
+			String m = new String(msgBytes, PHP_CHAR_ENCODING);
+			initialVectorBytes = m.substring(0, IV_LENGTH).getBytes(PHP_CHAR_ENCODING);
+			encryptedDataBytes = m.substring(IV_LENGTH).getBytes(PHP_CHAR_ENCODING);
+		}
+	
+		//Decrypt
+		IvParameterSpec initialVector = new IvParameterSpec(initialVectorBytes);
+		Cipher cipher = idleCiphers.poll();
+		if (cipher == null)
+			cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+		byte[] decryptedByteArray;
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, keySpec, initialVector);
+			decryptedByteArray = cipher.doFinal(encryptedDataBytes);
+		} finally {
+			idleCiphers.offer(cipher); //Dropped if the pool is full
+		}
 		
-	    	//Decrypt
-	    	String md5key = md5(key);
-	    	SecretKeySpec skeySpec = new SecretKeySpec(md5key.getBytes(), "AES");
-	    	IvParameterSpec initialVector = new IvParameterSpec(initialVectorBytes);
-	    	Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-	    	cipher.init(Cipher.DECRYPT_MODE, skeySpec, initialVector);
-	    	byte[] decryptedByteArray = cipher.doFinal(encryptedDataBytes);
-	    	
-	    	decryptedData = new String(decryptedByteArray, PHP_CHAR_ENCODING);
-	    } catch (Exception e) {
-	    	e.printStackTrace();
-	    }
-	    return decryptedData;
-	    
+		return new String(decryptedByteArray, PHP_CHAR_ENCODING);
+	}
+	
+	/**
+	 * Returns the AES key spec for the given secret (derived via MD5 on first use, then cached)
+	 */
+	SecretKeySpec getKeySpec(String key) throws NoSuchAlgorithmException {
+		SecretKeySpec keySpec = keySpecs.get(key);
+		if (keySpec == null) {
+			keySpec = createKeySpec(key);
+			keySpecs.put(key, keySpec);
+		}
+		return keySpec;
+	}
+	
+	/**
+	 * Derives the AES key spec from the given secret (MD5 hash)
+	 */
+	static SecretKeySpec createKeySpec(String key) throws NoSuchAlgorithmException {
+		String md5key = md5(key);
+		return new SecretKeySpec(md5key.getBytes(), "AES");
+	}
+	
+	/**
+	 * Checks if the given encoding maps each byte to exactly one character (and back)
+	 */
+	private static boolean isSingleByteEncoding(String encoding) {
+		try {
+			Charset charset = Charset.forName(encoding);
+			return "ISO-8859-1".equals(charset.name());
+		} catch (Exception e) {
+			return false;
+		}
 	}
 	
 	/**
@@ -285,30 +449,11 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 									||	staticSecretKey == null;
 
 		if (connectToDatabase) {
-			String dbUrl = databaseUrl;
-			String dbClass = databaseClass;
-			String query = "Select secretKey,integrationServiceHost,integrationServicePath FROM applications WHERE name='"+applicationId+"'";
-	
-			try {
-	
-				Class.forName(dbClass);
-				//Connection con = DriverManager.getConnection(dbUrl,"www-user", "Kd7q6wJ6KnL4LLQm");
-				Connection con = DriverManager.getConnection(dbUrl, databaseUser, databasePass);
-				Statement stmt = con.createStatement();
-				ResultSet rs = stmt.executeQuery(query);
-	
-				while (rs.next()) {
-					data.secretKey = rs.getString(1);
-					integrationServiceUrlHost = rs.getString(2);
-					integrationServiceUrlPath = rs.getString(3);
-					break;
-				} //end while
-	
-				con.close();
-			} catch(ClassNotFoundException e) {
-				e.printStackTrace();
-			} catch(SQLException e) {
-				e.printStackTrace();
+			ApplicationRecord record = getApplicationRecord(applicationId);
+			if (record != null) {
+				data.secretKey = record.secretKey;
+				integrationServiceUrlHost = record.integrationServiceUrlHost;
+				integrationServiceUrlPath = record.integrationServiceUrlPath;
 			}
 		}
 		
@@ -329,21 +474,201 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 	}
 	
 	/**
-	 * Calls the integration web service and retrieves the relevant parameters for getting the document image, the
-	 * page content and the permissions.
+	 * Returns the database record of the given application (from cache or database).
+	 * @return The record or <code>null</code> if not found or in case of a database error
 	 */
-	private WebServiceInfo getWebServiceInfo(String webServiceUrl, String userId, String attachmentId) {
-		WebServiceInfo services = new WebServiceInfo();
+	ApplicationRecord getApplicationRecord(String applicationId) {
+		String key = applicationId != null ? applicationId : "";
+		ApplicationRecord record = appDataCache.get(key);
+		if (record != null && record.expiryTime > System.currentTimeMillis())
+			return record;
 		
-		//Soap request
+		record = loadApplicationRecord(applicationId);
+		if (record != null && appDataCacheTtl > 0) {
+			record.expiryTime = System.currentTimeMillis() + appDataCacheTtl;
+			appDataCache.put(key, record);
+		}
+		return record;
+	}
+	
+	/**
+	 * Loads the record of the given application from the database
+	 * @return The record or <code>null</code> if not found or in case of a database error
+	 */
+	ApplicationRecord loadApplicationRecord(String applicationId) {
+		ApplicationRecord record = null;
+		Connection con = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		boolean reuse = false;
 		try {
-			SimpleSoapRequest request = new SimpleSoapRequest(webServiceUrl, "getDocumentAttachmentSources");
-			request.addMethodParameter("Uid", userId);
-			request.addMethodParameter("Aid", attachmentId);
-			request.setDEBUG(DEBUG);
-			
-			String soapResponseContent = request.send();
+			con = getDatabaseConnection();
+			stmt = con.prepareStatement("SELECT secretKey,integrationServiceHost,integrationServicePath FROM applications WHERE name=?");
+			stmt.setString(1, applicationId);
+			rs = stmt.executeQuery();
+
+			if (rs.next()) {
+				record = new ApplicationRecord();
+				record.secretKey = rs.getString(1);
+				record.integrationServiceUrlHost = rs.getString(2);
+				record.integrationServiceUrlPath = rs.getString(3);
+			}
+			reuse = true;
+		} catch(ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch(SQLException e) {
+			e.printStackTrace();
+		} catch(NamingException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (rs != null)
+					rs.close();
+				if (stmt != null)
+					stmt.close();
+			} catch (SQLException e) {
+				reuse = false;
+			}
+			if (con != null)
+				releaseDatabaseConnection(con, reuse);
+		}
+		return record;
+	}
+	
+	/**
+	 * Returns a connection from the configured data source or from the internal connection pool
+	 * (opens a new connection if no idle connection is available).
+	 */
+	Connection getDatabaseConnection() throws SQLException, ClassNotFoundException, NamingException {
+		//Data source (pooling is done by the data source)
+		if (dataSourceName != null) {
+			synchronized (idleConnections) {
+				if (dataSource == null)
+					dataSource = (DataSource)new InitialContext().lookup(dataSourceName);
+			}
+			return dataSource.getConnection();
+		}
+		
+		//Internal pool
+		Connection con;
+		while ((con = idleConnections.poll()) != null) {
+			try {
+				if (con.isValid(CONNECTION_VALIDATION_TIMEOUT))
+					return con;
+			} catch (SQLException e) {
+				//Try next
+			}
+			closeQuietly(con);
+		}
+		synchronized (idleConnections) {
+			if (!driverLoaded) {
+				Class.forName(databaseClass);
+				driverLoaded = true;
+			}
+		}
+		return DriverManager.getConnection(databaseUrl, databaseUser, databasePass);
+	}
+	
+	/**
+	 * Returns the given connection to the pool or closes it.
+	 * @param reuse Set to <code>false</code> if the connection might be broken
+	 */
+	void releaseDatabaseConnection(Connection con, boolean reuse) {
+		if (dataSourceName == null && reuse && idleConnections.size() < MAX_IDLE_CONNECTIONS)
+			idleConnections.offer(con);
+		else
+			closeQuietly(con);
+	}
+	
+	private static void closeQuietly(Connection con) {
+		try {
+			con.close();
+		} catch (SQLException e) {
+			//Ignore
+		}
+	}
+	
+	/**
+	 * Creates a request for the integration web service with user ID and attachment ID as parameters.
+	 */
+	private SimpleSoapRequest createSoapRequest(String webServiceUrl, String method, String userId, String attachmentId) {
+		SimpleSoapRequest request = new SimpleSoapRequest(webServiceUrl, method);
+		request.addMethodParameter("Uid", userId);
+		request.addMethodParameter("Aid", attachmentId);
+		request.setDEBUG(DEBUG);
 
+		if (DEBUG)
+			System.out.println("  Sending SOAP request: "+webServiceUrl+" "+method+" Uid:"+userId);
+		return request;
+	}
+	
+	/**
+	 * Sends a SOAP request in the current thread (connect and read timeout limited by the given deadline).
+	 * @param deadline Point in time (milliseconds) after which the request fails
+	 * @return The response content
+	 * @throws RemoteException The request failed, timed out, or there was no response content
+	 */
+	private String send(SimpleSoapRequest request, long deadline) throws RemoteException {
+		setTimeouts(request, deadline);
+		String response;
+		try {
+			response = request.send();
+		} catch (Exception exc) {
+			exc.printStackTrace();
+			throw new RemoteException("Integration service request failed: "+exc.getMessage());
+		}
+		if (response == null)
+			throw new RemoteException("Integration service returned no response");
+		return response;
+	}
+	
+	/**
+	 * Limits the connect and read timeout of the given request to the time remaining until the deadline
+	 * (cancelling a request doesn't interrupt a blocking read, the timeouts free the thread).
+	 * @throws RemoteException The deadline has passed
+	 */
+	private static void setTimeouts(SimpleSoapRequest request, long deadline) throws RemoteException {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0L)
+			throw new RemoteException("Integration service request timed out");
+		int timeout = (int)Math.min(remaining, Integer.MAX_VALUE);
+		request.setTimeouts(timeout, timeout);
+	}
+	
+	/**
+	 * Waits for the response of a SOAP request (sent asynchronously).
+	 * @param deadline Point in time (milliseconds) after which the request is cancelled
+	 * @return The response content
+	 * @throws RemoteException The request failed, timed out, or there was no response content
+	 */
+	private String getResponse(Future<String> response, long deadline) throws RemoteException {
+		String content;
+		try {
+			content = response.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException exc) {
+			response.cancel(true);
+			throw new RemoteException("Integration service request timed out");
+		} catch (InterruptedException exc) {
+			response.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for the integration service");
+		} catch (ExecutionException exc) {
+			exc.getCause().printStackTrace();
+			throw new RemoteException("Integration service request failed: "+exc.getCause().getMessage());
+		}
+		if (content == null)
+			throw new RemoteException("Integration service returned no response");
+		return content;
+	}
+	
+	/**
+	 * Extracts the relevant parameters for getting the document image and the page content
+	 * from the response of the integration web service.
+	 */
+	private WebServiceInfo parseWebServiceInfo(String soapResponseContent) {
+		WebServiceInfo services = new WebServiceInfo();
+		
+		try {
 			InputStream is = new ByteArrayInputStream(soapResponseContent.getBytes());
 		    
 			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
@@ -381,23 +706,16 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 	}
 	
 	/**
-	 * Calls the permission web service and retrieves the user permissions.
+	 * Extracts the user permissions from the response of the integration web service.
+	 * @param requirePermissionsElement If <code>true</code>, <code>null</code> is returned if the response contains no permissions element
+	 * @return Permissions or <code>null</code> in case of an error
 	 */
-	private Permissions getPermissions(String webServiceUrl, String userId, String attachmentId) {
+	private Permissions parsePermissions(String soapResponseContent, boolean requirePermissionsElement) {
 		
 		Permissions ret = new Permissions();
+		boolean found = false;
 
-		//Soap request
 		try {
-			SimpleSoapRequest request = new SimpleSoapRequest(webServiceUrl, "getDocumentAttachmentPermissions");
-			request.addMethodParameter("Uid", userId);
-			request.addMethodParameter("Aid", attachmentId);
-
-			if (DEBUG)
-				System.out.println("  Sending SOAP request: "+webServiceUrl+" getDocumentAttachmentPermissions Uid:"+userId);
-
-			String soapResponseContent = request.send();
-
 			InputStream is = new ByteArrayInputStream(soapResponseContent.getBytes());
 
 			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
@@ -417,7 +735,7 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 						System.out.println("      Child: "+node.getNodeName());
 					
 					if ("DocumentAttachmentPermissions".equals(node.getNodeName())) {
-
+						found = true;
 						Node permission = node.getFirstChild();
 						while (permission != null) {
 							if (DEBUG)
@@ -451,7 +769,7 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 			return null;
 		}
 		
-		return ret;
+		return found || !requirePermissionsElement ? ret : null;
 	}
 	
 	
@@ -485,6 +803,19 @@ public class UserServiceImpl extends RemoteServiceServlet implements UserService
 		public String secretKey;
 		public String integrationServiceUrl; 
 	}
+	
+	/**
+	 * Application data as stored in the database (cached for a limited time).
+	 * 
+	 * @author Christian Clausner
+	 *
+	 */
+	static class ApplicationRecord {
+		public String secretKey;
+		public String integrationServiceUrlHost;
+		public String integrationServiceUrlPath;
+		public long expiryTime;
+	}
 
 	
 	/**
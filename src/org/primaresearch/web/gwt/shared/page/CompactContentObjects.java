@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.shared.page;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
+import org.primaresearch.shared.variable.VariableMap;
+import org.primaresearch.shared.variable.VariableValue;
+
+/**
+ * Compact transfer format for a list of content objects (alternative to a list of {@link ContentObjectC}).<br>
+ * <br>
+ * Content types and attribute maps are sent only once (dictionaries). Per object, only the
+ * index of the type, the index of the attribute template, the attribute values that differ from
+ * the template (sparse overrides) and the outline are sent.<br>
+ * All integer data is packed into one string (see {@link #data}) using zig-zag and variable length
+ * base64 encoding (VLQ). Polygon coordinates are delta encoded (relative to the previous point).<br>
+ * <br>
+ * Layout of the data string per object:<br>
+ * <code>typeIndex, templateIndex+1 (0 = no attributes), overrideCount, (variableIndex)*, pointCount, (dx, dy)*</code><br>
+ * The first point of an object is relative to the first point of the previous object.
+ *
+ * @author Christian Clausner
+ *
+ */
+public class CompactContentObjects implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+	private static final int VLQ_BASE_SHIFT = 5;
+	private static final int VLQ_BASE = 1 << VLQ_BASE_SHIFT;
+	private static final int VLQ_BASE_MASK = VLQ_BASE - 1;
+	private static final int VLQ_CONTINUATION_BIT = VLQ_BASE;
+
+	/** Number of content objects */
+	public int count = 0;
+	/** Content object IDs */
+	public String[] ids;
+	/** Text content of the objects (entries can be <code>null</code>) */
+	public String[] texts;
+	/** Dictionary of content types */
+	public ArrayList<ContentType> types;
+	/** Dictionary of attribute maps (templates) */
+	public ArrayList<VariableMap> attributeTemplates;
+	/** Attribute values that differ from the template (in order of appearance in the data string) */
+	public ArrayList<VariableValue> attributeOverrides;
+	/** VLQ encoded integer data (see class description) */
+	public String data;
+
+	public CompactContentObjects() {
+	}
+
+	/**
+	 * Appends the given integer to the string builder (zig-zag and VLQ encoding, the full <code>int</code> range is supported).
+	 */
+	public static void appendInt(StringBuilder builder, int value) {
+		//Zig-zag: sign in the lowest bit (0 -> 0, -1 -> 1, 1 -> 2, ...), to be read as unsigned
+		int vlq = (value << 1) ^ (value >> 31);
+		do {
+			int digit = vlq & VLQ_BASE_MASK;
+			vlq >>>= VLQ_BASE_SHIFT;
+			if (vlq != 0)
+				digit |= VLQ_CONTINUATION_BIT;
+			builder.append(BASE64_CHARS.charAt(digit));
+		} while (vlq != 0);
+	}
+
+	/**
+	 * Reader for the integer values of a VLQ encoded string.
+	 *
+	 * @author Christian Clausner
+	 *
+	 */
+	public static class IntReader {
+		private String data;
+		private int pos = 0;
+
+		public IntReader(String data) {
+			this.data = data;
+		}
+
+		/**
+		 * Returns <code>true</code> if there is more data to read.
+		 */
+		public boolean hasNext() {
+			return data != null && pos < data.length();
+		}
+
+		/**
+		 * Reads the next integer value.
+		 * @throws IllegalArgumentException The data is malformed
+		 */
+		public int next() {
+			int result = 0;
+			int shift = 0;
+			boolean continuation;
+			do {
+				if (data == null || pos >= data.length())
+					throw new IllegalArgumentException("Unexpected end of compact data at position " + pos);
+				if (shift > 30) //More than 7 digits
+					throw new IllegalArgumentException("Integer too long in compact data at position " + pos);
+				int digit = decodeBase64Char(data.charAt(pos++));
+				continuation = (digit & VLQ_CONTINUATION_BIT) != 0;
+				result |= (digit & VLQ_BASE_MASK) << shift;
+				shift += VLQ_BASE_SHIFT;
+			} while (continuation);
+			return (result >>> 1) ^ -(result & 1);
+		}
+
+		private static int decodeBase64Char(char c) {
+			if (c >= 'A' && c <= 'Z')
+				return c - 'A';
+			if (c >= 'a' && c <= 'z')
+				return c - 'a' + 26;
+			if (c >= '0' && c <= '9')
+				return c - '0' + 52;
+			if (c == '+')
+				return 62;
+			if (c == '/')
+				return 63;
+			throw new IllegalArgumentException("Invalid character in compact data: " + c);
+		}
+	}
+}
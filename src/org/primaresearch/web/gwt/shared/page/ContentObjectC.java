@@ -38,6 +38,8 @@ public class ContentObjectC implements Identifiable, GeometricObject, Serializab
 	private VariableMap attributes;
 	private String text;
 	private boolean readOnly = false;
+	/** Client-side rendering data derived from the outline (e.g. a cached canvas path; not serialised) */
+	private transient Object renderCache = null;
 	
 	/**
 	 * Empty constructor (required for GWT)
@@ -70,6 +72,29 @@ public class ContentObjectC implements Identifiable, GeometricObject, Serializab
 	@Override
 	public void setCoords(Polygon coords) {
 		this.coords = coords;
+		renderCache = null;
+	}
+	
+	/**
+	 * Discards outline dependent cached data (to be called after the outline polygon has been modified in place).
+	 */
+	public void outlineChanged() {
+		renderCache = null;
+	}
+	
+	/**
+	 * Returns the rendering data derived from the outline (see {@link #setRenderCache(Object)}).
+	 * @return Cached data or <code>null</code>
+	 */
+	public Object getRenderCache() {
+		return renderCache;
+	}
+
+	/**
+	 * Stores rendering data derived from the outline. The data is discarded when the outline changes.
+	 */
+	public void setRenderCache(Object renderCache) {
+		this.renderCache = renderCache;
 	}
 
 	public void setId(String id) {
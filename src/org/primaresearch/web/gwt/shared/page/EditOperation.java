@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.shared.page;
+
+import java.io.Serializable;
+
+import org.primaresearch.dla.page.layout.physical.shared.ContentType;
+import org.primaresearch.maths.geometry.Polygon;
+import org.primaresearch.shared.variable.Variable;
+
+/**
+ * Single page content modification for batch synchronisation (text content, attribute value, outline or deletion).
+ *
+ * @author Christian Clausner
+ *
+ */
+public class EditOperation implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	//Operation types
+	public static final int TYPE_TextContent	= 1;
+	public static final int TYPE_Attribute		= 2;
+	public static final int TYPE_Outline		= 3;
+	public static final int TYPE_Delete			= 4;
+
+	/** Operation type (see TYPE_... constants) */
+	public int operation;
+	/** Type of the content object to modify */
+	public ContentType contentType;
+	/** ID of the content object to modify */
+	public String contentObjectId;
+	/** New text content (text content operation only) */
+	public String text;
+	/** Attribute with new value (attribute operation only) */
+	public Variable attribute;
+	/** New outline (outline operation only) */
+	public Polygon outline;
+
+	/**
+	 * Empty constructor (required for GWT)
+	 */
+	public EditOperation() {
+	}
+
+	private EditOperation(int operation, ContentType contentType, String contentObjectId) {
+		this.operation = operation;
+		this.contentType = contentType;
+		this.contentObjectId = contentObjectId;
+	}
+
+	/**
+	 * Creates an operation that replaces the text content of a content object.
+	 */
+	public static EditOperation createTextContentOperation(ContentType contentType, String contentObjectId, String text) {
+		EditOperation op = new EditOperation(TYPE_TextContent, contentType, contentObjectId);
+		op.text = text;
+		return op;
+	}
+
+	/**
+	 * Creates an operation that sets an attribute value of a content object.
+	 */
+	public static EditOperation createAttributeOperation(ContentType contentType, String contentObjectId, Variable attribute) {
+		EditOperation op = new EditOperation(TYPE_Attribute, contentType, contentObjectId);
+		op.attribute = attribute;
+		return op;
+	}
+
+	/**
+	 * Creates an operation that replaces the outline of a content object.
+	 */
+	public static EditOperation createOutlineOperation(ContentType contentType, String contentObjectId, Polygon outline) {
+		EditOperation op = new EditOperation(TYPE_Outline, contentType, contentObjectId);
+		op.outline = outline;
+		return op;
+	}
+
+	/**
+	 * Creates an operation that deletes a content object.
+	 */
+	public static EditOperation createDeleteOperation(ContentType contentType, String contentObjectId) {
+		return new EditOperation(TYPE_Delete, contentType, contentObjectId);
+	}
+}
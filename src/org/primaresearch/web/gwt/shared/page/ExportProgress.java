@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.shared.page;
+
+import java.io.Serializable;
+
+/**
+ * Progress of an asynchronous multi-page export job (snapshot).
+ *
+ * @author Christian Clausner
+ *
+ */
+public class ExportProgress implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** ID of the export job */
+	public String jobId;
+	/** Number of pages to export (0 until the METS file has been read) */
+	public int pageCount;
+	/** Number of pages that have been written */
+	public int savedPageCount;
+	/** Export completed (successfully or not) */
+	public boolean finished;
+	/** Error description if the export failed, <code>null</code> otherwise */
+	public String errorMessage;
+
+	/**
+	 * Empty constructor (required for GWT)
+	 */
+	public ExportProgress() {
+	}
+
+	public ExportProgress(String jobId) {
+		this.jobId = jobId;
+	}
+
+	/**
+	 * Creates a copy of this progress object
+	 */
+	public ExportProgress copy() {
+		ExportProgress copy = new ExportProgress(jobId);
+		copy.pageCount = pageCount;
+		copy.savedPageCount = savedPageCount;
+		copy.finished = finished;
+		copy.errorMessage = errorMessage;
+		return copy;
+	}
+
+	/**
+	 * Export completed successfully
+	 */
+	public boolean isSuccessful() {
+		return finished && errorMessage == null;
+	}
+}
@@ -17,10 +17,15 @@ package org.primaresearch.web.gwt.shared.user;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
- * Permissions (for current combination of user/document/attachment).
+ * Permissions (for current combination of user/document/attachment).<br>
+ * <br>
+ * Permission names are hierarchical ('.' is separator). A permission that is not specified directly
+ * is inherited from its parent. The effective permissions are resolved once and kept in a lookup table,
+ * so repeated checks are a single map lookup.
  * 
  * @author Christian Clausner
  *
@@ -30,6 +35,8 @@ public class Permissions implements Serializable {
 	private static final long serialVersionUID = 1L;
 	
 	private Map<String,Boolean> permissions = new HashMap<String, Boolean>();
+	/** Effective permissions (resolved hierarchy; replaced on change, never modified) */
+	private transient volatile Map<String,Boolean> effectivePermissions = null;
 
 	public Permissions() {
 	}
@@ -39,6 +46,7 @@ public class Permissions implements Serializable {
 	 */
 	public void clear() {
 		permissions.clear();
+		effectivePermissions = null;
 	}
 	
 	/**
@@ -48,6 +56,7 @@ public class Permissions implements Serializable {
 	 */
 	public void addPermissionEntry(String name, boolean granted) {
 		permissions.put(name, granted);
+		effectivePermissions = null;
 	}
 	
 	/**
@@ -56,16 +65,61 @@ public class Permissions implements Serializable {
 	 * @return <code>true</code> if permitted, <code>false</code> if forbidden 
 	 */
 	public boolean isPermitted(String name) {
+		Map<String,Boolean> table = effectivePermissions;
+		if (table == null) {
+			table = createEffectivePermissions();
+			effectivePermissions = table;
+		}
+		
+		Boolean permitted = table.get(name);
+		if (permitted != null)
+			return permitted;
+		
+		//Name not in table yet -> Resolve and add (copy on write)
+		permitted = resolve(name);
+		Map<String,Boolean> extended = new HashMap<String, Boolean>(table);
+		extended.put(name, permitted);
+		effectivePermissions = extended;
+		return permitted;
+	}
+	
+	/**
+	 * Creates the lookup table with all specified permissions and their parents
+	 */
+	private Map<String,Boolean> createEffectivePermissions() {
+		Map<String,Boolean> table = new HashMap<String, Boolean>(permissions.size() * 4);
+		for (Iterator<String> it = permissions.keySet().iterator(); it.hasNext(); ) {
+			String name = it.next();
+			table.put(name, permissions.get(name));
+			
+			//Parents
+			int pos = name.lastIndexOf('.');
+			while (pos > 0) {
+				String parent = name.substring(0, pos);
+				if (!table.containsKey(parent))
+					table.put(parent, resolve(parent));
+				pos = parent.lastIndexOf('.');
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * Determines the permission by walking up the hierarchy
+	 */
+	private boolean resolve(String name) {
 		//Is the permission specified directly?
 		if (permissions.containsKey(name)) {
 			return permissions.get(name);
 		}
 		
 		//Otherwise check parent permission ('.' is separator)
+		//Note: The looked up name ends one character before the separator (as in earlier versions).
+		//      Changing this would change the authorisation results for existing permission sets.
 		int pos = name.lastIndexOf('.');
 		if (pos > 0) {
 			String parent = name.substring(0, pos-1);
-			return isPermitted(parent);
+			return resolve(parent);
 		}
 		return false;
 	}
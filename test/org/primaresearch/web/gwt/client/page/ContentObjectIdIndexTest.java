@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.client.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.primaresearch.dla.page.layout.physical.shared.RegionType;
+import org.primaresearch.web.gwt.shared.page.ContentObjectC;
+
+/**
+ * Tests for the ID lookup maps of the client-side page layout (checked against a linear search).
+ *
+ * @author Christian Clausner
+ *
+ */
+public class ContentObjectIdIndexTest {
+
+	private static final int OBJECT_COUNT = 50000;
+
+	@Test
+	public void testLookup() {
+		List<ContentObjectC> objects = createObjects(OBJECT_COUNT);
+		ContentObjectIdIndex index = new ContentObjectIdIndex(objects);
+		for (int i=0; i<objects.size(); i++) {
+			assertSame(objects.get(i), index.get(objects.get(i).getId()));
+			assertEquals(i, index.indexOf(objects.get(i)));
+		}
+		assertNull(index.get("unknown"));
+	}
+
+	@Test
+	public void testAddAndRemove() {
+		List<ContentObjectC> objects = createObjects(OBJECT_COUNT);
+		ContentObjectIdIndex index = new ContentObjectIdIndex(objects);
+
+		//Remove every tenth object (from the front, so that the positions of the following objects change)
+		for (int i=0; i<objects.size(); i+=9) {
+			ContentObjectC obj = objects.remove(i);
+			index.remove(obj, i);
+			assertNull(index.get(obj.getId()));
+			assertEquals(-1, index.indexOf(obj));
+		}
+		for (int i=0; i<1000; i++) {
+			ContentObjectC obj = createObject("added"+i);
+			objects.add(obj);
+			index.add(obj);
+		}
+		assertEquals(true, index.isUpToDate(objects));
+		for (int i=0; i<objects.size(); i++) {
+			assertSame(objects.get(i), index.get(objects.get(i).getId()));
+			assertEquals(i, index.indexOf(objects.get(i)));
+		}
+	}
+
+	@Test
+	public void testIdChanged() {
+		List<ContentObjectC> objects = createObjects(OBJECT_COUNT);
+		ContentObjectIdIndex index = new ContentObjectIdIndex(objects);
+		for (int i=0; i<objects.size(); i+=7) {
+			ContentObjectC obj = objects.get(i);
+			String oldId = obj.getId();
+			obj.setId("renamed"+i);
+			index.idChanged(obj, oldId);
+			assertNull(index.get(oldId));
+		}
+		for (int i=0; i<objects.size(); i++) {
+			assertSame(objects.get(i), index.get(objects.get(i).getId()));
+			assertEquals(i, index.indexOf(objects.get(i)));
+		}
+	}
+
+	@Test
+	public void testDuplicateIds() {
+		ContentObjectC a1 = createObject("a");
+		ContentObjectC b = createObject("b");
+		ContentObjectC a2 = createObject("a");
+		ContentObjectC a3 = createObject("a");
+		List<ContentObjectC> objects = new ArrayList<ContentObjectC>();
+		objects.add(a1);
+		objects.add(b);
+		objects.add(a2);
+		ContentObjectIdIndex index = new ContentObjectIdIndex(objects);
+		objects.add(a3);
+		index.add(a3);
+		assertSame(a1, index.get("a"));
+
+		//Removing one object must keep the others with the same ID
+		objects.remove(0);
+		index.remove(a1, 0);
+		assertSame(a2, index.get("a"));
+		assertEquals(1, index.indexOf(a2));
+
+		//Renaming
+		a2.setId("c");
+		index.idChanged(a2, "a");
+		assertSame(a3, index.get("a"));
+		assertSame(a2, index.get("c"));
+
+		//Renamed object precedes the current one
+		b.setId("a");
+		index.idChanged(b, "b");
+		assertSame(b, index.get("a"));
+		assertNull(index.get("b"));
+
+		objects.remove(0);
+		index.remove(b, 0);
+		assertSame(a3, index.get("a"));
+		objects.remove(1);
+		index.remove(a3, 1);
+		assertNull(index.get("a"));
+		assertSame(a2, index.get("c"));
+		assertEquals(0, index.indexOf(a2));
+	}
+
+	@Test
+	public void testRandomOperationsWithDuplicateIds() {
+		Random random = new Random(42);
+		List<ContentObjectC> objects = new ArrayList<ContentObjectC>();
+		for (int i=0; i<OBJECT_COUNT; i++)
+			objects.add(createObject("id"+random.nextInt(OBJECT_COUNT / 2)));
+		ContentObjectIdIndex index = new ContentObjectIdIndex(objects);
+
+		for (int round=0; round<100; round++) {
+			for (int i=0; i<50; i++) {
+				int op = random.nextInt(3);
+				if (op == 0) {
+					ContentObjectC obj = createObject("id"+random.nextInt(OBJECT_COUNT / 2));
+					objects.add(obj);
+					index.add(obj);
+				}
+				else if (op == 1) {
+					int pos = random.nextInt(objects.size());
+					ContentObjectC obj = objects.remove(pos);
+					index.remove(obj, pos);
+				}
+				else {
+					ContentObjectC obj = objects.get(random.nextInt(objects.size()));
+					String oldId = obj.getId();
+					obj.setId("id"+random.nextInt(OBJECT_COUNT / 2));
+					index.idChanged(obj, oldId);
+				}
+			}
+			//Compare with linear search
+			for (int i=0; i<10; i++) {
+				String id = "id"+random.nextInt(OBJECT_COUNT / 2);
+				ContentObjectC expected = null;
+				for (ContentObjectC obj : objects) {
+					if (id.equals(obj.getId())) {
+						expected = obj;
+						break;
+					}
+				}
+				assertSame(expected, index.get(id));
+				if (expected != null)
+					assertEquals(objects.indexOf(expected), index.indexOf(expected));
+			}
+		}
+	}
+
+	/**
+	 * Walks through all regions of a large page layout (also a small benchmark; the time is printed).
+	 */
+	@Test
+	public void testNextAndPreviousObject() {
+		List<ContentObjectC> objects = createObjects(OBJECT_COUNT);
+		PageLayoutC layout = new PageLayoutC();
+		layout.setContent(PageLayoutC.TYPE_Regions, objects);
+
+		//Some modifications through the layout
+		for (int i=0; i<100; i++)
+			layout.remove(objects.get(i * 100));
+		for (int i=0; i<100; i++)
+			layout.add(createObject("added"+i));
+		ContentObjectC renamed = objects.get(5000);
+		String oldId = renamed.getId();
+		renamed.setId("renamed");
+		layout.contentObjectIdChanged(renamed, oldId);
+
+		long start = System.nanoTime();
+		ContentObjectC obj = objects.get(0);
+		for (int i=0; i<objects.size(); i++) {
+			ContentObjectC next = layout.getNextObject(obj);
+			assertSame(objects.get((i + 1) % objects.size()), next);
+			assertSame(obj, layout.getPreviousObject(next));
+			obj = next;
+		}
+		assertSame(renamed, layout.findContentObject("renamed"));
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+		System.out.println("Next/previous for " + objects.size() + " objects: " + elapsed + " ms");
+	}
+
+	private static List<ContentObjectC> createObjects(int count) {
+		List<ContentObjectC> objects = new ArrayList<ContentObjectC>(count);
+		for (int i=0; i<count; i++)
+			objects.add(createObject("r"+i));
+		return objects;
+	}
+
+	private static ContentObjectC createObject(String id) {
+		ContentObjectC obj = new ContentObjectC(null, id);
+		obj.setType(RegionType.TextRegion);
+		return obj;
+	}
+}
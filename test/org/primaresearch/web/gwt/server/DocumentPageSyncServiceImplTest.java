@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.primaresearch.dla.page.Page;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the per-document locks used when loading and editing pages.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class DocumentPageSyncServiceImplTest {
+
+	private static final String PAGE_XML = 
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<PcGts xmlns=\"http://schema.primaresearch.org/PAGE/gts/pagecontent/2013-07-15\" pcGtsId=\"pc-test\">\n"
+			+ "<Metadata><Creator>Test</Creator><Created>2015-01-01T00:00:00</Created><LastChange>2015-01-01T00:00:00</LastChange></Metadata>\n"
+			+ "<Page imageFilename=\"test.tif\" imageWidth=\"100\" imageHeight=\"100\"></Page>\n"
+			+ "</PcGts>\n";
+	
+	/** Response time of the stub attachment server for documents with 'delay' in the path */
+	private static final long DELAY = 100;
+	
+	private HttpServer server;
+	private String baseUrl;
+	private CountDownLatch slowRequested;
+	private CountDownLatch slowRelease;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws IOException {
+		slowRequested = new CountDownLatch(1);
+		slowRelease = new CountDownLatch(1);
+		executor = Executors.newCachedThreadPool();
+		
+		//Stub attachment server
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				try {
+					if (path.contains("slow")) {
+						//Blocks until the test releases it
+						slowRequested.countDown();
+						slowRelease.await(30, TimeUnit.SECONDS);
+					}
+					else if (path.contains("delay"))
+						Thread.sleep(DELAY);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				byte[] data = PAGE_XML.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/xml");
+				exchange.sendResponseHeaders(200, data.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(data);
+				out.close();
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+	
+	@After
+	public void tearDown() {
+		slowRelease.countDown();
+		server.stop(0);
+		executor.shutdownNow();
+		SharedPageCache.getInstance().clear();
+	}
+
+	@Test
+	public void testSameDocumentUsesSameLock() {
+		DocumentPageSyncServiceImpl service = new DocumentPageSyncServiceImpl();
+		HttpSession session = createSession("session1");
+		assertSame(service.getPageLock(session, "http://host/page.xml"), 
+					service.getPageLock(createSession("session1"), "http://host/page.xml"));
+	}
+
+	@Test
+	public void testDocumentsAreSpreadOverLocks() {
+		DocumentPageSyncServiceImpl service = new DocumentPageSyncServiceImpl();
+		Map<Object, Object> locks = new IdentityHashMap<Object, Object>();
+		for (int i=0; i<64; i++) {
+			locks.put(service.getPageLock(createSession("session"+i), "http://host/page.xml"), null);
+			locks.put(service.getPageLock(createSession("session"), "http://host/page"+i+".xml"), null);
+		}
+		assertEquals(true, locks.size() > 32);
+	}
+
+	@Test
+	public void testSlowPageLoadDoesNotBlockOtherPage() throws Exception {
+		final DocumentPageSyncServiceImpl service = new DocumentPageSyncServiceImpl();
+		final HttpSession session = createSession("session");
+		final String slowUrl = baseUrl + "/slow.xml";
+		
+		//Find a document with a different lock
+		int i = 0;
+		while (service.getPageLock(session, baseUrl + "/fast"+i+".xml") == service.getPageLock(session, slowUrl))
+			i++;
+		final String fastUrl = baseUrl + "/fast"+i+".xml";
+		
+		Future<Page> slowLoad = executor.submit(new Callable<Page>() {
+			@Override
+			public Page call() throws Exception {
+				return service.getPageFile(session, slowUrl, false);
+			}
+		});
+		assertEquals(true, slowRequested.await(10, TimeUnit.SECONDS));
+		
+		Future<Page> fastLoad = executor.submit(new Callable<Page>() {
+			@Override
+			public Page call() throws Exception {
+				return service.getPageFile(session, fastUrl, false);
+			}
+		});
+		
+		//The other page has to load while the slow one is still waiting for the server
+		assertNotNull(fastLoad.get(10, TimeUnit.SECONDS));
+		assertEquals(false, slowLoad.isDone());
+		
+		slowRelease.countDown();
+		assertNotNull(slowLoad.get(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Small benchmark: Sessions loading their pages at the same time. With per-document locks the loads
+	 * overlap, so the total time stays well below the sum of the server response times.
+	 */
+	@Test
+	public void testConcurrentSessionThroughput() throws Exception {
+		final DocumentPageSyncServiceImpl service = new DocumentPageSyncServiceImpl();
+		final int sessions = 16;
+		
+		List<Callable<Page>> loads = new ArrayList<Callable<Page>>();
+		for (int i=0; i<sessions; i++) {
+			final HttpSession session = createSession("session"+i);
+			final String url = baseUrl + "/delay"+i+".xml";
+			loads.add(new Callable<Page>() {
+				@Override
+				public Page call() throws Exception {
+					return service.getPageFile(session, url, false);
+				}
+			});
+		}
+		
+		ExecutorService requestThreads = Executors.newFixedThreadPool(sessions);
+		try {
+			long start = System.nanoTime();
+			List<Future<Page>> results = requestThreads.invokeAll(loads);
+			for (Future<Page> result : results)
+				assertNotNull(result.get());
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			
+			System.out.println("Loaded " + sessions + " pages in " + elapsed + " ms ("
+					+ (sessions * 1000L / Math.max(1, elapsed)) + " pages/s; serialised at least " + (sessions * DELAY) + " ms)");
+			assertEquals(true, elapsed < sessions * DELAY / 2);
+		} finally {
+			requestThreads.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates a session that supports getId() and attributes.
+	 */
+	private static HttpSession createSession(final String id) {
+		final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+		return (HttpSession)Proxy.newProxyInstance(HttpSession.class.getClassLoader(), 
+				new Class<?>[] { HttpSession.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getId".equals(method.getName()))
+							return id;
+						if ("getAttribute".equals(method.getName()))
+							return attributes.get(args[0]);
+						if ("setAttribute".equals(method.getName())) {
+							if (args[1] != null)
+								attributes.put((String)args[0], args[1]);
+							else
+								attributes.remove(args[0]);
+							return null;
+						}
+						if ("removeAttribute".equals(method.getName())) {
+							attributes.remove(args[0]);
+							return null;
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the memory budget and LRU eviction of the shared page cache.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class SharedPageCacheTest {
+
+	private static final int DATA_SIZE = 100;
+	private static final long ENTRY_SIZE = DATA_SIZE * SharedPageCache.ESTIMATED_SIZE_FACTOR;
+	
+	private SharedPageCache cache;
+	private long oldMaxSize;
+
+	@Before
+	public void setUp() {
+		cache = SharedPageCache.getInstance();
+		cache.clear();
+		oldMaxSize = cache.getMaxSize();
+	}
+	
+	@After
+	public void tearDown() {
+		cache.clear();
+		cache.setMaxSize(oldMaxSize);
+	}
+
+	@Test
+	public void testSizeAccounting() {
+		cache.setMaxSize(10 * ENTRY_SIZE);
+		cache.put("a", createEntry());
+		cache.put("b", createEntry());
+		assertEquals(2, cache.getEntryCount());
+		assertEquals(2 * ENTRY_SIZE, cache.getCurrentSize());
+		
+		//Replace
+		cache.put("a", createEntry());
+		assertEquals(2, cache.getEntryCount());
+		assertEquals(2 * ENTRY_SIZE, cache.getCurrentSize());
+		
+		cache.remove("a");
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(ENTRY_SIZE, cache.getCurrentSize());
+		
+		cache.clear();
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0L, cache.getCurrentSize());
+	}
+
+	@Test
+	public void testBudget() {
+		cache.setMaxSize(3 * ENTRY_SIZE);
+		long evictions = cache.getEvictionCount();
+		for (int i=0; i<10; i++) {
+			cache.put("page"+i, createEntry());
+			assertEquals(true, cache.getCurrentSize() <= cache.getMaxSize());
+		}
+		assertEquals(3, cache.getEntryCount());
+		assertEquals(3 * ENTRY_SIZE, cache.getCurrentSize());
+		assertEquals(evictions + 7, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		cache.setMaxSize(2 * ENTRY_SIZE);
+		cache.put("a", createEntry());
+		cache.put("b", createEntry());
+		cache.put("a", createEntry()); //Most recently used now
+		cache.put("c", createEntry());
+		
+		assertEquals(2, cache.getEntryCount());
+		
+		//"b" was the least recently used entry -> Removing it must not change the size
+		long size = cache.getCurrentSize();
+		cache.remove("b");
+		assertEquals(size, cache.getCurrentSize());
+		cache.remove("a");
+		assertEquals(size - ENTRY_SIZE, cache.getCurrentSize());
+	}
+
+	@Test
+	public void testEntryLargerThanBudget() {
+		cache.setMaxSize(ENTRY_SIZE / 2);
+		cache.put("a", createEntry());
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0L, cache.getCurrentSize());
+	}
+
+	private static SharedPageCache.Entry createEntry() {
+		return new SharedPageCache.Entry(null, new byte[DATA_SIZE], "\"etag\"", null);
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.soap.SOAPException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for SOAP requests (against a local stub service) and the thread pool of asynchronous requests.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class SimpleSoapRequestTest {
+
+	/** Response time of the stub service for the path '/delay' */
+	private static final long DELAY = 200;
+	private static final Pattern VALUE_PATTERN = Pattern.compile("<value[^>]*>(.*?)</value>");
+	
+	private HttpServer server;
+	private String baseUrl;
+	private CountDownLatch slowRelease;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws IOException {
+		slowRelease = new CountDownLatch(1);
+		executor = Executors.newCachedThreadPool();
+		
+		//Stub SOAP service (returns the value of the parameter 'value')
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String request = new String(readFully(exchange.getRequestBody()), "UTF-8");
+				String path = exchange.getRequestURI().getPath();
+				try {
+					if (path.startsWith("/slow"))
+						slowRelease.await(30, TimeUnit.SECONDS);
+					else if (path.startsWith("/delay"))
+						Thread.sleep(DELAY);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				Matcher matcher = VALUE_PATTERN.matcher(request);
+				String value = matcher.find() ? matcher.group(1) : "";
+				byte[] data = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+						+ "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\"><S:Body>"
+						+ "<p:echoResponse xmlns:p=\"www.primaresearch.org\"><return>" + value + "</return></p:echoResponse>"
+						+ "</S:Body></S:Envelope>").getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+				exchange.sendResponseHeaders(200, data.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(data);
+				out.close();
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		slowRelease.countDown();
+		server.stop(0);
+		executor.shutdownNow();
+		SimpleSoapRequest.shutdown();
+		SimpleSoapRequest.setAsyncPoolSize(8, 64);
+		SimpleSoapRequest.setDefaultTimeouts(10000, 60000);
+	}
+
+	@Test
+	public void testSend() throws Exception {
+		assertEquals("hello", createRequest("/echo", "hello").send());
+	}
+
+	@Test
+	public void testSendAsync() throws Exception {
+		assertEquals("hello", createRequest("/echo", "hello").sendAsync().get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		SimpleSoapRequest request = createRequest("/slow", "hello");
+		request.setTimeouts(5000, 300);
+		long start = System.nanoTime();
+		try {
+			request.send();
+			fail("Request should have timed out");
+		} catch (SOAPException e) {
+			//Expected
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals(true, elapsed < 5000);
+	}
+
+	@Test
+	public void testDefaultReadTimeout() throws Exception {
+		SimpleSoapRequest.setDefaultTimeouts(5000, 300);
+		long start = System.nanoTime();
+		try {
+			createRequest("/slow", "hello").sendAsync().get(10, TimeUnit.SECONDS);
+			fail("Request should have timed out");
+		} catch (ExecutionException e) {
+			assertEquals(true, e.getCause() instanceof SOAPException);
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals(true, elapsed < 5000);
+	}
+
+	/**
+	 * Latency of concurrent asynchronous requests to a slow service (also a small benchmark; the times are printed).
+	 * The requests are processed in parallel, so the total time stays well below the sum of the response times.
+	 */
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		final int requests = 16;
+		SimpleSoapRequest.setAsyncPoolSize(requests, requests);
+		
+		long start = System.nanoTime();
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i=0; i<requests; i++)
+			results.add(createRequest("/delay", "value"+i).sendAsync());
+		for (int i=0; i<requests; i++)
+			assertEquals("value"+i, results.get(i).get(10, TimeUnit.SECONDS));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		
+		System.out.println(requests + " concurrent SOAP requests with " + DELAY + " ms service time: " + elapsed 
+				+ " ms (sequential at least " + (requests * DELAY) + " ms)");
+		assertEquals(true, elapsed < requests * DELAY / 2);
+	}
+
+	@Test
+	public void testFullPoolRejectsRequests() throws Exception {
+		SimpleSoapRequest.setAsyncPoolSize(1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		Future<String> running = SimpleSoapRequest.submitAsync(new BlockingTask(started, release));
+		assertEquals(true, started.await(10, TimeUnit.SECONDS));
+		Future<String> queued = SimpleSoapRequest.submitAsync(new BlockingTask(null, release));
+		try {
+			SimpleSoapRequest.submitAsync(new BlockingTask(null, release));
+			fail("Request should have been rejected");
+		} catch (RejectedExecutionException e) {
+			//Expected
+		}
+		
+		release.countDown();
+		assertEquals("done", running.get(10, TimeUnit.SECONDS));
+		assertEquals("done", queued.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testShutdownCancelsPendingRequests() throws Exception {
+		SimpleSoapRequest.setAsyncPoolSize(1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		Future<String> running = SimpleSoapRequest.submitAsync(new BlockingTask(started, release));
+		assertEquals(true, started.await(10, TimeUnit.SECONDS));
+		
+		SimpleSoapRequest.shutdown();
+		try {
+			running.get(10, TimeUnit.SECONDS);
+			fail("Request should have been interrupted");
+		} catch (ExecutionException e) {
+			assertEquals(true, e.getCause() instanceof InterruptedException);
+		}
+		
+		//A new pool is created on demand
+		assertEquals("done", SimpleSoapRequest.submitAsync(new BlockingTask(null, null)).get(10, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPoolSize() {
+		SimpleSoapRequest.setAsyncPoolSize(0, 1);
+	}
+
+	private SimpleSoapRequest createRequest(String path, String value) {
+		SimpleSoapRequest request = new SimpleSoapRequest(baseUrl + path, "echo");
+		request.addMethodParameter("value", value);
+		return request;
+	}
+	
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			data.write(buffer, 0, read);
+		in.close();
+		return data.toByteArray();
+	}
+
+	/**
+	 * Task that waits until it is released.
+	 */
+	private static class BlockingTask implements Callable<String> {
+		private final CountDownLatch started;
+		private final CountDownLatch release;
+		
+		public BlockingTask(CountDownLatch started, CountDownLatch release) {
+			this.started = started;
+			this.release = release;
+		}
+		
+		@Override
+		public String call() throws Exception {
+			if (started != null)
+				started.countDown();
+			if (release != null)
+				release.await();
+			return "done";
+		}
+	}
+}
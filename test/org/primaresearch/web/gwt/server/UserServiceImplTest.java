@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+/**
+ * Tests for the decryption of user tokens (cached keys and pooled cipher instances),
+ * the application data cache and the database connection pool.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class UserServiceImplTest {
+
+	private static final String SECRET = "secret";
+	private static final String ENCODING = "ISO-8859-1";
+	private static final String TOKEN = "{\"ip\":\"127.0.0.1\",\"ts\":\"1420070400\",\"uid\":\"user\"}";
+
+	@Test
+	public void testDecrypt() throws Exception {
+		String msg = encrypt(TOKEN, SECRET, 1);
+		assertEquals(TOKEN, UserServiceImpl.decrypt(msg, UserServiceImpl.createKeySpec(SECRET), ENCODING));
+	}
+
+	@Test
+	public void testCachedKeyEqualsDerivedKey() throws Exception {
+		UserServiceImpl service = new UserServiceImpl();
+		SecretKeySpec cached = service.getKeySpec(SECRET);
+		assertSame(cached, service.getKeySpec(SECRET));
+		assertArrayEquals(UserServiceImpl.createKeySpec(SECRET).getEncoded(), cached.getEncoded());
+		
+		//Same result with cached and newly derived key (and reused cipher instances)
+		for (int i=0; i<20; i++) {
+			String msg = encrypt(TOKEN + i, SECRET, i);
+			assertEquals(UserServiceImpl.decrypt(msg, UserServiceImpl.createKeySpec(SECRET), ENCODING), 
+						UserServiceImpl.decrypt(msg, service.getKeySpec(SECRET), ENCODING));
+			assertEquals(TOKEN + i, UserServiceImpl.decrypt(msg, service.getKeySpec(SECRET), ENCODING));
+		}
+	}
+
+	@Test
+	public void testConcurrentDecryption() throws Exception {
+		final SecretKeySpec keySpec = UserServiceImpl.createKeySpec(SECRET);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i=0; i<200; i++) {
+				final String msg = encrypt(TOKEN + i, SECRET, i);
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return UserServiceImpl.decrypt(msg, keySpec, ENCODING);
+					}
+				}));
+			}
+			for (int i=0; i<results.size(); i++)
+				assertEquals(TOKEN + i, results.get(i).get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Micro-benchmark: decryption with cached key and pooled ciphers compared to deriving the key and
+	 * creating the cipher for each token (as before). The times are printed; only the results are checked.
+	 * A plain timing loop with warm-up is used, since the test classpath only provides JUnit.
+	 */
+	@Test
+	public void testDecryptBenchmark() throws Exception {
+		final int warmUp = 5000;
+		final int iterations = 50000;
+		String msg = encrypt(TOKEN, SECRET, 1);
+		UserServiceImpl service = new UserServiceImpl();
+		
+		for (int i=0; i<warmUp; i++) {
+			assertEquals(TOKEN, decryptUncached(msg, SECRET));
+			assertEquals(TOKEN, UserServiceImpl.decrypt(msg, service.getKeySpec(SECRET), ENCODING));
+		}
+		
+		long start = System.nanoTime();
+		for (int i=0; i<iterations; i++)
+			decryptUncached(msg, SECRET);
+		long uncached = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		for (int i=0; i<iterations; i++)
+			UserServiceImpl.decrypt(msg, service.getKeySpec(SECRET), ENCODING);
+		long cached = System.nanoTime() - start;
+		
+		System.out.println("Decrypt (" + iterations + " tokens): uncached " + (uncached / iterations) 
+				+ " ns/op, cached key and pooled cipher " + (cached / iterations) + " ns/op");
+	}
+
+	@Test
+	public void testApplicationRecordIsCached() {
+		CountingUserService service = new CountingUserService();
+		
+		UserServiceImpl.ApplicationRecord record = service.getApplicationRecord("app");
+		assertEquals("key-app", record.secretKey);
+		assertSame(record, service.getApplicationRecord("app"));
+		assertEquals(1, service.loadCount);
+		
+		//Other application
+		assertEquals("key-other", service.getApplicationRecord("other").secretKey);
+		assertEquals(2, service.loadCount);
+		
+		//Expired
+		record.expiryTime = System.currentTimeMillis() - 1;
+		service.getApplicationRecord("app");
+		assertEquals(3, service.loadCount);
+	}
+
+	@Test
+	public void testUnknownApplicationIsNotCached() {
+		CountingUserService service = new CountingUserService();
+		assertNull(service.getApplicationRecord(null));
+		assertNull(service.getApplicationRecord(null));
+		assertEquals(2, service.loadCount);
+	}
+
+	@Test
+	public void testIdleConnectionsAreReused() throws Exception {
+		UserServiceImpl service = new UserServiceImpl();
+		
+		//Broken connections are closed, not pooled
+		ConnectionStub broken = new ConnectionStub(true);
+		service.releaseDatabaseConnection(broken.connection, false);
+		assertEquals(true, broken.closed);
+		
+		//Pool is bounded
+		List<ConnectionStub> stubs = new ArrayList<ConnectionStub>();
+		for (int i=0; i<UserServiceImpl.MAX_IDLE_CONNECTIONS + 2; i++) {
+			ConnectionStub stub = new ConnectionStub(true);
+			stubs.add(stub);
+			service.releaseDatabaseConnection(stub.connection, true);
+		}
+		for (int i=0; i<stubs.size(); i++)
+			assertEquals(i >= UserServiceImpl.MAX_IDLE_CONNECTIONS, stubs.get(i).closed);
+		
+		//Idle connections are handed out again
+		for (int i=0; i<UserServiceImpl.MAX_IDLE_CONNECTIONS; i++)
+			assertSame(stubs.get(i).connection, service.getDatabaseConnection());
+	}
+
+	@Test
+	public void testInvalidIdleConnectionIsDiscarded() throws Exception {
+		UserServiceImpl service = new UserServiceImpl();
+		ConnectionStub invalid = new ConnectionStub(false);
+		ConnectionStub valid = new ConnectionStub(true);
+		service.releaseDatabaseConnection(invalid.connection, true);
+		service.releaseDatabaseConnection(valid.connection, true);
+		
+		assertSame(valid.connection, service.getDatabaseConnection());
+		assertEquals(true, invalid.closed);
+	}
+
+	/**
+	 * Encrypts the given text the same way as the integrating application (IV + encrypted data, base64 encoded)
+	 */
+	private static String encrypt(String text, String secret, int ivSeed) throws Exception {
+		byte[] iv = new byte[16];
+		for (int i=0; i<iv.length; i++)
+			iv[i] = (byte)(ivSeed * 31 + i);
+		
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		String md5key = String.format("%032x", new BigInteger(1, md.digest(secret.getBytes())));
+		
+		Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(md5key.getBytes(), "AES"), new IvParameterSpec(iv));
+		byte[] encrypted = cipher.doFinal(text.getBytes(ENCODING));
+		
+		byte[] msg = new byte[iv.length + encrypted.length];
+		System.arraycopy(iv, 0, msg, 0, iv.length);
+		System.arraycopy(encrypted, 0, msg, iv.length, encrypted.length);
+		return new String(Base64.encodeBase64(msg), ENCODING);
+	}
+
+	/**
+	 * Decryption as before the key cache and cipher pool (key derivation and new cipher for each call)
+	 */
+	private static String decryptUncached(String msgBase64, String secret) throws Exception {
+		byte[] msgBytes = new Base64().decode(msgBase64.getBytes());
+		String m = new String(msgBytes, ENCODING);
+		byte[] iv = m.substring(0, 16).getBytes(ENCODING);
+		byte[] encrypted = m.substring(16).getBytes(ENCODING);
+		
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		String md5key = String.format("%032x", new BigInteger(1, md.digest(secret.getBytes())));
+		
+		Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
+		cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(md5key.getBytes(), "AES"), new IvParameterSpec(iv));
+		return new String(cipher.doFinal(encrypted), ENCODING);
+	}
+
+	/**
+	 * User service that returns application records without database access and counts the loads.
+	 */
+	private static class CountingUserService extends UserServiceImpl {
+		private static final long serialVersionUID = 1L;
+		private int loadCount = 0;
+		
+		@Override
+		ApplicationRecord loadApplicationRecord(String applicationId) {
+			loadCount++;
+			if (applicationId == null)
+				return null;
+			ApplicationRecord record = new ApplicationRecord();
+			record.secretKey = "key-" + applicationId;
+			return record;
+		}
+	}
+	
+	/**
+	 * Database connection that only supports isValid() and close().
+	 */
+	private static class ConnectionStub implements InvocationHandler {
+		private final boolean valid;
+		private final Connection connection;
+		private boolean closed = false;
+		
+		public ConnectionStub(boolean valid) {
+			this.valid = valid;
+			connection = (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), 
+								new Class<?>[] { Connection.class }, this);
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if ("isValid".equals(method.getName()))
+				return valid && !closed;
+			if ("close".equals(method.getName())) {
+				closed = true;
+				return null;
+			}
+			if ("isClosed".equals(method.getName()))
+				return closed;
+			throw new UnsupportedOperationException(method.getName());
+		}
+	}
+}
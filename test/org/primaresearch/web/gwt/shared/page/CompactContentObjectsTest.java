@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.shared.page;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.primaresearch.web.gwt.shared.page.CompactContentObjects.IntReader;
+
+/**
+ * Tests for the VLQ encoding of the compact content object transfer format.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class CompactContentObjectsTest {
+
+	private static final int[] VALUES = new int[] {
+			0, 1, -1, 15, -15, 16, -16, 31, -31, 32, -32, 1000, -1000,
+			(1 << 29) - 1, 1 << 29, -(1 << 29),
+			(1 << 30) - 1, 1 << 30, -(1 << 30), -(1 << 30) - 1,
+			Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1 };
+
+	@Test
+	public void testRoundTrip() {
+		StringBuilder builder = new StringBuilder();
+		for (int i=0; i<VALUES.length; i++)
+			CompactContentObjects.appendInt(builder, VALUES[i]);
+		
+		IntReader reader = new IntReader(builder.toString());
+		for (int i=0; i<VALUES.length; i++)
+			assertEquals(VALUES[i], reader.next());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void testRoundTripRange() {
+		StringBuilder builder = new StringBuilder();
+		for (int v=-5000; v<=5000; v++)
+			CompactContentObjects.appendInt(builder, v);
+		
+		IntReader reader = new IntReader(builder.toString());
+		for (int v=-5000; v<=5000; v++)
+			assertEquals(v, reader.next());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void testSmallValuesUseOneCharacter() {
+		for (int v=-16; v<16; v++) {
+			StringBuilder builder = new StringBuilder();
+			CompactContentObjects.appendInt(builder, v);
+			assertEquals(1, builder.length());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTruncatedData() {
+		StringBuilder builder = new StringBuilder();
+		CompactContentObjects.appendInt(builder, 100000);
+		new IntReader(builder.substring(0, builder.length() - 1)).next();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidCharacter() {
+		new IntReader("*").next();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTooManyDigits() {
+		new IntReader("////////A").next();
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 PRImA Research Lab, University of Salford, United Kingdom
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.primaresearch.web.gwt.shared.user;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the resolution of hierarchical permissions.
+ * 
+ * @author Christian Clausner
+ *
+ */
+public class PermissionsTest {
+
+	@Test
+	public void testDirectPermission() {
+		Permissions permissions = new Permissions();
+		permissions.addPermissionEntry("edit", true);
+		permissions.addPermissionEntry("delete", false);
+		
+		assertTrue(permissions.isPermitted("edit"));
+		assertFalse(permissions.isPermitted("delete"));
+		assertFalse(permissions.isPermitted("unknown"));
+	}
+
+	/**
+	 * Specified permissions are not inherited by dotted names (the parent lookup uses the name without
+	 * the last character before the separator, as in earlier versions).
+	 */
+	@Test
+	public void testPermissionIsNotInherited() {
+		Permissions permissions = new Permissions();
+		permissions.addPermissionEntry("edit", true);
+		
+		assertFalse(permissions.isPermitted("edit.text"));
+		assertFalse(permissions.isPermitted("edit.text.content"));
+		assertFalse(permissions.isPermitted("editor.text"));
+	}
+
+	@Test
+	public void testTruncatedParentLookup() {
+		Permissions permissions = new Permissions();
+		permissions.addPermissionEntry("edi", true);
+		permissions.addPermissionEntry("edit.tex", true);
+		
+		assertTrue(permissions.isPermitted("edit.text"));
+		assertTrue(permissions.isPermitted("edit.text.content"));
+		assertFalse(permissions.isPermitted("edit"));
+	}
+
+	@Test
+	public void testSpecifiedPermissionsOverrideLookup() {
+		Permissions permissions = new Permissions();
+		permissions.addPermissionEntry("edi", true);
+		permissions.addPermissionEntry("edit.text", false);
+		
+		assertTrue(permissions.isPermitted("edit.outline"));
+		assertFalse(permissions.isPermitted("edit.text"));
+	}
+
+	@Test
+	public void testParentOfSpecifiedPermission() {
+		Permissions permissions = new Permissions();
+		permissions.addPermissionEntry("edit.text", true);
+		
+		assertFalse(permissions.isPermitted("edit"));
+		assertFalse(permissions.isPermitted("edit.outline"));
+		assertTrue(permissions.isPermitted("edit.text"));
+		assertFalse(permissions.isPermitted("edit.text.content"));
+	}
+
+	@Test
+	public void testChangeAfterLookup() {
+		Permissions permissions = new Permissions();
+		permissions.addPermissionEntry("edi", false);
+		assertFalse(permissions.isPermitted("edit.text"));
+		
+		permissions.addPermissionEntry("edi", true);
+		assertTrue(permissions.isPermitted("edit.text"));
+		
+		permissions.clear();
+		assertFalse(permissions.isPermitted("edit.text"));
+	}
+}